@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21 to JPEG encode time of the pure Java encoder, with and without a
+ * rotation in front of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpegEncoderBenchmark {
+
+    @Param({ "640x480", "1280x720" })
+    public String resolution;
+
+    @Param({ "50", "80" })
+    public int quality;
+
+    private byte[] frame;
+    private Nv21Transform transform;
+    private int width;
+    private int height;
+    private JpegEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        width = Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+        height = Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+        Random random = new Random(42);
+        frame = new byte[width * height * 3 / 2];
+        for (int y = 0, xy = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, xy++) {
+                frame[xy] = (byte) (40 + (x + y) * 150 / (width + height) + random.nextInt(8));
+            }
+        }
+        for (int i = width * height; i < frame.length; i++) {
+            frame[i] = (byte) (120 + random.nextInt(16));
+        }
+        transform = new Nv21Transform();
+        transform.setRotation(90);
+        encoder = new JpegEncoder();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encoder.encode(frame, width, height, quality);
+    }
+
+    @Benchmark
+    public byte[] rotateAndEncode() {
+        byte[] rotated = transform.apply(frame, width, height);
+        return encoder.encode(rotated, transform.getOutputWidth(), transform.getOutputHeight(), quality);
+    }
+}
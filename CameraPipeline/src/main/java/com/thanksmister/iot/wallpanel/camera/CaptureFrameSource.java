@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import com.jjoe64.motiondetection.motiondetection.CaptureReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Plays back a capture file recorded with the capture command, optionally
+ * looping, as if the frames came from the camera.
+ */
+public class CaptureFrameSource extends LoopingFrameSource {
+
+    private final File file;
+    private final boolean loop;
+    private CaptureReader reader;
+    private long frameId;
+    private long base;
+    private long offset;
+    private long lastTimestamp;
+
+    /**
+     * @param fps
+     *            Frames per second, 0 for as fast as possible.
+     * @param loop
+     *            Start again from the first frame at the end of the capture.
+     */
+    public CaptureFrameSource(File file, float fps, boolean loop) {
+        super("CaptureFrameSource", fps);
+        this.file = file;
+        this.loop = loop;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        reader = new CaptureReader(file);
+        if (reader.getFrameCount() == 0) {
+            throw new IOException("No frames in " + file);
+        }
+        frameId = 0;
+        offset = 0;
+        lastTimestamp = 0;
+    }
+
+    @Override
+    protected boolean next(Listener listener) {
+        boolean rewound = false;
+        if (!reader.next()) {
+            if (!loop) {
+                return false;
+            }
+            // Timestamps carry on from where the last pass ended
+            offset = lastTimestamp + 1;
+            reader.rewind();
+            reader.next();
+            rewound = true;
+        }
+        if (frameId == 0 || rewound) {
+            base = reader.getTimestamp();
+        }
+        lastTimestamp = offset + reader.getTimestamp() - base;
+        listener.onFrame(reader.getFrame(), reader.getWidth(), reader.getHeight(), frameId++, lastTimestamp);
+        return true;
+    }
+
+    @Override
+    protected void close() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // na-da
+            }
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import com.jjoe64.motiondetection.motiondetection.LumaPlane;
+
+/**
+ * Picks the camera preview size for streaming and how far frames are reduced
+ * for the detectors, so the stream can run at the best size the camera offers
+ * while motion, face and QR detection keep working on small frames.
+ */
+public final class CaptureSizes {
+
+    /** Largest preview picked automatically, 720p. */
+    public static final int AUTO_MAX_WIDTH = 1280;
+    public static final int AUTO_MAX_HEIGHT = 720;
+
+    /** Size asked for when the supported sizes are not known. */
+    public static final int FALLBACK_WIDTH = 640;
+    public static final int FALLBACK_HEIGHT = 480;
+
+    private CaptureSizes() {
+    }
+
+    /**
+     * Choose a preview size from the ones the camera supports.
+     *
+     * @param supported
+     *            Supported sizes as {width, height} pairs, may be empty.
+     * @param width
+     *            Wanted width, 0 for the largest size up to
+     *            {@link #AUTO_MAX_WIDTH} x {@link #AUTO_MAX_HEIGHT}.
+     * @param height
+     *            Wanted height, ignored when width is 0.
+     * @return {width, height} of the supported size closest to the one wanted,
+     *         or the wanted size itself when nothing is supported.
+     */
+    public static int[] choosePreview(int[][] supported, int width, int height) {
+        if (width <= 0) {
+            width = AUTO_MAX_WIDTH;
+            height = AUTO_MAX_HEIGHT;
+            int[] best = null;
+            for (int[] size : supported) {
+                if (size[0] <= width && size[1] <= height
+                        && (best == null || size[0] * size[1] > best[0] * best[1])) {
+                    best = size;
+                }
+            }
+            if (best != null) {
+                return new int[] { best[0], best[1] };
+            }
+        }
+        if (height <= 0) {
+            height = width * 3 / 4;
+        }
+        int[] best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int[] size : supported) {
+            int distance = Math.abs(size[0] - width) + Math.abs(size[1] - height);
+            if (distance < bestDistance) {
+                best = size;
+                bestDistance = distance;
+            }
+        }
+        return best == null ? new int[] { width, height } : new int[] { best[0], best[1] };
+    }
+
+    /**
+     * The largest downsample factor, out of 1, 2, 4 and 8, that still leaves
+     * a frame at least the given width.
+     *
+     * @param frameWidth
+     *            Width of the preview frames.
+     * @param detectorWidth
+     *            Narrowest frame the detector should get.
+     */
+    public static int reduction(int frameWidth, int detectorWidth) {
+        return LumaPlane.factorFor(frameWidth, detectorWidth);
+    }
+}
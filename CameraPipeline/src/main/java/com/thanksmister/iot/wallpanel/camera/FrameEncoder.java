@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.io.IOException;
+
+/**
+ * Turns an NV21 camera frame into a JPEG. Implementations keep their working
+ * buffers between frames and are used from one thread at a time.
+ */
+public interface FrameEncoder {
+
+    /**
+     * Encode a frame.
+     *
+     * @param nv21
+     *            Byte array representing a YUV420SP image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @param quality
+     *            JPEG quality, 1 to 100.
+     * @return Byte array of the JPEG.
+     * @throws IOException
+     *             if the frame could not be encoded.
+     */
+    byte[] encode(byte[] nv21, int width, int height, int quality) throws IOException;
+
+    /**
+     * Free any resources held between frames, the encoder is not used again.
+     */
+    void release();
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+/**
+ * Scales a frame down once for every detector that wants it smaller than the
+ * preview. The first detector to see a frame pays for the reduction, the rest
+ * get the same buffer back for as long as the frame id stays the same.
+ * Frames that are already small enough are handed back untouched.
+ */
+public class FrameReducer {
+
+    private final int maxWidth;
+    private final Nv21Transform transform = new Nv21Transform();
+
+    private long id = -1;
+    private byte[] source;
+    private byte[] reduced;
+    private int width;
+    private int height;
+
+    /**
+     * @param maxWidth
+     *            Widest frame the detectors should get.
+     */
+    public FrameReducer(int maxWidth) {
+        this.maxWidth = maxWidth;
+    }
+
+    /**
+     * @return The reduced frame, or nv21 itself when it is narrow enough.
+     *         Valid until the next frame.
+     */
+    public synchronized byte[] reduce(long frameId, byte[] nv21, int width, int height) {
+        if (frameId == id && nv21 == source) {
+            return reduced;
+        }
+        id = frameId;
+        source = nv21;
+        transform.setScale(Math.min(4, CaptureSizes.reduction(width, maxWidth)));
+        reduced = transform.apply(nv21, width, height);
+        this.width = transform.getOutputWidth();
+        this.height = transform.getOutputHeight();
+        return reduced;
+    }
+
+    /**
+     * Width of the last reduced frame.
+     */
+    public synchronized int getWidth() {
+        return width;
+    }
+
+    public synchronized int getHeight() {
+        return height;
+    }
+}
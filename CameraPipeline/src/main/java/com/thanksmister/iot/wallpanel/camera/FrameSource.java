@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+/**
+ * Somewhere NV21 frames come from, the device camera or a stand in for it.
+ * Detection and streaming only see the frames, so the same pipeline can run
+ * on a synthetic pattern, a recorded capture or a network camera.
+ */
+public interface FrameSource {
+
+    /**
+     * Receives frames on the source's own thread.
+     */
+    interface Listener {
+
+        /**
+         * A new frame. The buffer belongs to the source and is re-used for
+         * the next frame, so it has to be copied to be kept.
+         *
+         * @param frameId
+         *            Sequence number, counting up from 0.
+         * @param timestampMillis
+         *            Capture time of the frame relative to the first one.
+         */
+        void onFrame(byte[] nv21, int width, int height, long frameId, long timestampMillis);
+
+        /**
+         * The source failed and has stopped.
+         */
+        void onError(Exception e);
+
+        /**
+         * The source lost its frames and keeps trying to get them back, as
+         * a network camera does when it drops the connection. Called for
+         * the first failure and now and then while failures go on, frames
+         * simply resume once it recovers.
+         *
+         * @param failures
+         *            Failures in a row so far.
+         */
+        void onRetry(Exception e, int failures);
+    }
+
+    void start(Listener listener);
+
+    /**
+     * Stop delivering frames, returns without waiting for the source thread.
+     */
+    void stop();
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Follows camera frames through the pipeline by their sequence number. A frame
+ * is stamped once with its capture time when the first detector sees it, and
+ * every later stage records how long after capture it got to that frame into
+ * a {@link LatencyHistogram} of its own.
+ * <p>
+ * Events raised from a frame, such as motion, are handed on by name so the
+ * callback, publish and MQTT stages can be tied back to the frame that caused
+ * them without the frame being passed along.
+ */
+public class FrameTracer {
+
+    public static final String STAGE_FRAME = "frame";
+    public static final String STAGE_STREAM = "stream";
+    public static final String STAGE_ENCODE = "encode";
+    public static final String STAGE_MOTION = "motion";
+    public static final String STAGE_FACE = "face";
+    public static final String STAGE_QR = "qr";
+
+    public static final String EVENT_MOTION = "motion";
+    public static final String EVENT_FACE = "face";
+    public static final String EVENT_QR = "qr";
+
+    public static final String EVENT_DETECTED = "detected";
+    public static final String EVENT_CALLBACK = "callback";
+    public static final String EVENT_PUBLISH = "publish";
+    public static final String EVENT_MQTT = "mqtt";
+
+    // Frames further back than this are no longer followed
+    private static final int SLOTS = 64;
+
+    private static final FrameTracer SHARED = new FrameTracer();
+
+    private final long[] ids = new long[SLOTS];
+    private final long[] captured = new long[SLOTS];
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Long> events = new ConcurrentHashMap<>();
+
+    public FrameTracer() {
+        for (int i = 0; i < SLOTS; i++) {
+            ids[i] = -1;
+        }
+    }
+
+    /**
+     * The tracer the camera pipeline and the service report to.
+     */
+    public static FrameTracer getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Stamp a frame the first time it is seen, later calls for the same frame
+     * are ignored.
+     *
+     * @param ageNanos
+     *            How long ago the frame was captured, recorded as the frame
+     *            stage.
+     */
+    public void begin(long frameId, long ageNanos) {
+        int slot = (int) (frameId & (SLOTS - 1));
+        long age = Math.max(0, ageNanos);
+        synchronized (ids) {
+            if (ids[slot] == frameId) {
+                return;
+            }
+            ids[slot] = frameId;
+            captured[slot] = System.nanoTime() - age;
+        }
+        histogram(STAGE_FRAME).record(age);
+    }
+
+    /**
+     * Record that a stage got to a frame.
+     */
+    public void mark(String stage, long frameId) {
+        int slot = (int) (frameId & (SLOTS - 1));
+        long start;
+        synchronized (ids) {
+            if (ids[slot] != frameId) {
+                return;
+            }
+            start = captured[slot];
+        }
+        histogram(stage).record(System.nanoTime() - start);
+    }
+
+    /**
+     * An event was raised from a frame, following stages are recorded
+     * against it with {@link #markEvent(String, String)}.
+     */
+    public void raise(String event, long frameId) {
+        events.put(event, frameId);
+        mark(event + "." + EVENT_DETECTED, frameId);
+    }
+
+    /**
+     * Record that a stage got to the frame that last raised the event.
+     */
+    public void markEvent(String event, String stage) {
+        Long frameId = events.get(event);
+        if (frameId != null) {
+            mark(event + "." + stage, frameId);
+        }
+    }
+
+    public LatencyHistogram histogram(String stage) {
+        LatencyHistogram histogram = histograms.get(stage);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram previous = histograms.putIfAbsent(stage, histogram);
+            if (previous != null) {
+                histogram = previous;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * All stages recorded so far, sorted by name.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
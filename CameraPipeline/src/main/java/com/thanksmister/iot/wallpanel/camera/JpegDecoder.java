@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.io.IOException;
+
+/**
+ * Turns a JPEG from a network camera back into ARGB pixels, so it can be
+ * converted to NV21 for the pipeline. Android and the JVM decode images
+ * differently, so each side supplies its own.
+ */
+public interface JpegDecoder {
+
+    /**
+     * Decode a JPEG.
+     *
+     * @param size
+     *            Receives the width and height of the image.
+     * @return ARGB pixels, may be re-used by the next call.
+     * @throws IOException
+     *             if the JPEG could not be decoded.
+     */
+    int[] decode(byte[] jpeg, int length, int[] size) throws IOException;
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.util.Arrays;
+
+/**
+ * Baseline JPEG encoder that reads NV21 frames directly. The Y plane and the
+ * interleaved VU plane are already 4:2:0 YCbCr, so frames are encoded
+ * without any colour conversion or intermediate image. Uses the standard
+ * quantization and Huffman tables of the JPEG specification (Annex K).
+ */
+public class JpegEncoder implements FrameEncoder {
+
+    // Natural order index of each coefficient in zig-zag order
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static final int[] LUMINANCE_QUANTIZATION = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    private static final int[] CHROMINANCE_QUANTIZATION = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    private static final int[] DC_LUMINANCE_BITS = { 0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0 };
+    private static final int[] DC_LUMINANCE_VALUES = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+    private static final int[] DC_CHROMINANCE_BITS = { 0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0 };
+    private static final int[] DC_CHROMINANCE_VALUES = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+
+    private static final int[] AC_LUMINANCE_BITS = { 0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d };
+    private static final int[] AC_LUMINANCE_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    private static final int[] AC_CHROMINANCE_BITS = { 0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77 };
+    private static final int[] AC_CHROMINANCE_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    // Huffman codes and lengths indexed by symbol
+    private static final int[][] DC_LUMINANCE = huffmanTable(DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+    private static final int[][] DC_CHROMINANCE = huffmanTable(DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+    private static final int[][] AC_LUMINANCE = huffmanTable(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+    private static final int[][] AC_CHROMINANCE = huffmanTable(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+    private final int[] luminanceTable = new int[64];
+    private final int[] chrominanceTable = new int[64];
+    private final float[] luminanceDivisors = new float[64];
+    private final float[] chrominanceDivisors = new float[64];
+    private int tableQuality = -1;
+
+    private final float[] block = new float[64];
+    private final int[] coefficients = new int[64];
+    private byte[] buffer = new byte[64 * 1024];
+    private int length;
+    private int bitBuffer;
+    private int bitCount;
+
+    @Override
+    public byte[] encode(byte[] nv21, int width, int height, int quality) {
+        if (nv21 == null) throw new NullPointerException();
+        if (width <= 0 || height <= 0 || width > 0xffff || height > 0xffff) {
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        }
+        int chromaStride = (width + 1) & ~1;
+        if (nv21.length < width * height + chromaStride * ((height + 1) / 2)) {
+            throw new IllegalArgumentException("Frame is too short for " + width + "x" + height);
+        }
+
+        quality = Math.max(1, Math.min(100, quality));
+        if (quality != tableQuality) setQuality(quality);
+
+        length = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        writeHeaders(width, height);
+        writeScan(nv21, width, height, chromaStride);
+        writeMarker(0xd9);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Override
+    public void release() {
+        buffer = new byte[0];
+    }
+
+    private void setQuality(int quality) {
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        scaleTable(LUMINANCE_QUANTIZATION, scale, luminanceTable, luminanceDivisors);
+        scaleTable(CHROMINANCE_QUANTIZATION, scale, chrominanceTable, chrominanceDivisors);
+        tableQuality = quality;
+    }
+
+    private static void scaleTable(int[] base, int scale, int[] table, float[] divisors) {
+        for (int i = 0; i < 64; i++) {
+            int q = (base[i] * scale + 50) / 100;
+            table[i] = Math.max(1, Math.min(255, q));
+        }
+        for (int row = 0, i = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++, i++) {
+                divisors[i] = (float) (1.0 / (table[i] * AAN_SCALE[row] * AAN_SCALE[col] * 8.0));
+            }
+        }
+    }
+
+    private static int[][] huffmanTable(int[] bits, int[] values) {
+        int[] codes = new int[256];
+        int[] lengths = new int[256];
+        int code = 0;
+        for (int length = 1, k = 0; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++, k++) {
+                codes[values[k]] = code++;
+                lengths[values[k]] = length;
+            }
+            code <<= 1;
+        }
+        return new int[][] { codes, lengths };
+    }
+
+    private void writeHeaders(int width, int height) {
+        writeMarker(0xd8);
+
+        // JFIF APP0
+        writeMarker(0xe0);
+        writeShort(16);
+        writeByte('J');
+        writeByte('F');
+        writeByte('I');
+        writeByte('F');
+        writeByte(0);
+        writeShort(0x0101);
+        writeByte(0);
+        writeShort(1);
+        writeShort(1);
+        writeByte(0);
+        writeByte(0);
+
+        writeMarker(0xdb);
+        writeShort(2 + 2 * 65);
+        writeByte(0);
+        for (int i = 0; i < 64; i++) writeByte(luminanceTable[ZIGZAG[i]]);
+        writeByte(1);
+        for (int i = 0; i < 64; i++) writeByte(chrominanceTable[ZIGZAG[i]]);
+
+        // Baseline frame, Y sampled 2x2 against Cb and Cr
+        writeMarker(0xc0);
+        writeShort(17);
+        writeByte(8);
+        writeShort(height);
+        writeShort(width);
+        writeByte(3);
+        writeByte(1);
+        writeByte(0x22);
+        writeByte(0);
+        writeByte(2);
+        writeByte(0x11);
+        writeByte(1);
+        writeByte(3);
+        writeByte(0x11);
+        writeByte(1);
+
+        writeMarker(0xc4);
+        writeShort(2 + (17 + DC_LUMINANCE_VALUES.length) + (17 + AC_LUMINANCE_VALUES.length)
+                + (17 + DC_CHROMINANCE_VALUES.length) + (17 + AC_CHROMINANCE_VALUES.length));
+        writeHuffmanTable(0x00, DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x01, DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+        writeHuffmanTable(0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+        writeMarker(0xda);
+        writeShort(12);
+        writeByte(3);
+        writeByte(1);
+        writeByte(0x00);
+        writeByte(2);
+        writeByte(0x11);
+        writeByte(3);
+        writeByte(0x11);
+        writeByte(0);
+        writeByte(63);
+        writeByte(0);
+    }
+
+    private void writeHuffmanTable(int id, int[] bits, int[] values) {
+        writeByte(id);
+        for (int bit : bits) writeByte(bit);
+        for (int value : values) writeByte(value);
+    }
+
+    private void writeScan(byte[] nv21, int width, int height, int chromaStride) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int chromaOffset = width * height;
+        int previousY = 0;
+        int previousCb = 0;
+        int previousCr = 0;
+
+        for (int my = 0; my < height; my += 16) {
+            for (int mx = 0; mx < width; mx += 16) {
+                for (int by = 0; by < 16; by += 8) {
+                    for (int bx = 0; bx < 16; bx += 8) {
+                        loadLuma(nv21, width, height, mx + bx, my + by);
+                        previousY = encodeBlock(luminanceDivisors, previousY, DC_LUMINANCE, AC_LUMINANCE);
+                    }
+                }
+                // NV21 stores V before U
+                loadChroma(nv21, chromaOffset + 1, chromaStride, chromaWidth, chromaHeight, mx >> 1, my >> 1);
+                previousCb = encodeBlock(chrominanceDivisors, previousCb, DC_CHROMINANCE, AC_CHROMINANCE);
+                loadChroma(nv21, chromaOffset, chromaStride, chromaWidth, chromaHeight, mx >> 1, my >> 1);
+                previousCr = encodeBlock(chrominanceDivisors, previousCr, DC_CHROMINANCE, AC_CHROMINANCE);
+            }
+        }
+
+        // Pad the last byte with ones
+        if (bitCount > 0) writeBits(0x7f, 7);
+    }
+
+    // Blocks over the edge of the frame repeat the last row and column
+    private void loadLuma(byte[] nv21, int width, int height, int x0, int y0) {
+        boolean inside = x0 + 8 <= width && y0 + 8 <= height;
+        for (int y = 0, i = 0; y < 8; y++) {
+            int row = (inside ? y0 + y : Math.min(y0 + y, height - 1)) * width;
+            for (int x = 0; x < 8; x++, i++) {
+                int column = inside ? x0 + x : Math.min(x0 + x, width - 1);
+                block[i] = (nv21[row + column] & 0xff) - 128;
+            }
+        }
+    }
+
+    private void loadChroma(byte[] nv21, int offset, int stride, int width, int height, int x0, int y0) {
+        for (int y = 0, i = 0; y < 8; y++) {
+            int row = offset + Math.min(y0 + y, height - 1) * stride;
+            for (int x = 0; x < 8; x++, i++) {
+                block[i] = (nv21[row + 2 * Math.min(x0 + x, width - 1)] & 0xff) - 128;
+            }
+        }
+    }
+
+    private int encodeBlock(float[] divisors, int previousDc, int[][] dcTable, int[][] acTable) {
+        forwardDct(block);
+        for (int i = 0; i < 64; i++) {
+            float value = block[i] * divisors[i];
+            coefficients[i] = (int) (value < 0 ? value - 0.5f : value + 0.5f);
+        }
+
+        int dc = coefficients[0];
+        int diff = dc - previousDc;
+        int category = category(diff);
+        writeBits(dcTable[0][category], dcTable[1][category]);
+        if (category > 0) writeBits(diff < 0 ? diff - 1 : diff, category);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int ac = coefficients[ZIGZAG[k]];
+            if (ac == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                writeBits(acTable[0][0xf0], acTable[1][0xf0]);
+                run -= 16;
+            }
+            category = category(ac);
+            int symbol = (run << 4) | category;
+            writeBits(acTable[0][symbol], acTable[1][symbol]);
+            writeBits(ac < 0 ? ac - 1 : ac, category);
+            run = 0;
+        }
+        if (run > 0) writeBits(acTable[0][0x00], acTable[1][0x00]);
+        return dc;
+    }
+
+    private static int category(int value) {
+        if (value < 0) value = -value;
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    // Floating point AAN forward DCT, the output is scaled by the divisors
+    private static void forwardDct(float[] data) {
+        for (int i = 0; i < 64; i += 8) {
+            dct8(data, i, 1);
+        }
+        for (int i = 0; i < 8; i++) {
+            dct8(data, i, 8);
+        }
+    }
+
+    private static void dct8(float[] d, int o, int s) {
+        float tmp0 = d[o] + d[o + 7 * s];
+        float tmp7 = d[o] - d[o + 7 * s];
+        float tmp1 = d[o + s] + d[o + 6 * s];
+        float tmp6 = d[o + s] - d[o + 6 * s];
+        float tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        float tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        float tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        float tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        d[o] = tmp10 + tmp11;
+        d[o + 4 * s] = tmp10 - tmp11;
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        d[o + 2 * s] = tmp13 + z1;
+        d[o + 6 * s] = tmp13 - z1;
+
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+
+        d[o + 5 * s] = z13 + z2;
+        d[o + 3 * s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7 * s] = z11 - z4;
+    }
+
+    private void writeBits(int bits, int count) {
+        bitBuffer = (bitBuffer << count) | (bits & ((1 << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            int b = (bitBuffer >> (bitCount - 8)) & 0xff;
+            writeByte(b);
+            if (b == 0xff) writeByte(0);
+            bitCount -= 8;
+        }
+    }
+
+    private void writeMarker(int marker) {
+        writeByte(0xff);
+        writeByte(marker);
+    }
+
+    private void writeShort(int value) {
+        writeByte(value >> 8);
+        writeByte(value);
+    }
+
+    private void writeByte(int value) {
+        if (length == buffer.length) buffer = Arrays.copyOf(buffer, Math.max(1024, buffer.length * 2));
+        buffer[length++] = (byte) value;
+    }
+}
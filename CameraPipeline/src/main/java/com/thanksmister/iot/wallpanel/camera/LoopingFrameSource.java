@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base for sources that produce frames in a loop on their own thread,
+ * optionally paced to a frame rate.
+ */
+public abstract class LoopingFrameSource implements FrameSource {
+
+    private final String name;
+    private final long intervalNanos;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param fps
+     *            Frames per second to pace to, 0 for as fast as frames can
+     *            be produced.
+     */
+    protected LoopingFrameSource(String name, float fps) {
+        this.name = name;
+        this.intervalNanos = fps > 0 ? (long) (1000000000L / fps) : 0;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (thread != null) {
+            throw new IllegalStateException(name + " already started");
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop(listener);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    protected boolean isRunning() {
+        return running && !Thread.currentThread().isInterrupted();
+    }
+
+    protected abstract void open() throws IOException;
+
+    /**
+     * Deliver the next frame, if there is one, to the listener.
+     *
+     * @return False once the source has no more frames.
+     */
+    protected abstract boolean next(Listener listener) throws IOException;
+
+    protected abstract void close();
+
+    private void loop(Listener listener) {
+        try {
+            open();
+            long due = System.nanoTime();
+            while (isRunning()) {
+                if (!next(listener)) {
+                    break;
+                }
+                if (intervalNanos > 0) {
+                    due += intervalNanos;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else {
+                        // Running behind, do not try to catch up with a burst
+                        due = System.nanoTime();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running) {
+                listener.onError(e);
+            }
+        } finally {
+            close();
+        }
+    }
+}
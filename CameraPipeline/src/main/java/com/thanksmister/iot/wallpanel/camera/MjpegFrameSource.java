@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * Takes frames from an MJPEG-over-HTTP IP camera, so a panel with a poor
+ * built-in camera can detect motion on a better one. The stream sets the
+ * pace, and a dropped connection is retried until the source is stopped,
+ * backing off while the camera stays away and reporting the failures through
+ * {@link Listener#onRetry(Exception, int)}.
+ */
+public class MjpegFrameSource extends LoopingFrameSource {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+    private static final long RECONNECT_DELAY = 2000;
+    private static final long MAX_RECONNECT_DELAY = 30000;
+    // Failures in a row between reports after the first, about every 5 minutes at the longest delay
+    private static final int REPORT_EVERY = 10;
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final URL url;
+    private final JpegDecoder decoder;
+    private final int[] size = new int[2];
+    private HttpURLConnection connection;
+    private MjpegReader reader;
+    private byte[] frame;
+    private long frameId;
+    private long startMillis;
+    private int failures;
+
+    /**
+     * @param url
+     *            Stream URL, user and password in the URL are sent with basic
+     *            authentication.
+     */
+    public MjpegFrameSource(URL url, JpegDecoder decoder) {
+        super("MjpegFrameSource", 0);
+        this.url = url;
+        this.decoder = decoder;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        frameId = 0;
+        failures = 0;
+        startMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    protected boolean next(Listener listener) throws IOException {
+        try {
+            if (reader == null) {
+                connect();
+            }
+            int length = reader.next();
+            int[] argb = decoder.decode(reader.getBuffer(), length, size);
+            frame = Nv21Transform.fromArgb(argb, size[0], size[1], frame);
+            failures = 0;
+            listener.onFrame(frame, size[0] & ~1, size[1] & ~1, frameId++,
+                    System.currentTimeMillis() - startMillis);
+        } catch (IOException e) {
+            // Cameras drop connections and reboot, keep trying while running
+            close();
+            if (isRunning()) {
+                failures++;
+                if (failures == 1 || failures % REPORT_EVERY == 0) {
+                    listener.onRetry(e, failures);
+                }
+                try {
+                    Thread.sleep(reconnectDelay(failures));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void close() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // na-da
+            }
+            reader = null;
+        }
+        if (connection != null) {
+            connection.disconnect();
+            connection = null;
+        }
+    }
+
+    // 2, 4, 8 and 16 seconds, then 30 seconds while the camera stays away
+    static long reconnectDelay(int failures) {
+        return Math.min(MAX_RECONNECT_DELAY, RECONNECT_DELAY << Math.min(failures - 1, 4));
+    }
+
+    private void connect() throws IOException {
+        HttpURLConnection http = (HttpURLConnection) url.openConnection();
+        http.setConnectTimeout(CONNECT_TIMEOUT);
+        http.setReadTimeout(READ_TIMEOUT);
+        if (url.getUserInfo() != null) {
+            http.setRequestProperty("Authorization", "Basic " + base64(url.getUserInfo().getBytes(Charset.forName("UTF-8"))));
+        }
+        int code = http.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            http.disconnect();
+            throw new IOException("MJPEG camera answered " + code);
+        }
+        connection = http;
+        reader = new MjpegReader(http.getInputStream());
+    }
+
+    // java.util.Base64 is not available on older Android versions
+    static String base64(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xFF;
+            }
+            out.append(BASE64[(b >> 18) & 0x3F]);
+            out.append(BASE64[(b >> 12) & 0x3F]);
+            out.append(i + 1 < data.length ? BASE64[(b >> 6) & 0x3F] : '=');
+            out.append(i + 2 < data.length ? BASE64[b & 0x3F] : '=');
+        }
+        return out.toString();
+    }
+}
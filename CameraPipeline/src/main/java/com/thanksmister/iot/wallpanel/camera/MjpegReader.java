@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Splits a multipart/x-mixed-replace MJPEG stream into JPEGs. Parts with a
+ * Content-Length are read in one go, parts without one are scanned for the
+ * JPEG end of image marker, which is what most IP cameras need.
+ */
+public class MjpegReader implements Closeable {
+
+    private static final int MAX_LINE = 1024;
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    private final InputStream in;
+    private final StringBuilder line = new StringBuilder();
+    private byte[] buffer = new byte[64 * 1024];
+    private int length;
+
+    public MjpegReader(InputStream in) {
+        this.in = new BufferedInputStream(in, 16 * 1024);
+    }
+
+    /**
+     * Read the next JPEG.
+     *
+     * @return Length of the JPEG in {@link #getBuffer()}.
+     * @throws EOFException
+     *             at the end of the stream.
+     */
+    public int next() throws IOException {
+        int contentLength = -1;
+        boolean inHeaders = false;
+        while (true) {
+            String header = readLine();
+            if (header.isEmpty()) {
+                if (inHeaders) {
+                    break;
+                }
+                continue;
+            }
+            if (header.startsWith("--")) {
+                inHeaders = true;
+                continue;
+            }
+            inHeaders = true;
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().toLowerCase(Locale.US).equals("content-length")) {
+                try {
+                    contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad Content-Length: " + header);
+                }
+                if (contentLength < 0 || contentLength > MAX_FRAME) {
+                    throw new IOException("Bad Content-Length: " + header);
+                }
+            }
+        }
+        if (contentLength >= 0) {
+            ensureCapacity(contentLength);
+            int read = 0;
+            while (read < contentLength) {
+                int n = in.read(buffer, read, contentLength - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            length = contentLength;
+        } else {
+            length = scanToEndOfImage();
+        }
+        return length;
+    }
+
+    /**
+     * The last JPEG read, re-used by the next call to {@link #next()}.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int scanToEndOfImage() throws IOException {
+        int count = 0;
+        int previous = -1;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            ensureCapacity(count + 1);
+            buffer[count++] = (byte) b;
+            if (previous == 0xFF && b == 0xD9) {
+                return count;
+            }
+            previous = b;
+        }
+    }
+
+    private String readLine() throws IOException {
+        line.setLength(0);
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                if (line.length() >= MAX_LINE) {
+                    throw new IOException("Header line too long");
+                }
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private void ensureCapacity(int size) throws IOException {
+        if (size > MAX_FRAME) {
+            throw new IOException("Frame larger than " + MAX_FRAME + " bytes");
+        }
+        if (size > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(MAX_FRAME, Math.max(size, buffer.length * 2)));
+        }
+    }
+}
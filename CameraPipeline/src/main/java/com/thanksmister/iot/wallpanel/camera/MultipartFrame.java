@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A JPEG framed as one part of a multipart/x-mixed-replace stream: boundary,
+ * part headers, the image and the trailing line break in a single array. A
+ * frame is framed once and every client writes it from its own view of the
+ * same array, so nothing is allocated or copied per client beyond the view.
+ */
+public final class MultipartFrame {
+
+    public static final String BOUNDARY = "--jpgboundary";
+    public static final String CONTENT_TYPE = "multipart/x-mixed-replace; boundary=" + BOUNDARY;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] HEAD = (BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: ").getBytes(ASCII);
+    private static final byte[] HEADERS_END = "\r\n\r\n".getBytes(ASCII);
+    private static final byte[] TRAIL = "\r\n".getBytes(ASCII);
+
+    private final byte[] bytes;
+    private final int length;
+
+    private MultipartFrame(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    /**
+     * Frame a JPEG, copying it once.
+     */
+    public static MultipartFrame of(byte[] jpeg) {
+        byte[] size = Integer.toString(jpeg.length).getBytes(ASCII);
+        int length = HEAD.length + size.length + HEADERS_END.length + jpeg.length + TRAIL.length;
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        System.arraycopy(HEAD, 0, bytes, offset, HEAD.length);
+        offset += HEAD.length;
+        System.arraycopy(size, 0, bytes, offset, size.length);
+        offset += size.length;
+        System.arraycopy(HEADERS_END, 0, bytes, offset, HEADERS_END.length);
+        offset += HEADERS_END.length;
+        System.arraycopy(jpeg, 0, bytes, offset, jpeg.length);
+        offset += jpeg.length;
+        System.arraycopy(TRAIL, 0, bytes, offset, TRAIL.length);
+        return new MultipartFrame(bytes, length);
+    }
+
+    /**
+     * Bytes of the whole part, as written to the client.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * A view of its own over the part for one client to write from.
+     */
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes, 0, length).slice();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+/**
+ * Rotate, crop and downsample stage applied to NV21 frames before they are
+ * encoded. All three are done in one pass over the YUV planes into an
+ * output buffer that is re-used from frame to frame, so no encoder has to go
+ * through an RGB image to rotate or scale one. Used from one thread at a
+ * time.
+ */
+public class Nv21Transform {
+
+    private int rotation = 0;
+    private int scale = 1;
+    private int cropLeft;
+    private int cropTop;
+    private int cropRight;
+    private int cropBottom;
+    private boolean cropped = false;
+
+    private byte[] output = null;
+    private int outputWidth;
+    private int outputHeight;
+
+    /**
+     * @param degrees
+     *            Clockwise rotation, 0, 90, 180 or 270.
+     */
+    public void setRotation(int degrees) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("Rotation must be 0, 90, 180 or 270");
+        }
+        this.rotation = degrees;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @param scale
+     *            Keep one pixel out of every scale x scale block, 1, 2 or 4.
+     */
+    public void setScale(int scale) {
+        if (scale != 1 && scale != 2 && scale != 4) throw new IllegalArgumentException("Scale must be 1, 2 or 4");
+        this.scale = scale;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Only keep part of the frame, in source pixels before rotation. The
+     * region is clamped to the frame and aligned to even pixels.
+     */
+    public void setCrop(int left, int top, int right, int bottom) {
+        if (left >= right || top >= bottom) throw new IllegalArgumentException("Crop region is empty");
+        this.cropLeft = left;
+        this.cropTop = top;
+        this.cropRight = right;
+        this.cropBottom = bottom;
+        this.cropped = true;
+    }
+
+    public void clearCrop() {
+        this.cropped = false;
+    }
+
+    /**
+     * Is the transform a no-op, frames are then passed through untouched.
+     *
+     * @return True when there is no rotation, crop or scale.
+     */
+    public boolean isIdentity() {
+        return rotation == 0 && scale == 1 && !cropped;
+    }
+
+    /**
+     * Transform a frame.
+     *
+     * @param nv21
+     *            Byte array representing a YUV420SP image.
+     * @return the transformed frame, valid until the next call, or the frame
+     *         itself when the transform is a no-op. Its size is given by
+     *         {@link #getOutputWidth()} and {@link #getOutputHeight()}.
+     * @throws NullPointerException
+     *             if nv21 byte array is NULL.
+     */
+    public byte[] apply(byte[] nv21, int width, int height) {
+        if (nv21 == null) throw new NullPointerException();
+        if ((width & 1) != 0 || (height & 1) != 0) throw new IllegalArgumentException("NV21 frames have an even size");
+
+        if (isIdentity()) {
+            outputWidth = width;
+            outputHeight = height;
+            return nv21;
+        }
+
+        int left = 0;
+        int top = 0;
+        int right = width;
+        int bottom = height;
+        if (cropped) {
+            left = Math.max(0, Math.min(cropLeft, width - 2)) & ~1;
+            top = Math.max(0, Math.min(cropTop, height - 2)) & ~1;
+            right = Math.max(left + 2, Math.min(cropRight, width));
+            bottom = Math.max(top + 2, Math.min(cropBottom, height));
+        }
+        // Sampled size before rotation, kept even so the chroma plane stays whole
+        int w = Math.max(2, ((right - left) / scale) & ~1);
+        int h = Math.max(2, ((bottom - top) / scale) & ~1);
+        int size = w * h * 3 / 2;
+        if (output == null || output.length != size) output = new byte[size];
+        boolean swap = rotation == 90 || rotation == 270;
+        outputWidth = swap ? h : w;
+        outputHeight = swap ? w : h;
+
+        for (int j = 0; j < h; j++) {
+            int row = (top + j * scale) * width + left;
+            for (int i = 0; i < w; i++) {
+                output[target(i, j, w, h, rotation)] = nv21[row + i * scale];
+            }
+        }
+
+        int offset = width * height;
+        int outOffset = w * h;
+        int chromaWidth = w / 2;
+        int chromaHeight = h / 2;
+        for (int j = 0; j < chromaHeight; j++) {
+            int row = offset + ((top >> 1) + j * scale) * width + left;
+            for (int i = 0; i < chromaWidth; i++) {
+                int from = row + 2 * i * scale;
+                int to = outOffset + 2 * target(i, j, chromaWidth, chromaHeight, rotation);
+                output[to] = nv21[from];
+                output[to + 1] = nv21[from + 1];
+            }
+        }
+        return output;
+    }
+
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * Rotate an NV21 frame clockwise.
+     *
+     * @param degrees
+     *            0, 90, 180 or 270.
+     * @param out
+     *            Buffer of at least width * height * 3 / 2 bytes, or NULL to
+     *            allocate one.
+     * @return the rotated frame, its width and height are swapped for 90 and
+     *         270 degrees.
+     */
+    public static byte[] rotate(byte[] nv21, int width, int height, int degrees, byte[] out) {
+        if (nv21 == null) throw new NullPointerException();
+        Nv21Transform transform = new Nv21Transform();
+        transform.setRotation(degrees);
+        transform.output = (out != null && out.length == width * height * 3 / 2) ? out : null;
+        byte[] result = transform.apply(nv21, width, height);
+        if (result == nv21) {
+            int size = width * height * 3 / 2;
+            if (out == null || out.length < size) out = new byte[size];
+            System.arraycopy(nv21, 0, out, 0, size);
+            return out;
+        }
+        return result;
+    }
+
+    /**
+     * Clockwise rotation for a display orientation.
+     *
+     * @param cameraOrientation
+     *            Orientation of the camera sensor in degrees.
+     * @param displayRotation
+     *            Rotation of the display in degrees.
+     * @param extra
+     *            Additional rotation asked for by the user, in degrees.
+     * @return 0, 90, 180 or 270, rounded to the nearest quarter turn.
+     */
+    public static int rotationFor(int cameraOrientation, int displayRotation, int extra) {
+        int degrees = ((cameraOrientation - displayRotation + extra) % 360 + 360) % 360;
+        return (degrees + 45) / 90 * 90 % 360;
+    }
+
+    /**
+     * Convert ARGB pixels to NV21 with the BT.601 video range coefficients the
+     * camera uses. Odd widths and heights lose their last column or row.
+     *
+     * @param out
+     *            Buffer to fill, re-used if it is the right size, or NULL.
+     * @return the NV21 frame, (width &amp; ~1) x (height &amp; ~1) pixels.
+     */
+    public static byte[] fromArgb(int[] argb, int width, int height, byte[] out) {
+        int w = width & ~1;
+        int h = height & ~1;
+        int size = w * h * 3 / 2;
+        byte[] result = (out != null && out.length == size) ? out : new byte[size];
+        int uv = w * h;
+        for (int y = 0; y < h; y++) {
+            int row = y * width;
+            for (int x = 0; x < w; x++) {
+                int pixel = argb[row + x];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                result[y * w + x] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+                if ((y & 1) == 0 && (x & 1) == 0) {
+                    result[uv++] = (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+                    result[uv++] = (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Index of pixel (x, y) of a width x height plane after rotation
+    private static int target(int x, int y, int width, int height, int degrees) {
+        switch (degrees) {
+            case 90:
+                return x * height + (height - 1 - y);
+            case 180:
+                return (height - 1 - y) * width + (width - 1 - x);
+            case 270:
+                return (width - 1 - x) * height + y;
+            default:
+                return y * width + x;
+        }
+    }
+}
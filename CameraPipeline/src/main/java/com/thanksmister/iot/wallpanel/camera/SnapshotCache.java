@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the most recently encoded frame for still snapshots. Every frame gets
+ * the next sequence number, which doubles as its ETag, so clients polling
+ * faster than frames are encoded can be answered with a 304. Requests that
+ * find the cache stale wait for the next frame instead of encoding their own.
+ */
+public class SnapshotCache {
+
+    /**
+     * Called with the next frame once one arrives, on the thread that
+     * supplied it.
+     */
+    public interface Callback {
+
+        void onSnapshot(Snapshot snapshot);
+    }
+
+    public static final class Snapshot {
+
+        private final byte[] jpeg;
+        private final long sequence;
+        private final long timestamp;
+        private final String etag;
+
+        Snapshot(byte[] jpeg, long sequence, long timestamp) {
+            this.jpeg = jpeg;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.etag = "\"" + sequence + "\"";
+        }
+
+        /**
+         * The encoded frame, shared by every reader so it must not be
+         * modified.
+         */
+        public byte[] getJpeg() {
+            return jpeg;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Quoted entity tag for the frame.
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * Does an If-None-Match header name this frame.
+         */
+        public boolean matches(String ifNoneMatch) {
+            return ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag));
+        }
+    }
+
+    private final List<Callback> waiting = new ArrayList<>();
+    private Snapshot latest;
+    private long sequence;
+
+    /**
+     * @param firstSequence
+     *            Sequence number of the first frame. Starting from something
+     *            that grows between runs, such as the time, keeps a client
+     *            from getting a 304 for a frame from before a restart.
+     */
+    public SnapshotCache(long firstSequence) {
+        if (firstSequence < 1) throw new IllegalArgumentException("First sequence must be at least 1");
+        this.sequence = firstSequence - 1;
+    }
+
+    public synchronized Snapshot getLatest() {
+        return latest;
+    }
+
+    /**
+     * @return The latest frame if it is no older than maxAgeMillis, otherwise
+     *         NULL.
+     */
+    public synchronized Snapshot getFresh(long maxAgeMillis, long now) {
+        if (latest != null && now - latest.timestamp <= maxAgeMillis) {
+            return latest;
+        }
+        return null;
+    }
+
+    /**
+     * Have callback called with the next frame.
+     *
+     * @return True if no other request was already waiting, in which case
+     *         the caller should ask for a frame to be encoded.
+     */
+    public synchronized boolean await(Callback callback) {
+        waiting.add(callback);
+        return waiting.size() == 1;
+    }
+
+    /**
+     * Stop waiting for a frame, for requests that time out.
+     *
+     * @return True if the callback was still waiting and will not be called.
+     */
+    public synchronized boolean cancel(Callback callback) {
+        return waiting.remove(callback);
+    }
+
+    /**
+     * Store a newly encoded frame and answer everything waiting for one.
+     */
+    public void update(byte[] jpeg, long timestamp) {
+        Snapshot snapshot;
+        Callback[] callbacks;
+        synchronized (this) {
+            snapshot = new Snapshot(jpeg, ++sequence, timestamp);
+            latest = snapshot;
+            if (waiting.isEmpty()) {
+                return;
+            }
+            callbacks = waiting.toArray(new Callback[0]);
+            waiting.clear();
+        }
+        for (Callback callback : callbacks) {
+            callback.onSnapshot(snapshot);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes streamed frames on its own thread. Frames are handed over through a
+ * single slot: a frame offered while the previous one is still waiting
+ * replaces it, so the encoder always works on the newest frame and the output
+ * rate follows however long an encode actually takes instead of a queue
+ * building up behind it.
+ * <p>
+ * Each frame is encoded once for every requested {@link StreamVariant} and
+ * not at all for variants nobody asked for, so the cost follows the number of
+ * distinct variants rather than the number of clients.
+ */
+public class StreamEncoder {
+
+    /**
+     * Receives the encoded frames, called on the encoder thread.
+     */
+    public interface Listener {
+
+        void onFrame(byte[] jpeg, long frameId, StreamVariant variant);
+
+        /**
+         * A frame could not be encoded for the variant and was skipped, the
+         * thread carries on with the next frame. Called for the first failure
+         * in a row and then every 100th.
+         *
+         * @param failures
+         *            Failures in a row so far for this variant.
+         */
+        void onError(Exception e, StreamVariant variant, int failures);
+
+        /**
+         * The thread has stopped and the encoders have been released.
+         */
+        void onStopped();
+    }
+
+    /**
+     * Creates an encoder for each variant, called on the encoder thread.
+     */
+    public interface Factory {
+
+        FrameEncoder create();
+    }
+
+    // Failures in a row between reports after the first, every few seconds at camera rates
+    private static final int REPORT_EVERY = 100;
+
+    private final Factory factory;
+    private final Listener listener;
+    private final Thread thread;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private byte[] pending = new byte[0];
+    private int pendingWidth;
+    private int pendingHeight;
+    private int pendingRotation;
+    private long pendingId;
+    private boolean hasPending;
+    private boolean running = true;
+    private final Set<StreamVariant> requested = new HashSet<>();
+    private int requestedVersion;
+
+    // Encoder thread only
+    private final Map<StreamVariant, Output> outputs = new HashMap<>();
+    private final List<Output> active = new ArrayList<>();
+
+    private volatile long offered;
+    private volatile long encoded;
+    private volatile long dropped;
+    private volatile long failed;
+    private volatile long lastEncodeNanos;
+    private volatile long averageEncodeNanos;
+
+    public StreamEncoder(Factory factory, Listener listener) {
+        this.factory = factory;
+        this.listener = listener;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "StreamEncoder");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop taking frames. A frame being encoded is finished first, then the
+     * encoders are released and {@link Listener#onStopped()} is called.
+     */
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            hasPending = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Set the variants to encode from the next frame on. Encoders for variants
+     * no longer asked for are released.
+     */
+    public void setVariants(Collection<StreamVariant> variants) {
+        synchronized (lock) {
+            requested.clear();
+            requested.addAll(variants);
+            requestedVersion++;
+        }
+    }
+
+    public boolean hasVariants() {
+        synchronized (lock) {
+            return !requested.isEmpty();
+        }
+    }
+
+    /**
+     * Hand a frame to the encoder. The frame is copied, so the camera may
+     * re-use its buffer as soon as this returns.
+     *
+     * @param rotation
+     *            Clockwise rotation, 0, 90, 180 or 270.
+     * @return False if the frame replaced one that was never encoded, or was
+     *         not taken because no variant is requested.
+     */
+    public boolean offer(byte[] nv21, int width, int height, int rotation, long frameId) {
+        int size = width * height * 3 / 2;
+        synchronized (lock) {
+            if (!running || requested.isEmpty()) {
+                return false;
+            }
+            offered++;
+            boolean replaced = hasPending;
+            if (replaced) {
+                dropped++;
+            }
+            if (pending.length != size) {
+                pending = new byte[size];
+            }
+            System.arraycopy(nv21, 0, pending, 0, size);
+            pendingWidth = width;
+            pendingHeight = height;
+            pendingRotation = rotation;
+            pendingId = frameId;
+            hasPending = true;
+            lock.notifyAll();
+            return !replaced;
+        }
+    }
+
+    public long getOffered() {
+        return offered;
+    }
+
+    /**
+     * JPEGs produced, one per variant for each frame taken.
+     */
+    public long getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * Frames replaced in the slot before the encoder got to them.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getLastEncodeNanos() {
+        return lastEncodeNanos;
+    }
+
+    /**
+     * Exponential moving average of the time taken per frame for all its
+     * variants, including the transforms.
+     */
+    public long getAverageEncodeNanos() {
+        return averageEncodeNanos;
+    }
+
+    private void loop() {
+        // The slot and the working buffer are swapped so a frame is never
+        // copied twice and offer() never waits for an encode.
+        byte[] working = new byte[0];
+        int version = -1;
+        try {
+            while (true) {
+                int width;
+                int height;
+                int rotation;
+                long frameId;
+                List<StreamVariant> variants = null;
+                synchronized (lock) {
+                    while (running && !hasPending) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    byte[] frame = pending;
+                    pending = working;
+                    working = frame;
+                    width = pendingWidth;
+                    height = pendingHeight;
+                    rotation = pendingRotation;
+                    frameId = pendingId;
+                    hasPending = false;
+                    if (version != requestedVersion) {
+                        version = requestedVersion;
+                        variants = new ArrayList<>(requested);
+                    }
+                }
+                if (variants != null) {
+                    updateOutputs(variants);
+                }
+                long start = System.nanoTime();
+                for (Output output : active) {
+                    encode(output, working, width, height, rotation, frameId);
+                }
+                long elapsed = System.nanoTime() - start;
+                lastEncodeNanos = elapsed;
+                long average = averageEncodeNanos;
+                averageEncodeNanos = average == 0 ? elapsed : average + (elapsed - average) / 8;
+            }
+        } finally {
+            for (Output output : outputs.values()) {
+                output.encoder.release();
+            }
+            outputs.clear();
+            active.clear();
+            listener.onStopped();
+        }
+    }
+
+    // Brings the encoders in line with the requested variants, outside the lock
+    // so creating an encoder never holds up the camera
+    private void updateOutputs(List<StreamVariant> requested) {
+        Iterator<Map.Entry<StreamVariant, Output>> iterator = outputs.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<StreamVariant, Output> entry = iterator.next();
+            if (!requested.contains(entry.getKey())) {
+                entry.getValue().encoder.release();
+                iterator.remove();
+            }
+        }
+        active.clear();
+        for (StreamVariant variant : requested) {
+            Output output = outputs.get(variant);
+            if (output == null) {
+                output = new Output(variant, factory.create());
+                outputs.put(variant, output);
+            }
+            active.add(output);
+        }
+    }
+
+    private void encode(Output output, byte[] nv21, int width, int height, int rotation, long frameId) {
+        Nv21Transform transform = output.transform;
+        byte[] jpeg;
+        try {
+            transform.setRotation(rotation);
+            byte[] frame = transform.apply(nv21, width, height);
+            jpeg = output.encoder.encode(frame, transform.getOutputWidth(), transform.getOutputHeight(),
+                    output.variant.getQuality());
+        } catch (IOException | RuntimeException e) {
+            // One bad frame only costs that frame, the streams keep going
+            failed++;
+            output.failures++;
+            if (output.failures == 1 || output.failures % REPORT_EVERY == 0) {
+                listener.onError(e, output.variant, output.failures);
+            }
+            return;
+        }
+        output.failures = 0;
+        encoded++;
+        listener.onFrame(jpeg, frameId, output.variant);
+    }
+
+    private static class Output {
+
+        final StreamVariant variant;
+        final FrameEncoder encoder;
+        final Nv21Transform transform = new Nv21Transform();
+        int failures;
+
+        Output(StreamVariant variant, FrameEncoder encoder) {
+            this.variant = variant;
+            this.encoder = encoder;
+            transform.setScale(variant.getScale());
+        }
+    }
+}
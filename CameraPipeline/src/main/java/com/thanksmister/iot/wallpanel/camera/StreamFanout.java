@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hands encoded frames to every streaming client without waiting on any of
+ * them. Each client has a small queue of its own: a frame arriving while the
+ * queue is full pushes out the oldest one, so a slow client skips frames
+ * instead of holding up the others or building up memory. A client that
+ * has not finished sending a frame while more than the allowed backlog of
+ * frames arrived is taken to be stuck and is closed.
+ */
+public class StreamFanout {
+
+    /**
+     * The socket side of a client.
+     */
+    public interface Connection {
+
+        /**
+         * Start sending a frame without blocking. {@link Client#onSent()}
+         * must be called on the client once all of it is written, after
+         * which the next frame is sent.
+         */
+        void send(Client client, MultipartFrame frame);
+
+        void close();
+    }
+
+    /**
+     * Told about clients leaving, whether they closed or were evicted.
+     */
+    public interface Listener {
+
+        void onRemoved(Client client);
+    }
+
+    public final class Client {
+
+        private final Connection connection;
+        private final StreamVariant variant;
+        // Guarded by this
+        private final ArrayDeque<MultipartFrame> queue;
+        private boolean sending;
+        private boolean closed;
+        private int backlog;
+
+        private volatile long sent;
+        private volatile long dropped;
+
+        Client(Connection connection, StreamVariant variant) {
+            this.connection = connection;
+            this.variant = variant;
+            this.queue = new ArrayDeque<>(capacity);
+        }
+
+        public StreamVariant getVariant() {
+            return variant;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * Frames pushed out of the queue before they could be sent.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        public synchronized int getQueued() {
+            return queue.size();
+        }
+
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * The frame handed to {@link Connection#send(Client, MultipartFrame)} is written.
+         */
+        public void onSent() {
+            MultipartFrame next;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                sent++;
+                backlog = 0;
+                next = queue.pollFirst();
+                sending = next != null;
+            }
+            if (next != null) {
+                connection.send(this, next);
+            }
+        }
+
+        void offer(MultipartFrame frame) {
+            boolean evict = false;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (sending) {
+                    if (queue.size() == capacity) {
+                        queue.pollFirst();
+                        dropped++;
+                    }
+                    queue.addLast(frame);
+                    evict = ++backlog > maxBacklog;
+                    if (!evict) {
+                        return;
+                    }
+                } else {
+                    sending = true;
+                }
+            }
+            if (evict) {
+                evicted++;
+                StreamFanout.this.remove(this);
+            } else {
+                connection.send(this, frame);
+            }
+        }
+
+        /**
+         * The client went away, same as {@link StreamFanout#remove(Client)}.
+         */
+        public void remove() {
+            StreamFanout.this.remove(this);
+        }
+
+        // True the first time only
+        boolean close() {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                closed = true;
+                queue.clear();
+            }
+            connection.close();
+            return true;
+        }
+    }
+
+    private final int capacity;
+    private final int maxBacklog;
+    private final Listener listener;
+    private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<>();
+
+    private volatile long published;
+    private volatile long evicted;
+
+    /**
+     * @param capacity
+     *            Frames each client may have waiting behind the one being
+     *            sent.
+     * @param maxBacklog
+     *            Frames that may arrive while one frame is being sent before
+     *            the client is closed.
+     */
+    public StreamFanout(int capacity, int maxBacklog, Listener listener) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.capacity = capacity;
+        this.maxBacklog = maxBacklog;
+        this.listener = listener;
+    }
+
+    public Client add(Connection connection, StreamVariant variant) {
+        Client client = new Client(connection, variant);
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Close a client and stop sending to it, for clients that went away or
+     * fell too far behind. Does nothing for a client already removed.
+     */
+    public void remove(Client client) {
+        if (clients.remove(client) && client.close()) {
+            listener.onRemoved(client);
+        }
+    }
+
+    public void removeAll() {
+        for (Client client : clients) {
+            remove(client);
+        }
+    }
+
+    /**
+     * Queue a frame for every client of the variant. Never blocks on a
+     * client, the frame is sent from here only to clients that were idle.
+     * The frame is framed once for all the clients, and not at all when the
+     * variant has none.
+     */
+    public void publish(StreamVariant variant, byte[] jpeg) {
+        published++;
+        MultipartFrame frame = null;
+        for (Client client : clients) {
+            if (client.variant.equals(variant)) {
+                if (frame == null) {
+                    frame = MultipartFrame.of(jpeg);
+                }
+                client.offer(frame);
+            }
+        }
+    }
+
+    public List<Client> getClients() {
+        return new ArrayList<>(clients);
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * Clients closed for falling too far behind.
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+/**
+ * One output of the stream, a downsample factor and a JPEG quality. Clients
+ * asking for the same variant share the frames encoded for it. Qualities are
+ * snapped to a few levels, every variant costs an encode per frame, so
+ * clients asking for 79 and 80 should not double the work.
+ */
+public final class StreamVariant {
+
+    private static final int[] SCALES = { 4, 2, 1 };
+    private static final int[] QUALITIES = { 40, 60, 80, 95 };
+
+    private final int scale;
+    private final int quality;
+
+    /**
+     * @param scale
+     *            Downsample factor, 1, 2 or 4.
+     * @param quality
+     *            JPEG quality, snapped to the nearest of 40, 60, 80 and 95.
+     */
+    public StreamVariant(int scale, int quality) {
+        if (scale != 1 && scale != 2 && scale != 4) {
+            throw new IllegalArgumentException("Unsupported scale " + scale);
+        }
+        this.scale = scale;
+        this.quality = snapQuality(quality);
+    }
+
+    /**
+     * The quality level closest to a requested quality, the higher one when
+     * it lies half way.
+     */
+    public static int snapQuality(int quality) {
+        int best = QUALITIES[0];
+        for (int level : QUALITIES) {
+            if (Math.abs(level - quality) <= Math.abs(best - quality)) {
+                best = level;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The variant with the smallest frames that are still at least the
+     * requested width.
+     *
+     * @param frameWidth
+     *            Width of the frames as streamed, after rotation.
+     * @param width
+     *            Requested width, 0 or less for full size.
+     */
+    public static StreamVariant forWidth(int frameWidth, int width, int quality) {
+        if (width > 0) {
+            for (int scale : SCALES) {
+                if (frameWidth / scale >= width) {
+                    return new StreamVariant(scale, quality);
+                }
+            }
+        }
+        return new StreamVariant(1, quality);
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StreamVariant)) {
+            return false;
+        }
+        StreamVariant other = (StreamVariant) o;
+        return scale == other.scale && quality == other.quality;
+    }
+
+    @Override
+    public int hashCode() {
+        return scale * 101 + quality;
+    }
+
+    @Override
+    public String toString() {
+        return "1/" + scale + "@" + quality;
+    }
+}
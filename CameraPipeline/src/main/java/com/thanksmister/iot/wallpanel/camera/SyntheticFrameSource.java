@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+/**
+ * Generates a test pattern: a horizontal luma gradient with fixed sensor-like
+ * noise and a bright square that moves across it. The sequence depends only on
+ * the size and frame number, so every run sees exactly the same frames.
+ */
+public class SyntheticFrameSource extends LoopingFrameSource {
+
+    private static final int SQUARE_STEP = 4;
+
+    private final int width;
+    private final int height;
+    private final long frames;
+    private final long intervalMillis;
+    private final byte[] background;
+    private final byte[] frame;
+    private long frameId;
+
+    /**
+     * @param fps
+     *            Frames per second, 0 for as fast as possible.
+     * @param frames
+     *            Number of frames to produce, 0 for no limit.
+     */
+    public SyntheticFrameSource(int width, int height, float fps, long frames) {
+        super("SyntheticFrameSource", fps);
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("Frame size must be even, was " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        this.intervalMillis = fps > 0 ? (long) (1000 / fps) : 0;
+        this.background = new byte[width * height * 3 / 2];
+        this.frame = new byte[background.length];
+        int seed = 12345;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                seed = seed * 1103515245 + 12345;
+                int noise = (seed >>> 16) % 9 - 4;
+                background[y * width + x] = (byte) Math.max(0, Math.min(255, 48 + x * 160 / width + noise));
+            }
+        }
+        for (int i = width * height; i < background.length; i++) {
+            background[i] = (byte) 128;
+        }
+    }
+
+    /**
+     * Render a frame of the pattern.
+     */
+    public void render(long frameId, byte[] out) {
+        System.arraycopy(background, 0, out, 0, background.length);
+        int size = Math.max(2, Math.min(width, height) / 4) & ~1;
+        int travel = Math.max(1, width - size);
+        int left = (int) ((frameId * SQUARE_STEP) % (2L * travel));
+        if (left >= travel) {
+            left = 2 * travel - left;
+        }
+        int top = (height - size) / 2;
+        for (int y = top; y < top + size; y++) {
+            int row = y * width;
+            for (int x = left; x < left + size && x < width; x++) {
+                out[row + x] = (byte) 235;
+            }
+        }
+    }
+
+    @Override
+    protected void open() {
+        frameId = 0;
+    }
+
+    @Override
+    protected boolean next(Listener listener) {
+        if (frames > 0 && frameId >= frames) {
+            return false;
+        }
+        render(frameId, frame);
+        listener.onFrame(frame, width, height, frameId, frameId * intervalMillis);
+        frameId++;
+        return true;
+    }
+
+    @Override
+    protected void close() {
+        // na-da
+    }
+}
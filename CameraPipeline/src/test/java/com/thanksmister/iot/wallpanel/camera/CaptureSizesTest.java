@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureSizesTest {
+
+    private static final int[][] SUPPORTED = {
+            { 1920, 1080 }, { 1280, 720 }, { 800, 600 }, { 640, 480 }, { 320, 240 }, { 176, 144 } };
+
+    @Test
+    public void autoPicksLargestUpTo720p() {
+        assertArrayEquals(new int[] { 1280, 720 }, CaptureSizes.choosePreview(SUPPORTED, 0, 0));
+        int[][] small = { { 640, 480 }, { 320, 240 } };
+        assertArrayEquals(new int[] { 640, 480 }, CaptureSizes.choosePreview(small, 0, 0));
+        assertArrayEquals(new int[] { 640, 480 }, CaptureSizes.choosePreview(new int[0][], 640, 480));
+    }
+
+    @Test
+    public void picksClosestSupportedSize() {
+        assertArrayEquals(new int[] { 800, 600 }, CaptureSizes.choosePreview(SUPPORTED, 800, 0));
+        assertArrayEquals(new int[] { 1920, 1080 }, CaptureSizes.choosePreview(SUPPORTED, 1900, 1000));
+        assertArrayEquals(new int[] { 640, 480 }, CaptureSizes.choosePreview(SUPPORTED, 600, 450));
+    }
+
+    @Test
+    public void reducesToDetectorWidth() {
+        assertEquals(4, CaptureSizes.reduction(640, 160));
+        assertEquals(8, CaptureSizes.reduction(1280, 160));
+        assertEquals(8, CaptureSizes.reduction(1920, 160));
+        assertEquals(1, CaptureSizes.reduction(640, 640));
+        assertEquals(2, CaptureSizes.reduction(1280, 640));
+        assertEquals(1, CaptureSizes.reduction(100, 160));
+    }
+
+    @Test
+    public void reducesEachFrameOnce() {
+        FrameReducer reducer = new FrameReducer(4);
+        byte[] frame = new byte[16 * 8 * 3 / 2];
+        frame[2] = 9;
+        byte[] reduced = reducer.reduce(1, frame, 16, 8);
+        assertEquals(4, reducer.getWidth());
+        assertEquals(2, reducer.getHeight());
+        assertEquals(4 * 2 * 3 / 2, reduced.length);
+        assertTrue(reducer.reduce(1, frame, 16, 8) == reduced);
+
+        // Narrow enough frames are not copied
+        FrameReducer wide = new FrameReducer(16);
+        assertTrue(wide.reduce(2, frame, 16, 8) == frame);
+        assertEquals(16, wide.getWidth());
+    }
+}
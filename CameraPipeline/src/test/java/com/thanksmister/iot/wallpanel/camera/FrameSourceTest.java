@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import com.jjoe64.motiondetection.motiondetection.CaptureWriter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSourceTest {
+
+    @Test
+    public void syntheticFramesAreRepeatable() throws Exception {
+        SyntheticFrameSource first = new SyntheticFrameSource(64, 48, 0, 0);
+        SyntheticFrameSource second = new SyntheticFrameSource(64, 48, 0, 0);
+        byte[] a = new byte[64 * 48 * 3 / 2];
+        byte[] b = new byte[a.length];
+        first.render(5, a);
+        second.render(5, b);
+        assertTrue(Arrays.equals(a, b));
+        // The square has moved between frames
+        second.render(6, b);
+        assertTrue(!Arrays.equals(a, b));
+    }
+
+    @Test
+    public void syntheticSourceStopsAfterFrames() throws Exception {
+        Collector collector = new Collector(3);
+        new SyntheticFrameSource(16, 8, 0, 3).start(collector);
+        assertTrue(collector.await());
+        assertEquals(Arrays.asList(0L, 1L, 2L), collector.ids);
+    }
+
+    @Test
+    public void playsCaptureInALoop() throws Exception {
+        File file = File.createTempFile("source", ".wpc");
+        try {
+            CaptureWriter writer = new CaptureWriter(file, 4, 2, new Properties(), 2);
+            byte[] frame = new byte[12];
+            frame[0] = 1;
+            writer.write(frame, 4, 2, 100);
+            frame[0] = 2;
+            writer.write(frame, 4, 2, 140);
+            writer.close();
+
+            Collector collector = new Collector(5);
+            CaptureFrameSource source = new CaptureFrameSource(file, 0, true);
+            source.start(collector);
+            assertTrue(collector.await());
+            source.stop();
+            assertEquals(Arrays.asList(1, 2, 1, 2, 1), collector.firstBytes);
+            assertEquals(Arrays.asList(0L, 40L, 41L, 81L, 82L), collector.timestamps);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void splitsMjpegParts() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] jpeg1 = { (byte) 0xFF, (byte) 0xD8, 1, 2, (byte) 0xFF, (byte) 0xD9 };
+        byte[] jpeg2 = { (byte) 0xFF, (byte) 0xD8, 3, (byte) 0xFF, (byte) 0xD9 };
+        stream.write(("--jpgboundary\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg1.length + "\r\n\r\n").getBytes("US-ASCII"));
+        stream.write(jpeg1);
+        // No length, found by its end of image marker
+        stream.write("\r\n--jpgboundary\r\nContent-Type: image/jpeg\r\n\r\n".getBytes("US-ASCII"));
+        stream.write(jpeg2);
+        stream.write("\r\n".getBytes("US-ASCII"));
+
+        MjpegReader reader = new MjpegReader(new ByteArrayInputStream(stream.toByteArray()));
+        assertEquals(jpeg1.length, reader.next());
+        assertTrue(Arrays.equals(jpeg1, Arrays.copyOf(reader.getBuffer(), reader.getLength())));
+        assertEquals(jpeg2.length, reader.next());
+        assertTrue(Arrays.equals(jpeg2, Arrays.copyOf(reader.getBuffer(), reader.getLength())));
+        try {
+            reader.next();
+            assertTrue("expected end of stream", false);
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void convertsArgbToNv21() {
+        int[] argb = { 0xFFFFFFFF, 0xFF000000, 0xFFFF0000, 0xFF0000FF };
+        byte[] nv21 = Nv21Transform.fromArgb(argb, 2, 2, null);
+        assertEquals(6, nv21.length);
+        assertEquals(235, nv21[0] & 0xFF);
+        assertEquals(16, nv21[1] & 0xFF);
+        assertEquals(82, nv21[2] & 0xFF);
+        // Chroma of the white top left pixel
+        assertEquals(128, nv21[4] & 0xFF);
+        assertEquals(128, nv21[5] & 0xFF);
+    }
+
+    @Test
+    public void encodesBasicAuthentication() {
+        assertEquals("dXNlcjpwYXNz", MjpegFrameSource.base64("user:pass".getBytes()));
+        assertEquals("YQ==", MjpegFrameSource.base64("a".getBytes()));
+        assertEquals("YWI=", MjpegFrameSource.base64("ab".getBytes()));
+        assertEquals("", MjpegFrameSource.base64(new byte[0]));
+    }
+
+    @Test
+    public void reportsMjpegFailures() throws Exception {
+        // Nothing listens on the port once the socket is closed, so connecting fails straight away
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int port = socket.getLocalPort();
+        socket.close();
+        final CountDownLatch retried = new CountDownLatch(1);
+        final int[] failures = new int[1];
+        MjpegFrameSource source = new MjpegFrameSource(new URL("http://127.0.0.1:" + port + "/video"), null);
+        source.start(new Collector(0) {
+            @Override
+            public void onRetry(Exception e, int count) {
+                failures[0] = count;
+                retried.countDown();
+            }
+        });
+        assertTrue(retried.await(5, TimeUnit.SECONDS));
+        source.stop();
+        assertEquals(1, failures[0]);
+
+        assertEquals(2000, MjpegFrameSource.reconnectDelay(1));
+        assertEquals(16000, MjpegFrameSource.reconnectDelay(4));
+        assertEquals(30000, MjpegFrameSource.reconnectDelay(5));
+        assertEquals(30000, MjpegFrameSource.reconnectDelay(100));
+    }
+
+    private static class Collector implements FrameSource.Listener {
+
+        final List<Long> ids = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+        final List<Integer> firstBytes = new ArrayList<>();
+        private final int limit;
+        private int frames;
+        private final Object lock = new Object();
+
+        Collector(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void onFrame(byte[] nv21, int width, int height, long frameId, long timestampMillis) {
+            synchronized (lock) {
+                // Keep only what the test waits for, a looping source carries on until stopped
+                if (frames == limit) {
+                    return;
+                }
+                ids.add(frameId);
+                timestamps.add(timestampMillis);
+                firstBytes.add((int) nv21[0]);
+                frames++;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            throw new AssertionError(e);
+        }
+
+        @Override
+        public void onRetry(Exception e, int failures) {
+            throw new AssertionError(e);
+        }
+
+        boolean await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            synchronized (lock) {
+                while (frames < limit) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        return false;
+                    }
+                    lock.wait(wait);
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameTracerTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int i = 1; i < 120; i++) {
+            assertEquals(LatencyHistogram.upperBound(i - 1) + 1, lowerBound(i));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i)));
+            assertEquals(i, LatencyHistogram.index(lowerBound(i)));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50500, histogram.getMeanMicros());
+        assertEquals(100000, histogram.getMaxMicros());
+        long p50 = histogram.getPercentileMicros(50);
+        assertTrue("p50 " + p50, p50 >= 50000 && p50 < 50000 * 5 / 4);
+        assertEquals(100000, histogram.getPercentileMicros(100));
+        histogram.reset();
+        assertEquals(0, histogram.getPercentileMicros(99));
+    }
+
+    @Test
+    public void followsFramesAndEvents() {
+        FrameTracer tracer = new FrameTracer();
+        tracer.begin(7, 5000000L);
+        // Seen again by a later detector, not stamped twice
+        tracer.begin(7, 0);
+        tracer.mark(FrameTracer.STAGE_MOTION, 7);
+        tracer.raise(FrameTracer.EVENT_MOTION, 7);
+        tracer.markEvent(FrameTracer.EVENT_MOTION, FrameTracer.EVENT_MQTT);
+        // Unknown frames and events are ignored
+        tracer.mark(FrameTracer.STAGE_MOTION, 8);
+        tracer.markEvent(FrameTracer.EVENT_FACE, FrameTracer.EVENT_MQTT);
+
+        assertEquals(1, tracer.histogram(FrameTracer.STAGE_FRAME).getCount());
+        assertTrue(tracer.histogram(FrameTracer.STAGE_FRAME).getMaxMicros() >= 5000);
+        assertEquals(1, tracer.histogram(FrameTracer.STAGE_MOTION).getCount());
+        assertTrue(tracer.histogram(FrameTracer.STAGE_MOTION).getMaxMicros() >= 5000);
+        assertEquals(1, tracer.histogram("motion.mqtt").getCount());
+        assertEquals(1, tracer.histogram("motion.detected").getCount());
+        assertTrue(!tracer.getHistograms().containsKey("face.mqtt"));
+    }
+
+    private static long lowerBound(int index) {
+        return index == 0 ? 0 : LatencyHistogram.upperBound(index - 1) + 1;
+    }
+}
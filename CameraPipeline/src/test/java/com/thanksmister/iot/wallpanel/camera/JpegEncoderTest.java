@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The JPEGs of the NV21 encoder must decode with a standard decoder and stay
+ * close to the source frame.
+ */
+public class JpegEncoderTest {
+
+    @Test
+    public void encodesDecodableJpeg() throws IOException {
+        assertDecodes(640, 480);
+    }
+
+    @Test
+    public void encodesPartialBlocks() throws IOException {
+        assertDecodes(100, 38);
+    }
+
+    @Test
+    public void rotatesBeforeEncoding() throws IOException {
+        byte[] frame = frame(64, 32);
+        byte[] rotated = Nv21Transform.rotate(frame, 64, 32, 90, null);
+        BufferedImage image = decode(new JpegEncoder().encode(rotated, 32, 64, 90));
+        assertEquals(32, image.getWidth());
+        assertEquals(64, image.getHeight());
+        // Top left of the source ends up at the top right
+        assertEquals(luma(frame, 64, 0, 0), image.getRaster().getSample(31, 0, 0), 12);
+    }
+
+    private static void assertDecodes(int width, int height) throws IOException {
+        byte[] frame = frame(width, height);
+        JpegEncoder encoder = new JpegEncoder();
+        encoder.encode(frame, width, height, 30);
+        BufferedImage image = decode(encoder.encode(frame, width, height, 90));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+
+        long error = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(x, y);
+                int grey = (((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3;
+                error += Math.abs(grey - luma(frame, width, x, y));
+            }
+        }
+        assertTrue("Mean error " + error / (width * height), error / (width * height) < 4);
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        return image;
+    }
+
+    private static int luma(byte[] frame, int width, int x, int y) {
+        return frame[y * width + x] & 0xff;
+    }
+
+    // Smooth grey gradient with neutral chroma
+    private static byte[] frame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int y = 0, xy = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, xy++) {
+                frame[xy] = (byte) (30 + (x * 150 / width) + (y * 50 / height));
+            }
+        }
+        for (int i = width * height; i < frame.length; i++) {
+            frame[i] = (byte) 128;
+        }
+        return frame;
+    }
+}
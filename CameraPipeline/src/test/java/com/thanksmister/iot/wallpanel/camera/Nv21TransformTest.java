@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Nv21TransformTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void identityPassesFrameThrough() {
+        byte[] frame = frame();
+        Nv21Transform transform = new Nv21Transform();
+        assertTrue(transform.apply(frame, WIDTH, HEIGHT) == frame);
+        assertEquals(WIDTH, transform.getOutputWidth());
+    }
+
+    @Test
+    public void rotatesClockwise() {
+        Nv21Transform transform = new Nv21Transform();
+        transform.setRotation(90);
+        byte[] out = transform.apply(frame(), WIDTH, HEIGHT);
+        assertEquals(HEIGHT, transform.getOutputWidth());
+        assertEquals(WIDTH, transform.getOutputHeight());
+        // Bottom left of the source is the top left of the output
+        assertEquals(luma(0, HEIGHT - 1), out[0]);
+        assertEquals(luma(0, 0), out[HEIGHT - 1]);
+        // Chroma pair of the bottom left block moves to the top left
+        assertEquals(chroma(0, HEIGHT / 2 - 1), out[WIDTH * HEIGHT]);
+    }
+
+    @Test
+    public void cropsAndScales() {
+        Nv21Transform transform = new Nv21Transform();
+        transform.setCrop(4, 0, 8, 4);
+        transform.setScale(2);
+        byte[] out = transform.apply(frame(), WIDTH, HEIGHT);
+        assertEquals(2, transform.getOutputWidth());
+        assertEquals(2, transform.getOutputHeight());
+        assertEquals(luma(4, 0), out[0]);
+        assertEquals(luma(6, 2), out[3]);
+        assertEquals(chroma(2, 0), out[4]);
+    }
+
+    @Test
+    public void reusesOutputBuffer() {
+        Nv21Transform transform = new Nv21Transform();
+        transform.setRotation(180);
+        byte[] first = transform.apply(frame(), WIDTH, HEIGHT);
+        assertTrue(transform.apply(frame(), WIDTH, HEIGHT) == first);
+    }
+
+    @Test
+    public void roundsRotationToQuarterTurns() {
+        assertEquals(90, Nv21Transform.rotationFor(90, 0, 0));
+        assertEquals(0, Nv21Transform.rotationFor(90, 90, 0));
+        assertEquals(270, Nv21Transform.rotationFor(270, 0, 0));
+        assertEquals(180, Nv21Transform.rotationFor(0, 270, 90));
+    }
+
+    private static byte luma(int x, int y) {
+        return (byte) (y * WIDTH + x);
+    }
+
+    // V of the VU pair of chroma block (x, y)
+    private static byte chroma(int x, int y) {
+        return (byte) (100 + y * WIDTH + 2 * x);
+    }
+
+    private static byte[] frame() {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            frame[i] = (byte) i;
+        }
+        for (int i = WIDTH * HEIGHT; i < frame.length; i++) {
+            frame[i] = (byte) (100 + i - WIDTH * HEIGHT);
+        }
+        return frame;
+    }
+}
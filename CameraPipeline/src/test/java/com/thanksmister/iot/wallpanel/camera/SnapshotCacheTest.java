@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotCacheTest {
+
+    @Test
+    public void servesFreshFramesOnly() {
+        SnapshotCache cache = new SnapshotCache(1);
+        assertTrue(cache.getFresh(1000, 0) == null);
+        cache.update(new byte[] { 1 }, 5000);
+        SnapshotCache.Snapshot snapshot = cache.getFresh(1000, 5500);
+        assertEquals(1, snapshot.getSequence());
+        assertEquals("\"1\"", snapshot.getETag());
+        assertTrue(cache.getFresh(1000, 6001) == null);
+        assertTrue(cache.getLatest() == snapshot);
+    }
+
+    @Test
+    public void matchesIfNoneMatch() {
+        SnapshotCache cache = new SnapshotCache(1);
+        cache.update(new byte[0], 0);
+        SnapshotCache.Snapshot snapshot = cache.getLatest();
+        assertTrue(snapshot.matches("\"1\""));
+        assertTrue(snapshot.matches("\"7\", \"1\""));
+        assertTrue(snapshot.matches("*"));
+        assertTrue(!snapshot.matches("\"12\""));
+        assertTrue(!snapshot.matches(null));
+    }
+
+    @Test
+    public void restartDoesNotRepeatETags() {
+        SnapshotCache before = new SnapshotCache(1000);
+        before.update(new byte[] { 1 }, 1000);
+        assertEquals("\"1000\"", before.getLatest().getETag());
+        // The app restarted later, its first frame must not match what the client has
+        SnapshotCache after = new SnapshotCache(5000);
+        after.update(new byte[] { 2 }, 5000);
+        assertTrue(!after.getLatest().matches(before.getLatest().getETag()));
+    }
+
+    @Test
+    public void answersWaitingRequestsWithNextFrame() {
+        SnapshotCache cache = new SnapshotCache(1);
+        final List<Long> answered = new ArrayList<>();
+        SnapshotCache.Callback callback = new SnapshotCache.Callback() {
+            @Override
+            public void onSnapshot(SnapshotCache.Snapshot snapshot) {
+                answered.add(snapshot.getSequence());
+            }
+        };
+        SnapshotCache.Callback timedOut = new SnapshotCache.Callback() {
+            @Override
+            public void onSnapshot(SnapshotCache.Snapshot snapshot) {
+                answered.add(-1L);
+            }
+        };
+        // Only the first waiting request needs to ask for an encode
+        assertTrue(cache.await(callback));
+        assertTrue(!cache.await(timedOut));
+        assertTrue(cache.cancel(timedOut));
+        cache.update(new byte[] { 1 }, 0);
+        cache.update(new byte[] { 2 }, 0);
+        assertEquals(1, answered.size());
+        assertEquals(1L, (long) answered.get(0));
+        assertTrue(!cache.cancel(callback));
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamEncoderTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final StreamVariant FULL = new StreamVariant(1, 80);
+
+    @Test
+    public void newestFrameReplacesWaitingFrame() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final List<Long> ids = new ArrayList<>();
+        final FrameEncoder blocking = new FrameEncoder() {
+            @Override
+            public byte[] encode(byte[] nv21, int width, int height, int quality) {
+                started.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new byte[] { nv21[0] };
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        StreamEncoder encoder = new StreamEncoder(new StreamEncoder.Factory() {
+            @Override
+            public FrameEncoder create() {
+                return blocking;
+            }
+        }, new StreamEncoder.Listener() {
+            @Override
+            public void onFrame(byte[] jpeg, long frameId, StreamVariant variant) {
+                synchronized (ids) {
+                    ids.add(frameId);
+                }
+            }
+
+            @Override
+            public void onError(Exception e, StreamVariant variant, int failures) {
+            }
+
+            @Override
+            public void onStopped() {
+                stopped.countDown();
+            }
+        });
+        encoder.setVariants(Collections.singleton(FULL));
+        encoder.start();
+
+        assertTrue(encoder.offer(frame(1), WIDTH, HEIGHT, 0, 1));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // Frame 1 is being encoded, 2 waits in the slot until 3 replaces it
+        assertTrue(encoder.offer(frame(2), WIDTH, HEIGHT, 0, 2));
+        assertTrue(!encoder.offer(frame(3), WIDTH, HEIGHT, 0, 3));
+        proceed.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (encoder.getEncoded() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        encoder.stop();
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+
+        assertEquals(3, encoder.getOffered());
+        assertEquals(2, encoder.getEncoded());
+        assertEquals(1, encoder.getDropped());
+        synchronized (ids) {
+            assertEquals(2, ids.size());
+            assertEquals(1L, (long) ids.get(0));
+            assertEquals(3L, (long) ids.get(1));
+        }
+        assertTrue(!encoder.offer(frame(4), WIDTH, HEIGHT, 0, 4));
+    }
+
+    @Test
+    public void copiesOfferedFrame() throws Exception {
+        final CountDownLatch encoded = new CountDownLatch(1);
+        final byte[][] seen = new byte[1][];
+        StreamEncoder encoder = new StreamEncoder(cloning(), new StreamEncoder.Listener() {
+            @Override
+            public void onFrame(byte[] jpeg, long frameId, StreamVariant variant) {
+                seen[0] = jpeg;
+                encoded.countDown();
+            }
+
+            @Override
+            public void onError(Exception e, StreamVariant variant, int failures) {
+            }
+
+            @Override
+            public void onStopped() {
+            }
+        });
+        encoder.setVariants(Collections.singleton(FULL));
+        byte[] frame = frame(7);
+        encoder.offer(frame, WIDTH, HEIGHT, 0, 1);
+        // The camera re-using its buffer must not change the queued frame
+        frame[0] = 0;
+        encoder.start();
+        assertTrue(encoded.await(5, TimeUnit.SECONDS));
+        encoder.stop();
+        assertEquals(7, seen[0][0]);
+    }
+
+    @Test
+    public void encodesEachVariantOncePerFrame() throws Exception {
+        final StreamVariant half = new StreamVariant(2, 60);
+        final List<String> frames = new ArrayList<>();
+        final CountDownLatch encoded = new CountDownLatch(2);
+        StreamEncoder encoder = new StreamEncoder(cloning(), new StreamEncoder.Listener() {
+            @Override
+            public void onFrame(byte[] jpeg, long frameId, StreamVariant variant) {
+                synchronized (frames) {
+                    frames.add(variant + " " + jpeg.length);
+                }
+                encoded.countDown();
+            }
+
+            @Override
+            public void onError(Exception e, StreamVariant variant, int failures) {
+            }
+
+            @Override
+            public void onStopped() {
+            }
+        });
+        // Nobody asked for anything, so frames are not even copied
+        assertTrue(!encoder.offer(frame(1), WIDTH, HEIGHT, 0, 1));
+        assertEquals(0, encoder.getOffered());
+
+        encoder.setVariants(Arrays.asList(FULL, half));
+        encoder.start();
+        encoder.offer(frame(1), WIDTH, HEIGHT, 0, 2);
+        assertTrue(encoded.await(5, TimeUnit.SECONDS));
+        encoder.stop();
+
+        assertEquals(2, encoder.getEncoded());
+        synchronized (frames) {
+            Collections.sort(frames);
+            assertEquals(Arrays.asList("1/1@80 48", "1/2@60 12"), frames);
+        }
+    }
+
+    @Test
+    public void keepsEncodingAfterFailure() throws Exception {
+        final CountDownLatch encoded = new CountDownLatch(1);
+        final List<String> errors = new ArrayList<>();
+        StreamEncoder encoder = new StreamEncoder(new StreamEncoder.Factory() {
+            @Override
+            public FrameEncoder create() {
+                return new FrameEncoder() {
+                    private int calls;
+
+                    @Override
+                    public byte[] encode(byte[] nv21, int width, int height, int quality) {
+                        if (calls++ == 0) throw new IllegalStateException("bad frame");
+                        return new byte[] { nv21[0] };
+                    }
+
+                    @Override
+                    public void release() {
+                    }
+                };
+            }
+        }, new StreamEncoder.Listener() {
+            @Override
+            public void onFrame(byte[] jpeg, long frameId, StreamVariant variant) {
+                encoded.countDown();
+            }
+
+            @Override
+            public void onError(Exception e, StreamVariant variant, int failures) {
+                synchronized (errors) {
+                    errors.add(e.getMessage() + " " + variant + " " + failures);
+                }
+            }
+
+            @Override
+            public void onStopped() {
+            }
+        });
+        encoder.setVariants(Collections.singleton(FULL));
+        encoder.start();
+        encoder.offer(frame(1), WIDTH, HEIGHT, 0, 1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (encoder.getFailed() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // The thread survived the exception and encodes the next frame
+        encoder.offer(frame(2), WIDTH, HEIGHT, 0, 2);
+        assertTrue(encoded.await(5, TimeUnit.SECONDS));
+        encoder.stop();
+
+        assertEquals(1, encoder.getFailed());
+        assertEquals(1, encoder.getEncoded());
+        synchronized (errors) {
+            assertEquals(Collections.singletonList("bad frame 1/1@80 1"), errors);
+        }
+    }
+
+    @Test
+    public void picksVariantForWidth() {
+        assertEquals(new StreamVariant(2, 80), StreamVariant.forWidth(640, 320, 80));
+        assertEquals(new StreamVariant(2, 80), StreamVariant.forWidth(640, 300, 80));
+        assertEquals(new StreamVariant(1, 80), StreamVariant.forWidth(640, 400, 80));
+        assertEquals(new StreamVariant(4, 95), StreamVariant.forWidth(640, 100, 150));
+        assertEquals(new StreamVariant(1, 40), StreamVariant.forWidth(640, 0, 0));
+    }
+
+    @Test
+    public void snapsQualityToLevels() {
+        assertEquals(new StreamVariant(1, 80), new StreamVariant(1, 79));
+        assertEquals(new StreamVariant(1, 80), new StreamVariant(1, 84));
+        assertEquals(60, StreamVariant.snapQuality(50));
+        assertEquals(40, StreamVariant.snapQuality(1));
+        assertEquals(95, StreamVariant.snapQuality(100));
+        assertEquals(95, StreamVariant.snapQuality(88));
+    }
+
+    private static StreamEncoder.Factory cloning() {
+        return new StreamEncoder.Factory() {
+            @Override
+            public FrameEncoder create() {
+                return new FrameEncoder() {
+                    @Override
+                    public byte[] encode(byte[] nv21, int width, int height, int quality) {
+                        return Arrays.copyOf(nv21, width * height * 3 / 2);
+                    }
+
+                    @Override
+                    public void release() {
+                    }
+                };
+            }
+        };
+    }
+
+    private static byte[] frame(int value) {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        frame[0] = (byte) value;
+        return frame;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamFanoutTest {
+
+    private static final StreamVariant FULL = new StreamVariant(1, 80);
+    private static final StreamVariant HALF = new StreamVariant(2, 80);
+
+    @Test
+    public void slowClientSkipsFramesWithoutHoldingUpOthers() {
+        StreamFanout fanout = new StreamFanout(2, 100, new Removals());
+        FakeConnection fast = new FakeConnection(true);
+        FakeConnection slow = new FakeConnection(false);
+        StreamFanout.Client fastClient = fanout.add(fast, FULL);
+        StreamFanout.Client slowClient = fanout.add(slow, FULL);
+
+        for (int i = 1; i <= 5; i++) {
+            fanout.publish(FULL, new byte[] { (byte) i });
+        }
+        assertEquals(5, fast.sent.size());
+        assertEquals(5, fastClient.getSent());
+
+        // Frame 1 is still being sent, 2 and 3 were pushed out by 4 and 5
+        assertEquals(1, slow.sent.size());
+        assertEquals(2, slowClient.getQueued());
+        assertEquals(2, slowClient.getDropped());
+        slowClient.onSent();
+        slowClient.onSent();
+        slowClient.onSent();
+        assertEquals(3, slow.sent.size());
+        assertEquals(4, payload(slow.sent.get(1)));
+        assertEquals(5, payload(slow.sent.get(2)));
+        assertEquals(0, slowClient.getQueued());
+    }
+
+    @Test
+    public void evictsStuckClient() {
+        Removals removals = new Removals();
+        StreamFanout fanout = new StreamFanout(1, 3, removals);
+        FakeConnection stuck = new FakeConnection(false);
+        StreamFanout.Client client = fanout.add(stuck, FULL);
+
+        for (int i = 0; i < 4; i++) {
+            fanout.publish(FULL, new byte[1]);
+        }
+        assertTrue(!stuck.closed);
+        fanout.publish(FULL, new byte[1]);
+        assertTrue(stuck.closed);
+        assertTrue(client.isClosed());
+        assertEquals(1, fanout.getEvicted());
+        assertEquals(1, removals.removed.size());
+        assertEquals(0, fanout.getClients().size());
+
+        // Removing it again does not report it twice
+        fanout.remove(client);
+        assertEquals(1, removals.removed.size());
+    }
+
+    @Test
+    public void sendsOnlyTheClientsVariant() {
+        StreamFanout fanout = new StreamFanout(2, 10, new Removals());
+        FakeConnection full = new FakeConnection(true);
+        FakeConnection half = new FakeConnection(true);
+        fanout.add(full, FULL);
+        fanout.add(half, HALF);
+
+        fanout.publish(FULL, new byte[] { 1 });
+        fanout.publish(HALF, new byte[] { 2 });
+        fanout.publish(FULL, new byte[] { 3 });
+        assertEquals(2, full.sent.size());
+        assertEquals(1, half.sent.size());
+        assertEquals(2, payload(half.sent.get(0)));
+    }
+
+    @Test
+    public void framesOncePerFrame() throws Exception {
+        StreamFanout fanout = new StreamFanout(2, 10, new Removals());
+        FakeConnection first = new FakeConnection(true);
+        FakeConnection second = new FakeConnection(true);
+        fanout.add(first, FULL);
+        fanout.add(second, FULL);
+
+        fanout.publish(FULL, new byte[] { 7, 8 });
+        assertTrue(first.sent.get(0) == second.sent.get(0));
+        ByteBuffer buffer = first.sent.get(0).buffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        String expected = "--jpgboundary\r\nContent-Type: image/jpeg\r\nContent-Length: 2\r\n\r\n";
+        assertEquals(expected, new String(bytes, 0, expected.length(), "US-ASCII"));
+        assertEquals(expected.length() + 4, bytes.length);
+        assertEquals(8, bytes[bytes.length - 3]);
+
+        // Each client gets its own position over the shared array
+        ByteBuffer view = first.sent.get(0).buffer();
+        ByteBuffer other = second.sent.get(0).buffer();
+        assertTrue(view != other);
+        assertTrue(view.array() == other.array());
+        view.position(view.limit());
+        assertEquals(bytes.length, other.remaining());
+    }
+
+    private static int payload(MultipartFrame frame) {
+        ByteBuffer buffer = frame.buffer();
+        return buffer.get(frame.getLength() - 3);
+    }
+
+    private static class FakeConnection implements StreamFanout.Connection {
+
+        final List<MultipartFrame> sent = new ArrayList<>();
+        final boolean immediate;
+        boolean closed;
+
+        FakeConnection(boolean immediate) {
+            this.immediate = immediate;
+        }
+
+        @Override
+        public void send(StreamFanout.Client client, MultipartFrame frame) {
+            sent.add(frame);
+            if (immediate) {
+                client.onSent();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class Removals implements StreamFanout.Listener {
+
+        final List<StreamFanout.Client> removed = new ArrayList<>();
+
+        @Override
+        public void onRemoved(StreamFanout.Client client) {
+            removed.add(client);
+        }
+    }
+}
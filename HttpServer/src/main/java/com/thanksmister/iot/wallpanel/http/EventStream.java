@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Server-Sent Events kept in one ring buffer shared by every subscriber. An
+ * event is framed once when it is published; subscribers only hold a cursor
+ * into the ring and are handed views of the framed events past it, as many
+ * as have arrived in one write, so the cost of an event hardly grows with the
+ * number of listeners. A subscriber that falls further behind than the ring
+ * holds skips to the oldest event still in it rather than anything being
+ * buffered for it.
+ * <p>
+ * Event ids only ever grow, so a client reconnecting with Last-Event-ID gets
+ * the events it missed as long as they are still in the ring.
+ */
+public class EventStream {
+
+    public static final String CONTENT_TYPE = "text/event-stream";
+
+    // Events in one write to a subscriber
+    private static final int MAX_BATCH = 64;
+    private static final ByteBuffer PING = ByteBuffer.wrap(":\n\n".getBytes(HttpRequest.UTF_8)).asReadOnlyBuffer();
+
+    /**
+     * The socket side of a subscriber.
+     */
+    public interface Connection {
+
+        /**
+         * Start writing the events without blocking.
+         * {@link Subscriber#onSent()} must be called on the subscriber once
+         * all of them are written, after which the next events are sent.
+         */
+        void send(Subscriber subscriber, ByteBuffer[] events);
+
+        void close();
+    }
+
+    public final class Subscriber {
+
+        private final Connection connection;
+        // Guarded by this
+        private long cursor;
+        private boolean busy;
+        private int pending;
+        private boolean closed;
+
+        private volatile long sent;
+        private volatile long missed;
+
+        Subscriber(Connection connection, long cursor) {
+            this.connection = connection;
+            this.cursor = cursor;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * Events that left the ring before they could be sent.
+         */
+        public long getMissed() {
+            return missed;
+        }
+
+        /**
+         * The events handed to {@link Connection#send(Subscriber, ByteBuffer[])}
+         * are written.
+         */
+        public void onSent() {
+            synchronized (this) {
+                busy = false;
+                sent += pending;
+                pending = 0;
+            }
+            pump(false);
+        }
+
+        /**
+         * The subscriber went away, same as
+         * {@link EventStream#remove(Subscriber)}.
+         */
+        public void remove() {
+            EventStream.this.remove(this);
+        }
+
+        // Sends whatever is past the cursor if nothing is being written, a
+        // comment instead when asked to ping and there is nothing new
+        void pump(boolean ping) {
+            ByteBuffer[] batch;
+            synchronized (this) {
+                if (closed || busy) {
+                    return;
+                }
+                batch = take();
+                if (batch != null) {
+                    pending = batch.length;
+                } else if (ping) {
+                    batch = new ByteBuffer[] { PING.duplicate() };
+                } else {
+                    return;
+                }
+                busy = true;
+            }
+            connection.send(this, batch);
+        }
+
+        // Called holding this
+        private ByteBuffer[] take() {
+            synchronized (EventStream.this) {
+                if (cursor >= lastId) {
+                    return null;
+                }
+                long oldest = Math.max(firstId, lastId - ring.length + 1);
+                if (cursor < oldest - 1) {
+                    missed += oldest - 1 - cursor;
+                    cursor = oldest - 1;
+                }
+                int count = (int) Math.min(lastId - cursor, MAX_BATCH);
+                ByteBuffer[] batch = new ByteBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    batch[i] = ring[slot(cursor + 1 + i)].duplicate();
+                }
+                cursor += count;
+                return batch;
+            }
+        }
+
+        // True the first time only
+        boolean close() {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                closed = true;
+            }
+            connection.close();
+            return true;
+        }
+    }
+
+    private final ByteBuffer[] ring;
+    private final long firstId;
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // Guarded by this
+    private long lastId;
+
+    private volatile long published;
+
+    /**
+     * @param capacity
+     *            Events kept for subscribers that are behind or reconnecting.
+     * @param firstId
+     *            Id of the first event. Starting from something that grows
+     *            between runs, such as the time, keeps ids from before a
+     *            restart from being taken for new ones.
+     */
+    public EventStream(int capacity, long firstId) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        if (firstId < 1) throw new IllegalArgumentException("First id must be at least 1");
+        this.ring = new ByteBuffer[capacity];
+        this.firstId = firstId;
+        this.lastId = firstId - 1;
+    }
+
+    /**
+     * Add a subscriber, sent only events published from now on unless it
+     * names the last event it had.
+     *
+     * @param lastEventId
+     *            The Last-Event-ID header, NULL for a new subscriber.
+     */
+    public Subscriber subscribe(Connection connection, String lastEventId) {
+        Subscriber subscriber;
+        synchronized (this) {
+            long cursor = lastId;
+            if (lastEventId != null) {
+                try {
+                    long resume = Long.parseLong(lastEventId.trim());
+                    if (resume < lastId) {
+                        cursor = Math.max(resume, firstId - 1);
+                    }
+                } catch (NumberFormatException e) {
+                    // Not one of ours, start from now
+                }
+            }
+            subscriber = new Subscriber(connection, cursor);
+        }
+        subscribers.add(subscriber);
+        subscriber.pump(false);
+        return subscriber;
+    }
+
+    /**
+     * Close a subscriber and stop sending to it. Does nothing for a
+     * subscriber already removed.
+     */
+    public void remove(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            subscriber.close();
+        }
+    }
+
+    public void removeAll() {
+        for (Subscriber subscriber : subscribers) {
+            remove(subscriber);
+        }
+    }
+
+    /**
+     * Add an event to the ring and start sending it to every subscriber that
+     * is not already busy writing, the busy ones pick it up once they finish.
+     *
+     * @param data
+     *            Sent as one data line per line.
+     * @return The id of the event.
+     */
+    public long publish(String name, String data) {
+        ByteBuffer frame;
+        long id;
+        synchronized (this) {
+            id = lastId + 1;
+            frame = frame(id, name, data);
+            ring[slot(id)] = frame;
+            lastId = id;
+        }
+        published++;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.pump(false);
+        }
+        return id;
+    }
+
+    /**
+     * Write a comment to every idle subscriber that is up to date, keeping
+     * quiet connections alive through proxies and finding ones that are gone.
+     */
+    public void ping() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.pump(true);
+        }
+    }
+
+    public synchronized long getLastId() {
+        return lastId;
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public List<Subscriber> getSubscribers() {
+        return new ArrayList<>(subscribers);
+    }
+
+    private int slot(long id) {
+        return (int) ((id - firstId) % ring.length);
+    }
+
+    static ByteBuffer frame(long id, String name, String data) {
+        StringBuilder frame = new StringBuilder(data.length() + name.length() + 32);
+        frame.append("id: ").append(id).append('\n');
+        frame.append("event: ").append(name).append('\n');
+        int start = 0;
+        while (true) {
+            int end = data.indexOf('\n', start);
+            frame.append("data: ").append(data, start, end < 0 ? data.length() : end).append('\n');
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+        frame.append('\n');
+        return ByteBuffer.wrap(frame.toString().getBytes(HttpRequest.UTF_8)).asReadOnlyBuffer();
+    }
+}
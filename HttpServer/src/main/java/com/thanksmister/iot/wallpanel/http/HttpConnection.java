@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One client socket. Reading, parsing and writing happen on the server
+ * thread only, while writes may be queued from any thread. Reading stops
+ * while a request is being answered, so a client can only ever have one
+ * request in progress and requests it pipelines wait in the parser.
+ */
+final class HttpConnection {
+
+    static final int AFTER_NONE = 0;
+    static final int AFTER_NEXT = 1;
+    static final int AFTER_CLOSE = 2;
+
+    // Buffers handed to one gathering write at most
+    private static final int MAX_GATHER = 64;
+
+    private static final class Write {
+
+        final ByteBuffer[] buffers;
+        final HttpResponse.WriteCallback callback;
+        final int after;
+
+        Write(ByteBuffer[] buffers, HttpResponse.WriteCallback callback, int after) {
+            this.buffers = buffers;
+            this.callback = callback;
+            this.after = after;
+        }
+
+        boolean isDone() {
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasRemaining()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final HttpServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final RequestParser parser;
+    private final ByteBuffer readBuffer;
+
+    // Guarded by this
+    private final ArrayDeque<Write> writes = new ArrayDeque<>();
+    private Runnable closedCallback;
+    private volatile boolean closed;
+    private volatile boolean streaming;
+
+    // Server thread only
+    private boolean answering;
+    private long lastActive;
+
+    private final AtomicBoolean flushPosted = new AtomicBoolean();
+
+    HttpConnection(HttpServer server, SocketChannel channel, SelectionKey key, int maxHeaderBytes, int maxBodyBytes) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        this.parser = new RequestParser(maxHeaderBytes, maxBodyBytes);
+        this.readBuffer = ByteBuffer.allocate(8192);
+        this.lastActive = System.currentTimeMillis();
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Open, not answering a request and nothing read or written for longer
+     * than the timeout, a keep-alive connection the client forgot.
+     */
+    boolean isIdle(long now, long timeoutMillis) {
+        return !answering && now - lastActive > timeoutMillis;
+    }
+
+    void setClosedCallback(Runnable callback) {
+        boolean run;
+        synchronized (this) {
+            closedCallback = callback;
+            run = closed;
+        }
+        if (run && callback != null) {
+            callback.run();
+        }
+    }
+
+    void onReadable() {
+        int read;
+        try {
+            readBuffer.clear();
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        lastActive = System.currentTimeMillis();
+        if (streaming) {
+            // Only read to notice the client going away, a stream is the last response
+            return;
+        }
+        readBuffer.flip();
+        parser.feed(readBuffer);
+        nextRequest();
+    }
+
+    /**
+     * The response is streamed until the connection closes. Reading carries
+     * on so a client that goes away is noticed even while nothing is sent.
+     */
+    void startStreaming() {
+        streaming = true;
+        server.post(new Runnable() {
+            @Override
+            public void run() {
+                updateInterest();
+            }
+        });
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    private void nextRequest() {
+        if (answering || closed) {
+            return;
+        }
+        HttpRequest request;
+        try {
+            request = parser.next();
+        } catch (RequestParser.BadRequest e) {
+            answering = true;
+            updateInterest();
+            new HttpResponse(this, false, false).fail(e.status, e.getMessage());
+            return;
+        }
+        if (request == null) {
+            updateInterest();
+            return;
+        }
+        answering = true;
+        updateInterest();
+        server.dispatch(request, new HttpResponse(this, request));
+    }
+
+    /**
+     * Queue buffers, from any thread.
+     *
+     * @param after
+     *            What to do once they are written: nothing, read the next
+     *            request or close.
+     */
+    void write(ByteBuffer[] buffers, HttpResponse.WriteCallback callback, int after) {
+        synchronized (this) {
+            if (!closed) {
+                writes.add(new Write(buffers, callback, after));
+                callback = null;
+            }
+        }
+        if (callback != null) {
+            callback.onWritten(new IOException("Connection closed"));
+            return;
+        }
+        // Always posted, even from the server thread, so a write callback that
+        // writes again never runs a flush inside another
+        if (flushPosted.compareAndSet(false, true)) {
+            server.post(new Runnable() {
+                @Override
+                public void run() {
+                    flushPosted.set(false);
+                    flush();
+                }
+            });
+        }
+    }
+
+    private void flush() {
+        while (!closed) {
+            ByteBuffer[] batch;
+            synchronized (this) {
+                if (writes.isEmpty()) {
+                    break;
+                }
+                List<ByteBuffer> gathered = new ArrayList<>();
+                for (Write write : writes) {
+                    for (ByteBuffer buffer : write.buffers) {
+                        if (buffer.hasRemaining() && gathered.size() < MAX_GATHER) {
+                            gathered.add(buffer);
+                        }
+                    }
+                    if (gathered.size() >= MAX_GATHER) {
+                        break;
+                    }
+                }
+                batch = gathered.toArray(new ByteBuffer[0]);
+            }
+            if (batch.length > 0) {
+                try {
+                    channel.write(batch);
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                lastActive = System.currentTimeMillis();
+            }
+            List<Write> done = new ArrayList<>();
+            synchronized (this) {
+                while (!writes.isEmpty() && writes.peekFirst().isDone()) {
+                    done.add(writes.pollFirst());
+                }
+            }
+            for (Write write : done) {
+                if (write.callback != null) {
+                    write.callback.onWritten(null);
+                }
+                if (write.after == AFTER_CLOSE) {
+                    close();
+                    return;
+                }
+                if (write.after == AFTER_NEXT) {
+                    answering = false;
+                    nextRequest();
+                }
+            }
+            if (done.isEmpty()) {
+                // The socket is full, carry on when it drains
+                break;
+            }
+        }
+        updateInterest();
+    }
+
+    private void updateInterest() {
+        if (closed || !key.isValid()) {
+            return;
+        }
+        boolean pending;
+        synchronized (this) {
+            pending = !writes.isEmpty();
+        }
+        boolean reading = !answering || streaming;
+        key.interestOps((reading ? SelectionKey.OP_READ : 0) | (pending ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * Close the socket, failing whatever was still waiting to be written.
+     * May be called from any thread.
+     */
+    void close() {
+        if (!server.isServerThread()) {
+            server.post(new Runnable() {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+            return;
+        }
+        List<Write> failed;
+        Runnable callback;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            failed = new ArrayList<>(writes);
+            writes.clear();
+            callback = closedCallback;
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // na-da
+        }
+        server.closed(this);
+        IOException error = new IOException("Connection closed");
+        for (Write write : failed) {
+            if (write.callback != null) {
+                write.callback.onWritten(error);
+            }
+        }
+        if (callback != null) {
+            callback.run();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A request as it was read off the connection, body included.
+ */
+public class HttpRequest {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String method;
+    private final String path;
+    private final String version;
+    private final Map<String, String> query;
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    HttpRequest(String method, String path, String version, Map<String, String> query,
+            Map<String, String> headers, byte[] body) {
+        this.method = method;
+        this.path = path;
+        this.version = version;
+        this.query = query;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * The path without the query string, as sent.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The decoded query parameter, the first if it was given more than
+     *         once, or NULL.
+     */
+    public String getQuery(String name) {
+        return query.get(name);
+    }
+
+    public Map<String, String> getQuery() {
+        return Collections.unmodifiableMap(query);
+    }
+
+    /**
+     * @return The header, looked up ignoring case, or NULL.
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * The body decoded as UTF-8, whatever the client claimed.
+     */
+    public String getBodyString() {
+        return new String(body, UTF_8);
+    }
+
+    /**
+     * Can the connection take another request after this one. HTTP/1.1
+     * connections stay open unless the client asks to close, HTTP/1.0 ones
+     * only when it asks to keep them.
+     */
+    public boolean isKeepAlive() {
+        String connection = headers.get("Connection");
+        if ("HTTP/1.0".equals(version)) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The answer to one request. Handlers may answer from any thread, and may
+ * keep the response after they return to answer later. A response is either
+ * sent whole with one of the send methods, or streamed: {@link #writeHead()}
+ * then any number of {@link #write(ByteBuffer[], WriteCallback)} calls and
+ * finally {@link #end()}, after which the connection is closed.
+ */
+public class HttpResponse {
+
+    /**
+     * Called on the server thread once buffers are written or could not be.
+     * Must not block.
+     */
+    public interface WriteCallback {
+
+        /**
+         * @param error
+         *            NULL when everything was written.
+         */
+        void onWritten(IOException error);
+    }
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final ByteBuffer[] NOTHING = new ByteBuffer[0];
+
+    private final HttpConnection connection;
+    private final boolean keepAlive;
+    private final boolean head;
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private int code = 200;
+    // Guarded by this
+    private boolean committed;
+    private boolean streaming;
+    private boolean ended;
+
+    HttpResponse(HttpConnection connection, HttpRequest request) {
+        this(connection, request.isKeepAlive(), "HEAD".equals(request.getMethod()));
+    }
+
+    HttpResponse(HttpConnection connection, boolean keepAlive, boolean head) {
+        this.connection = connection;
+        this.keepAlive = keepAlive;
+        this.head = head;
+    }
+
+    public synchronized HttpResponse code(int code) {
+        this.code = code;
+        return this;
+    }
+
+    public synchronized int getCode() {
+        return code;
+    }
+
+    public synchronized HttpResponse setHeader(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public synchronized String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public HttpResponse setContentType(String contentType) {
+        return setHeader("Content-Type", contentType);
+    }
+
+    /**
+     * Send text as UTF-8.
+     */
+    public void send(String text) {
+        send("text/plain", text);
+    }
+
+    /**
+     * Send text as UTF-8, saying so in the content type unless it names a
+     * charset already.
+     */
+    public void send(String contentType, String body) {
+        if (!contentType.toLowerCase().contains("charset=")) {
+            contentType += "; charset=utf-8";
+        }
+        send(contentType, body.getBytes(HttpRequest.UTF_8));
+    }
+
+    public void send(String contentType, byte[] body) {
+        setContentType(contentType);
+        finish(body);
+    }
+
+    /**
+     * Finish the response. A streamed response is closed once everything
+     * written so far has gone out, any other is sent with an empty body.
+     */
+    public void end() {
+        synchronized (this) {
+            if (streaming) {
+                if (ended) {
+                    return;
+                }
+                ended = true;
+                connection.write(NOTHING, null, HttpConnection.AFTER_CLOSE);
+                return;
+            }
+        }
+        finish(new byte[0]);
+    }
+
+    /**
+     * Start a streamed response, sending the status and headers with no
+     * Content-Length. The connection closes when the stream ends.
+     */
+    public void writeHead() {
+        ByteBuffer head;
+        synchronized (this) {
+            if (committed) {
+                return;
+            }
+            committed = true;
+            streaming = true;
+            headers.remove("Content-Length");
+            head = head(-1, false);
+        }
+        connection.startStreaming();
+        connection.write(new ByteBuffer[] { head }, null, HttpConnection.AFTER_NONE);
+    }
+
+    /**
+     * Queue buffers of a streamed response, written together in as few
+     * system calls as the socket allows. The buffers are written from the
+     * server thread, they must not be touched until the callback is called.
+     */
+    public void write(ByteBuffer[] buffers, WriteCallback callback) {
+        synchronized (this) {
+            if (!streaming) {
+                throw new IllegalStateException("writeHead() must be called first");
+            }
+        }
+        connection.write(buffers, callback, HttpConnection.AFTER_NONE);
+    }
+
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    /**
+     * Have callback run on the server thread when the connection closes, for
+     * whatever reason.
+     */
+    public void setClosedCallback(Runnable callback) {
+        connection.setClosedCallback(callback);
+    }
+
+    /**
+     * Answer a failed handler, unless it already started answering.
+     */
+    void fail(int status, String message) {
+        synchronized (this) {
+            if (committed) {
+                if (streaming) {
+                    connection.close();
+                }
+                return;
+            }
+            headers.clear();
+            code = status;
+        }
+        send("text/plain", message);
+    }
+
+    private void finish(byte[] body) {
+        ByteBuffer head;
+        synchronized (this) {
+            if (committed) {
+                throw new IllegalStateException("Response already sent");
+            }
+            committed = true;
+            head = head(body.length, keepAlive);
+        }
+        ByteBuffer[] buffers = this.head || body.length == 0
+                ? new ByteBuffer[] { head }
+                : new ByteBuffer[] { head, ByteBuffer.wrap(body) };
+        connection.write(buffers, null, keepAlive ? HttpConnection.AFTER_NEXT : HttpConnection.AFTER_CLOSE);
+    }
+
+    private ByteBuffer head(int contentLength, boolean keepAlive) {
+        StringBuilder builder = new StringBuilder(128);
+        builder.append("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase("Connection")) {
+                continue;
+            }
+            builder.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            builder.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        builder.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+        builder.append("\r\n");
+        return ByteBuffer.wrap(builder.toString().getBytes(ISO_8859_1));
+    }
+
+    static String reason(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return code < 400 ? "OK" : "Error";
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small HTTP/1.1 server on a single selector thread. All socket reads and
+ * writes happen on that thread without blocking, while handlers run on a
+ * small worker pool so a slow handler only holds up its own request.
+ * Connections are kept alive between requests, request headers and bodies
+ * are limited in size, and streamed responses are written with gathering
+ * writes straight from the buffers they are given.
+ * <p>
+ * Routes are matched on method and path exactly, with "*" for either
+ * matching anything. Requests that match no route get a 404.
+ */
+public class HttpServer {
+
+    /**
+     * Answers a request. Runs on a worker thread, the response may be kept
+     * and answered later from any thread.
+     */
+    public interface Handler {
+
+        void handle(HttpRequest request, HttpResponse response) throws Exception;
+    }
+
+    /**
+     * Told about unexpected exceptions on the server thread. The server
+     * drops the connection involved and carries on.
+     */
+    public interface ErrorListener {
+
+        void onError(String message, Throwable e);
+    }
+
+    public static final String ANY = "*";
+
+    public static final int DEFAULT_WORKERS = 2;
+    public static final int DEFAULT_MAX_HEADER_BYTES = 8 * 1024;
+    public static final int DEFAULT_MAX_BODY_BYTES = 64 * 1024;
+    public static final int DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private final int workerCount;
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+    private final int idleTimeoutMillis;
+    private final Map<String, Handler> actions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // Server thread only
+    private final Set<HttpConnection> connections = new HashSet<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile ErrorListener errorListener;
+
+    public HttpServer() {
+        this(DEFAULT_WORKERS, DEFAULT_MAX_HEADER_BYTES, DEFAULT_MAX_BODY_BYTES, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param workers
+     *            Threads running handlers.
+     * @param maxHeaderBytes
+     *            Largest request line and headers taken, larger requests get
+     *            a 431.
+     * @param maxBodyBytes
+     *            Largest request body taken, larger ones get a 413.
+     * @param idleTimeoutMillis
+     *            How long a kept alive connection may sit unused.
+     */
+    public HttpServer(int workers, int maxHeaderBytes, int maxBodyBytes, int idleTimeoutMillis) {
+        this.workerCount = workers;
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public void setErrorListener(ErrorListener listener) {
+        this.errorListener = listener;
+    }
+
+    public void addAction(String method, String path, Handler handler) {
+        actions.put(key(method, path), handler);
+    }
+
+    public void removeAction(String method, String path) {
+        actions.remove(key(method, path));
+    }
+
+    /**
+     * Start accepting connections.
+     *
+     * @param port
+     *            Port to listen on, 0 for any free port.
+     */
+    public synchronized void listen(int port) throws IOException {
+        if (running) {
+            throw new IllegalStateException("Already listening");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        final AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread worker = new Thread(runnable, "HttpWorker-" + count.incrementAndGet());
+                worker.setDaemon(true);
+                return worker;
+            }
+        });
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "HttpServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The port being listened on, for servers started on port 0.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stop accepting, close every connection and stop the workers.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        workers.shutdown();
+    }
+
+    boolean isServerThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on the server thread.
+     */
+    void post(Runnable task) {
+        tasks.add(task);
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    void dispatch(final HttpRequest request, final HttpResponse response) {
+        final Handler handler = find(request.getMethod(), request.getPath());
+        if (handler == null) {
+            response.code(404).send("");
+            return;
+        }
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handler.handle(request, response);
+                    } catch (Exception e) {
+                        response.fail(500, String.valueOf(e.getMessage()));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.fail(503, "Server stopping");
+        }
+    }
+
+    void closed(HttpConnection connection) {
+        connections.remove(connection);
+    }
+
+    private Handler find(String method, String path) {
+        Handler handler = actions.get(key(method, path));
+        if (handler == null) {
+            handler = actions.get(key(ANY, path));
+        }
+        if (handler == null) {
+            handler = actions.get(key(method, ANY));
+        }
+        if (handler == null) {
+            handler = actions.get(key(ANY, ANY));
+        }
+        return handler;
+    }
+
+    private static String key(String method, String path) {
+        return method + " " + path;
+    }
+
+    private void loop() {
+        long lastIdleCheck = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        report("Server task failed", e);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    HttpConnection connection = (HttpConnection) key.attachment();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (RuntimeException e) {
+                        // A bug in one connection must not take the others down with the thread
+                        report("Connection failed", e);
+                        if (connection != null) {
+                            drop(connection, key);
+                        }
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= SELECT_TIMEOUT) {
+                    lastIdleCheck = now;
+                    for (HttpConnection connection : new ArrayList<>(connections)) {
+                        if (connection.isIdle(now, idleTimeoutMillis)) {
+                            drop(connection, null);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            report("Selector failed", e);
+            running = false;
+        } finally {
+            for (HttpConnection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            tasks.clear();
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                // na-da
+            }
+        }
+    }
+
+    // Close a connection without letting its failures reach the loop
+    private void drop(HttpConnection connection, SelectionKey key) {
+        try {
+            connection.close();
+        } catch (RuntimeException e) {
+            report("Closing connection failed", e);
+            connections.remove(connection);
+        }
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    private void report(String message, Throwable e) {
+        ErrorListener listener = errorListener;
+        if (listener != null) {
+            listener.onError(message, e);
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            HttpConnection connection = new HttpConnection(this, channel, key, maxHeaderBytes, maxBodyBytes);
+            key.attach(connection);
+            connections.add(connection);
+        } catch (IOException e) {
+            // Out of file descriptors or the client gave up, the server carries on
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // na-da
+                }
+            }
+        }
+    }
+}
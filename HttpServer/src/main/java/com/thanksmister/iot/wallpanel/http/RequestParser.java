@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the bytes read from a connection and cuts them into requests.
+ * Requests larger than the limits are refused before they are buffered, so
+ * a client can never make a connection hold more than the limits allow.
+ */
+final class RequestParser {
+
+    /**
+     * A request that cannot be served, answered with the status and the
+     * connection closed.
+     */
+    static final class BadRequest extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequest(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+
+    private byte[] data = new byte[1024];
+    private int size;
+
+    RequestParser(int maxHeaderBytes, int maxBodyBytes) {
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Take the bytes read from the connection.
+     */
+    void feed(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        if (size + length > data.length) {
+            byte[] grown = new byte[Math.max(data.length * 2, size + length)];
+            System.arraycopy(data, 0, grown, 0, size);
+            data = grown;
+        }
+        buffer.get(data, size, length);
+        size += length;
+    }
+
+    /**
+     * @return The next complete request, or NULL until enough has been read.
+     * @throws BadRequest
+     *             if the request is malformed or over the limits.
+     */
+    HttpRequest next() throws BadRequest {
+        int headerEnd = indexOfHeaderEnd();
+        if (headerEnd < 0) {
+            if (size > maxHeaderBytes) {
+                throw new BadRequest(431, "Request headers too large");
+            }
+            return null;
+        }
+        if (headerEnd > maxHeaderBytes) {
+            throw new BadRequest(431, "Request headers too large");
+        }
+
+        String[] lines = new String(data, 0, headerEnd, ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            throw new BadRequest(400, "Malformed request line");
+        }
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new BadRequest(400, "Malformed header");
+            }
+            headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+        }
+        if (headers.containsKey("Transfer-Encoding")) {
+            throw new BadRequest(501, "Request bodies must have a Content-Length");
+        }
+        int contentLength = 0;
+        String length = headers.get("Content-Length");
+        if (length != null) {
+            try {
+                contentLength = Integer.parseInt(length);
+            } catch (NumberFormatException e) {
+                throw new BadRequest(400, "Malformed Content-Length");
+            }
+            if (contentLength < 0) {
+                throw new BadRequest(400, "Malformed Content-Length");
+            }
+            if (contentLength > maxBodyBytes) {
+                throw new BadRequest(413, "Request body too large");
+            }
+        }
+        int bodyStart = headerEnd + 4;
+        if (size < bodyStart + contentLength) {
+            return null;
+        }
+        byte[] body = new byte[contentLength];
+        System.arraycopy(data, bodyStart, body, 0, contentLength);
+        // Whatever follows is the start of the next request
+        size -= bodyStart + contentLength;
+        System.arraycopy(data, bodyStart + contentLength, data, 0, size);
+
+        String target = requestLine[1];
+        int question = target.indexOf('?');
+        String path = question < 0 ? target : target.substring(0, question);
+        Map<String, String> query = question < 0 ? new HashMap<String, String>() : parseQuery(target.substring(question + 1));
+        return new HttpRequest(requestLine[0], path, requestLine[2], query, headers, body);
+    }
+
+    private int indexOfHeaderEnd() {
+        for (int i = 0; i + 3 < size; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static Map<String, String> parseQuery(String query) throws BadRequest {
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = decode(equals < 0 ? pair : pair.substring(0, equals));
+            String value = equals < 0 ? "" : decode(pair.substring(equals + 1));
+            if (!parameters.containsKey(name)) {
+                parameters.put(name, value);
+            }
+        }
+        return parameters;
+    }
+
+    private static String decode(String value) throws BadRequest {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest(400, "Malformed query");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
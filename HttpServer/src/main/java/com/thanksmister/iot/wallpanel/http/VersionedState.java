@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON object kept up to date field by field. Every change that
+ * actually changes a value bumps the version, which doubles as the ETag, and
+ * the serialized object is cached until the next change, so polling it costs
+ * nothing while nothing changes. Requests can also wait for the version to
+ * move past one they already have.
+ */
+public class VersionedState {
+
+    /**
+     * Called with the state once it changes, on the thread that changed it.
+     */
+    public interface Callback {
+
+        void onState(Snapshot snapshot);
+    }
+
+    public static final class Snapshot {
+
+        private final long version;
+        private final String json;
+        private final byte[] bytes;
+        private final String etag;
+
+        Snapshot(long version, String json) {
+            this.version = version;
+            this.json = json;
+            this.bytes = json.getBytes(HttpRequest.UTF_8);
+            this.etag = "\"" + version + "\"";
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getJson() {
+            return json;
+        }
+
+        /**
+         * The JSON as UTF-8, shared by every reader so it must not be
+         * modified.
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * Does an If-None-Match header name this version.
+         */
+        public boolean matches(String ifNoneMatch) {
+            return ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag));
+        }
+    }
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+    private final List<Callback> waiting = new ArrayList<>();
+    private long version;
+    private Snapshot snapshot;
+
+    /**
+     * @param initialVersion
+     *            Version of the empty state. Starting from something that
+     *            grows between runs, such as the time, keeps a client from
+     *            getting a 304 for a version from before a restart.
+     */
+    public VersionedState(long initialVersion) {
+        if (initialVersion < 0) throw new IllegalArgumentException("Initial version must not be negative");
+        this.version = initialVersion;
+    }
+
+    /**
+     * Set a field to a string, number or boolean, or remove it with NULL.
+     *
+     * @return True if the value changed, and with it the version.
+     */
+    public boolean set(String name, Object value) {
+        Snapshot changed;
+        Callback[] callbacks;
+        synchronized (this) {
+            Object previous = value == null ? values.remove(name) : values.put(name, value);
+            if (previous == null ? value == null : previous.equals(value)) {
+                return false;
+            }
+            version++;
+            snapshot = null;
+            if (waiting.isEmpty()) {
+                return true;
+            }
+            changed = getSnapshot();
+            callbacks = waiting.toArray(new Callback[0]);
+            waiting.clear();
+        }
+        for (Callback callback : callbacks) {
+            callback.onState(changed);
+        }
+        return true;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * The current state, serialized once per version.
+     */
+    public synchronized Snapshot getSnapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot(version, toJson(values));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Have callback called once the version is past the one given.
+     *
+     * @return False if it already is, in which case the callback is not kept
+     *         and the caller should answer with the current state.
+     */
+    public synchronized boolean await(long since, Callback callback) {
+        if (version > since) {
+            return false;
+        }
+        waiting.add(callback);
+        return true;
+    }
+
+    /**
+     * Stop waiting, for requests that time out.
+     *
+     * @return True if the callback was still waiting and will not be called.
+     */
+    public synchronized boolean cancel(Callback callback) {
+        return waiting.remove(callback);
+    }
+
+    static String toJson(Map<String, Object> values) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            quote(json, entry.getKey());
+            json.append(':');
+            Object value = entry.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                json.append(value);
+            } else {
+                quote(json, String.valueOf(value));
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
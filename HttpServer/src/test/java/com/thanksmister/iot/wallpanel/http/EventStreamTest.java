@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventStreamTest {
+
+    @Test
+    public void framesEventsOnce() {
+        assertEquals("id: 7\nevent: sensor/motion\ndata: {\"value\":true}\n\n",
+                text(EventStream.frame(7, "sensor/motion", "{\"value\":true}")));
+        assertEquals("id: 8\nevent: state\ndata: a\ndata: b\n\n", text(EventStream.frame(8, "state", "a\nb")));
+
+        EventStream events = new EventStream(8, 100);
+        FakeConnection first = new FakeConnection(true);
+        FakeConnection second = new FakeConnection(true);
+        events.subscribe(first, null);
+        events.subscribe(second, null);
+        assertEquals(100, events.publish("state", "{}"));
+        assertEquals(1, first.sent.size());
+        assertEquals("id: 100\nevent: state\ndata: {}\n\n", text(first.sent.get(0)));
+        assertEquals(text(first.sent.get(0)), text(second.sent.get(0)));
+    }
+
+    @Test
+    public void busySubscriberCatchesUpInOneWrite() {
+        EventStream events = new EventStream(4, 1);
+        FakeConnection slow = new FakeConnection(false);
+        FakeConnection fast = new FakeConnection(true);
+        EventStream.Subscriber subscriber = events.subscribe(slow, null);
+        events.subscribe(fast, null);
+
+        for (int i = 1; i <= 7; i++) {
+            events.publish("qr", String.valueOf(i));
+        }
+        assertEquals(7, fast.sent.size());
+        // Event 1 is still being written, 2 and 3 have left the ring
+        assertEquals(1, slow.writes);
+        subscriber.onSent();
+        assertEquals(2, slow.writes);
+        assertEquals(5, slow.sent.size());
+        assertEquals("id: 4\nevent: qr\ndata: 4\n\n", text(slow.sent.get(1)));
+        assertEquals(2, subscriber.getMissed());
+        subscriber.onSent();
+        assertEquals(5, subscriber.getSent());
+        assertEquals(2, slow.writes);
+    }
+
+    @Test
+    public void resumesFromLastEventId() {
+        EventStream events = new EventStream(4, 10);
+        for (int i = 0; i < 6; i++) {
+            events.publish("face", String.valueOf(i));
+        }
+        assertEquals(15, events.getLastId());
+
+        FakeConnection resumed = new FakeConnection(true);
+        events.subscribe(resumed, "13");
+        assertEquals(2, resumed.sent.size());
+        assertTrue(text(resumed.sent.get(0)).startsWith("id: 14\n"));
+
+        // Too far back, gets what the ring still has
+        FakeConnection behind = new FakeConnection(true);
+        EventStream.Subscriber subscriber = events.subscribe(behind, "3");
+        assertEquals(4, behind.sent.size());
+        assertTrue(text(behind.sent.get(0)).startsWith("id: 12\n"));
+        assertEquals(2, subscriber.getMissed());
+
+        // From a future or unknown id, only new events
+        FakeConnection fresh = new FakeConnection(true);
+        events.subscribe(fresh, "99");
+        events.subscribe(new FakeConnection(true), "nonsense");
+        assertEquals(0, fresh.sent.size());
+        events.publish("face", "new");
+        assertEquals(1, fresh.sent.size());
+    }
+
+    @Test
+    public void pingsIdleSubscribersAndRemovesOnce() {
+        EventStream events = new EventStream(4, 1);
+        FakeConnection idle = new FakeConnection(true);
+        EventStream.Subscriber subscriber = events.subscribe(idle, null);
+        events.ping();
+        assertEquals(1, idle.sent.size());
+        assertEquals(":\n\n", text(idle.sent.get(0)));
+        assertEquals(0, subscriber.getSent());
+
+        events.remove(subscriber);
+        subscriber.remove();
+        assertEquals(1, idle.closes);
+        events.publish("state", "{}");
+        assertEquals(1, idle.sent.size());
+        assertEquals(0, events.getSubscribers().size());
+    }
+
+    private static String text(ByteBuffer buffer) {
+        ByteBuffer copy = buffer.duplicate();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        return new String(bytes, HttpRequest.UTF_8);
+    }
+
+    private static class FakeConnection implements EventStream.Connection {
+
+        final boolean immediate;
+        final List<ByteBuffer> sent = new ArrayList<>();
+        int writes;
+        int closes;
+
+        FakeConnection(boolean immediate) {
+            this.immediate = immediate;
+        }
+
+        @Override
+        public void send(EventStream.Subscriber subscriber, ByteBuffer[] events) {
+            writes++;
+            for (ByteBuffer event : events) {
+                sent.add(event);
+            }
+            if (immediate) {
+                subscriber.onSent();
+            }
+        }
+
+        @Override
+        public void close() {
+            closes++;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpServerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void answersWithUtf8() throws Exception {
+        HttpServer server = new HttpServer();
+        server.addAction("GET", "/echo", new HttpServer.Handler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response) {
+                response.send("Hallo " + request.getQuery("name"));
+            }
+        });
+        server.addAction("POST", "/echo", new HttpServer.Handler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response) {
+                response.send("application/json", request.getBodyString());
+            }
+        });
+        server.listen(0);
+        try (Socket socket = connect(server)) {
+            send(socket, "GET /echo?name=J%C3%BCrgen HTTP/1.1\r\nHost: test\r\n\r\n");
+            Response response = read(socket);
+            assertEquals(200, response.code);
+            assertEquals("Hallo Jürgen", response.body);
+            assertEquals("text/plain; charset=utf-8", response.headers.get("content-type"));
+
+            byte[] json = "{\"speak\":\"Grüße\"}".getBytes(UTF_8);
+            send(socket, "POST /echo HTTP/1.1\r\nContent-Length: " + json.length + "\r\n\r\n");
+            socket.getOutputStream().write(json);
+            response = read(socket);
+            assertEquals("{\"speak\":\"Grüße\"}", response.body);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void survivesFailingServerTask() throws Exception {
+        final List<String> errors = new ArrayList<>();
+        HttpServer server = new HttpServer();
+        server.setErrorListener(new HttpServer.ErrorListener() {
+            @Override
+            public void onError(String message, Throwable e) {
+                synchronized (errors) {
+                    errors.add(message + ": " + e.getMessage());
+                }
+            }
+        });
+        server.addAction("GET", "/ping", new HttpServer.Handler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response) {
+                response.send("pong");
+            }
+        });
+        server.listen(0);
+        try (Socket socket = connect(server)) {
+            send(socket, "GET /ping HTTP/1.1\r\n\r\n");
+            assertEquals("pong", read(socket).body);
+            server.post(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("broken");
+                }
+            });
+            // The server thread is still there for this connection and new ones
+            send(socket, "GET /ping HTTP/1.1\r\n\r\n");
+            assertEquals("pong", read(socket).body);
+            try (Socket another = connect(server)) {
+                send(another, "GET /ping HTTP/1.1\r\n\r\n");
+                assertEquals("pong", read(another).body);
+            }
+            synchronized (errors) {
+                assertEquals(Arrays.asList("Server task failed: broken"), errors);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void keepsConnectionsAlive() throws Exception {
+        HttpServer server = new HttpServer();
+        server.addAction("GET", HttpServer.ANY, new HttpServer.Handler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response) {
+                response.send(request.getPath());
+            }
+        });
+        server.listen(0);
+        try (Socket socket = connect(server)) {
+            // Pipelined, answered in order on the one connection
+            send(socket, "GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n");
+            assertEquals("/a", read(socket).body);
+            assertEquals("/b", read(socket).body);
+            send(socket, "GET /c HTTP/1.1\r\nConnection: close\r\n\r\n");
+            Response last = read(socket);
+            assertEquals("/c", last.body);
+            assertEquals("close", last.headers.get("connection"));
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void refusesOversizedRequests() throws Exception {
+        HttpServer server = new HttpServer(1, 256, 16, 1000);
+        server.addAction(HttpServer.ANY, HttpServer.ANY, new HttpServer.Handler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response) {
+                response.send("ok");
+            }
+        });
+        server.listen(0);
+        try {
+            try (Socket socket = connect(server)) {
+                send(socket, "POST /api/command HTTP/1.1\r\nContent-Length: 17\r\n\r\n");
+                assertEquals(413, read(socket).code);
+                assertEquals(-1, socket.getInputStream().read());
+            }
+            try (Socket socket = connect(server)) {
+                StringBuilder header = new StringBuilder();
+                while (header.length() < 300) {
+                    header.append("x");
+                }
+                send(socket, "GET / HTTP/1.1\r\nX-Long: " + header + "\r\n\r\n");
+                assertEquals(431, read(socket).code);
+            }
+            try (Socket socket = connect(server)) {
+                send(socket, "GET /missing%zz?x=%zz HTTP/1.1\r\n\r\n");
+                assertEquals(400, read(socket).code);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void slowHandlerOnlyHoldsUpItsOwnRequest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = new HttpServer();
+        server.addAction("GET", "/slow", new HttpServer.Handler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response) throws Exception {
+                release.await(5, TimeUnit.SECONDS);
+                response.send("slow");
+            }
+        });
+        server.addAction("GET", "/fast", new HttpServer.Handler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response) {
+                response.send("fast");
+            }
+        });
+        server.listen(0);
+        try (Socket slow = connect(server); Socket fast = connect(server)) {
+            send(slow, "GET /slow HTTP/1.1\r\n\r\n");
+            send(fast, "GET /fast HTTP/1.1\r\n\r\n");
+            assertEquals("fast", read(fast).body);
+            release.countDown();
+            assertEquals("slow", read(slow).body);
+
+            send(fast, "GET /nothing HTTP/1.1\r\n\r\n");
+            assertEquals(404, read(fast).code);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void streamsUntilEnded() throws Exception {
+        final CountDownLatch written = new CountDownLatch(3);
+        HttpServer server = new HttpServer();
+        server.addAction("GET", "/stream", new HttpServer.Handler() {
+            @Override
+            public void handle(HttpRequest request, final HttpResponse response) {
+                response.setContentType("text/plain");
+                response.writeHead();
+                HttpResponse.WriteCallback callback = new HttpResponse.WriteCallback() {
+                    @Override
+                    public void onWritten(IOException error) {
+                        if (error == null) {
+                            written.countDown();
+                        }
+                    }
+                };
+                for (int i = 0; i < 3; i++) {
+                    response.write(new ByteBuffer[] { ascii("part" + i), ascii(":"), ascii("\n") }, callback);
+                }
+                response.end();
+            }
+        });
+        server.listen(0);
+        try (Socket socket = connect(server)) {
+            send(socket, "GET /stream HTTP/1.1\r\n\r\n");
+            Response response = read(socket);
+            assertEquals(200, response.code);
+            assertTrue(!response.headers.containsKey("content-length"));
+            assertEquals("part0:\npart1:\npart2:\n", response.body);
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(UTF_8));
+    }
+
+    private static Socket connect(HttpServer server) throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes(UTF_8));
+        out.flush();
+    }
+
+    private static class Response {
+
+        int code;
+        final Map<String, String> headers = new TreeMap<>();
+        String body;
+    }
+
+    // Reads one response, by its Content-Length or up to the end of the stream
+    private static Response read(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        Response response = new Response();
+        String status = line(in);
+        response.code = Integer.parseInt(status.split(" ")[1]);
+        String header;
+        while (!(header = line(in)).isEmpty()) {
+            int colon = header.indexOf(':');
+            response.headers.put(header.substring(0, colon).trim().toLowerCase(Locale.US), header.substring(colon + 1).trim());
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String length = response.headers.get("content-length");
+        if (length != null) {
+            for (int i = Integer.parseInt(length); i > 0; i--) {
+                body.write(in.read());
+            }
+        } else {
+            int b;
+            while ((b = in.read()) != -1) {
+                body.write(b);
+            }
+        }
+        response.body = new String(body.toByteArray(), UTF_8);
+        return response;
+    }
+
+    private static String line(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Connection closed");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
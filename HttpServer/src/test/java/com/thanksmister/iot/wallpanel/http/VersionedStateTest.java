@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.http;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VersionedStateTest {
+
+    @Test
+    public void versionOnlyMovesOnChange() {
+        VersionedState state = new VersionedState(0);
+        assertTrue(state.set("screenOn", true));
+        assertTrue(state.set("currentUrl", "http://panel/\"home\""));
+        VersionedState.Snapshot snapshot = state.getSnapshot();
+        assertEquals(2, snapshot.getVersion());
+        assertEquals("{\"screenOn\":true,\"currentUrl\":\"http://panel/\\\"home\\\"\"}", snapshot.getJson());
+
+        assertTrue(!state.set("screenOn", true));
+        assertTrue(state.getSnapshot() == snapshot);
+        assertTrue(snapshot.matches("\"2\""));
+        assertTrue(!snapshot.matches("\"1\""));
+
+        assertTrue(state.set("brightness", 128));
+        assertTrue(state.set("brightness", null));
+        assertEquals(4, state.getVersion());
+        assertEquals("{\"screenOn\":true,\"currentUrl\":\"http://panel/\\\"home\\\"\"}", state.getSnapshot().getJson());
+    }
+
+    @Test
+    public void restartDoesNotRepeatVersions() {
+        VersionedState before = new VersionedState(1000);
+        before.set("screenOn", true);
+        assertEquals("\"1001\"", before.getSnapshot().getETag());
+        // Same state after a restart, but the client must not be told nothing changed
+        VersionedState after = new VersionedState(5000);
+        after.set("screenOn", true);
+        assertTrue(!after.getSnapshot().matches(before.getSnapshot().getETag()));
+        assertTrue(after.getVersion() > before.getVersion());
+    }
+
+    @Test
+    public void waitsForNextVersion() {
+        VersionedState state = new VersionedState(0);
+        state.set("camera", false);
+        final List<Long> seen = new ArrayList<>();
+        VersionedState.Callback callback = new VersionedState.Callback() {
+            @Override
+            public void onState(VersionedState.Snapshot snapshot) {
+                seen.add(snapshot.getVersion());
+            }
+        };
+        // Already past version 0, answered straight away
+        assertTrue(!state.await(0, callback));
+        assertTrue(state.await(1, callback));
+        state.set("camera", false);
+        assertEquals(0, seen.size());
+        state.set("camera", true);
+        assertEquals(1, seen.size());
+        assertEquals(2L, (long) seen.get(0));
+
+        assertTrue(state.await(2, callback));
+        assertTrue(state.cancel(callback));
+        state.set("camera", false);
+        assertEquals(1, seen.size());
+    }
+}
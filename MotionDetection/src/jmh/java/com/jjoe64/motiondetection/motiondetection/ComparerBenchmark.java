@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grid comparison of two frames, on the calling thread and in stripes.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparerBenchmark {
+
+    @Param({ "160x120", "320x240", "640x480", "1280x720", "1920x1080" })
+    public String resolution;
+
+    @Param({ "10", "32" })
+    public int grid;
+
+    @Param({ Frames.SYNTHETIC })
+    public String source;
+
+    private State[] states;
+    private int index;
+    private Comparer sequential;
+    private Comparer striped;
+    private StripeExecutor executor;
+
+    @Setup
+    public void setUp() throws IOException {
+        int width = Frames.width(resolution);
+        int height = Frames.height(resolution);
+        int[][] luma = Frames.luma(Frames.load(source, resolution), width, height);
+        states = new State[luma.length];
+        for (int i = 0; i < luma.length; i++) {
+            states[i] = new State(luma[i], width, height);
+        }
+        sequential = new Comparer(grid, grid, 20, 0);
+        striped = new Comparer(grid, grid, 20, 0);
+        executor = new StripeExecutor(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        striped.setExecutor(executor);
+        // Stripe at every size so the cut-over point can be read off the results
+        striped.setStripeMinPixels(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public boolean compare() {
+        State previous = states[index];
+        index = (index + 1) % states.length;
+        return sequential.compare(states[index], previous);
+    }
+
+    @Benchmark
+    public boolean compareStriped() {
+        State previous = states[index];
+        index = (index + 1) % states.length;
+        return striped.compare(states[index], previous);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end cost of one frame, NV21 bytes in and a motion decision out,
+ * the same path the app's MotionDetector takes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DetectBenchmark {
+
+    @Param({ MotionEngines.AGGREGATE_LUMA, MotionEngines.INTEGRAL_IMAGE, MotionEngines.BACKGROUND_MODEL })
+    public String engine;
+
+    @Param({ "640x480", "1280x720", "1920x1080" })
+    public String resolution;
+
+    @Param({ "10", "32" })
+    public int grid;
+
+    @Param({ "1", "4" })
+    public int downsample;
+
+    @Param({ Frames.SYNTHETIC })
+    public String source;
+
+    private byte[][] frames;
+    private int width;
+    private int height;
+    private int index;
+    private LumaPlane plane;
+    private IMotionDetection detection;
+
+    @Setup
+    public void setUp() throws IOException {
+        frames = Frames.load(source, resolution);
+        width = Frames.width(resolution);
+        height = Frames.height(resolution);
+        plane = new LumaPlane(downsample, LumaPlane.MODE_STRIDE);
+        detection = MotionEngines.create(engine, grid, 20, null);
+    }
+
+    @Benchmark
+    public boolean detect() {
+        index = (index + 1) % frames.length;
+        int[] luma = plane.sample(frames[index], width, height);
+        return detection.detect(luma, plane.getWidth(), plane.getHeight());
+    }
+}
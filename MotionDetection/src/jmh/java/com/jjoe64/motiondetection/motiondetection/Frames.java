@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * NV21 frames for the benchmarks, either generated or read from a recording.
+ */
+final class Frames {
+
+    /** Benchmark parameter value for generated frames. */
+    static final String SYNTHETIC = "synthetic";
+
+    private static final int SYNTHETIC_FRAMES = 16;
+
+    private Frames() {
+    }
+
+    /**
+     * @param source
+     *            {@link #SYNTHETIC} or the path of a capture file, see
+     *            {@link CaptureFormat}.
+     * @param resolution
+     *            Frame size as WIDTHxHEIGHT.
+     */
+    static byte[][] load(String source, String resolution) throws IOException {
+        int width = width(resolution);
+        int height = height(resolution);
+        if (SYNTHETIC.equals(source)) return synthetic(width, height, SYNTHETIC_FRAMES);
+        return recorded(new File(source), width, height);
+    }
+
+    static int width(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    static int height(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    /**
+     * Noisy gradient with a bright square moving across it, so every frame
+     * pair contains some motion and some sensor noise.
+     */
+    static byte[][] synthetic(int width, int height, int count) {
+        Random random = new Random(42);
+        int size = Math.max(8, Math.min(width, height) / 6);
+        byte[][] frames = new byte[count][width * height * 3 / 2];
+        for (int f = 0; f < count; f++) {
+            byte[] yuv = frames[f];
+            int left = (f * (width - size)) / count;
+            int top = (height - size) / 2;
+            for (int y = 0, xy = 0; y < height; y++) {
+                for (int x = 0; x < width; x++, xy++) {
+                    int luma = 40 + (x + y) * 120 / (width + height) + random.nextInt(5);
+                    if (x >= left && x < left + size && y >= top && y < top + size) luma = 220;
+                    yuv[xy] = (byte) luma;
+                }
+            }
+            for (int i = width * height; i < yuv.length; i++) {
+                yuv[i] = (byte) 128;
+            }
+        }
+        return frames;
+    }
+
+    private static byte[][] recorded(File file, int width, int height) throws IOException {
+        try (CaptureReader reader = new CaptureReader(file)) {
+            if (reader.getWidth() != width || reader.getHeight() != height) {
+                throw new IOException(file + " holds " + reader.getWidth() + "x" + reader.getHeight() + " frames");
+            }
+            List<byte[]> frames = new ArrayList<>();
+            while (reader.next()) {
+                frames.add(reader.getFrame().clone());
+            }
+            if (frames.isEmpty()) throw new IOException("No frames in " + file);
+            return frames.toArray(new byte[frames.size()][]);
+        }
+    }
+
+    /**
+     * Decode every frame to a full resolution Luma plane.
+     */
+    static int[][] luma(byte[][] frames, int width, int height) {
+        int[][] luma = new int[frames.length][];
+        for (int i = 0; i < frames.length; i++) {
+            luma[i] = ImageProcessing.decodeYUV420SPtoLuma(frames[i], width, height);
+        }
+        return luma;
+    }
+}
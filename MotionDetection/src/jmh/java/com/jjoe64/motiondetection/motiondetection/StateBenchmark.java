@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a {@link State} for every frame against re-using one.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateBenchmark {
+
+    @Param({ "160x120", "640x480", "1280x720" })
+    public String resolution;
+
+    @Param({ Frames.SYNTHETIC })
+    public String source;
+
+    private int[][] luma;
+    private int width;
+    private int height;
+    private int index;
+    private State state;
+
+    @Setup
+    public void setUp() throws IOException {
+        width = Frames.width(resolution);
+        height = Frames.height(resolution);
+        luma = Frames.luma(Frames.load(source, resolution), width, height);
+        state = new State(luma[0], width, height);
+    }
+
+    private int[] next() {
+        index = (index + 1) % luma.length;
+        return luma[index];
+    }
+
+    @Benchmark
+    public State construct() {
+        return new State(next(), width, height);
+    }
+
+    @Benchmark
+    public State reuse() {
+        state.set(next(), width, height);
+        return state;
+    }
+}
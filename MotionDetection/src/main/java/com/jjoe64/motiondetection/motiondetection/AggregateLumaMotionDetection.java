@@ -0,0 +1,162 @@
+
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+//import android.util.Log;
+
+public class AggregateLumaMotionDetection implements IMotionDetection {
+
+    // private static final String TAG = "AggregateLumaMotionDetection";
+
+    // Specific settings
+    private int mLeniency = 20; // Difference of aggregate map of
+    // luma values
+    private static final int mDebugMode = 2; // State based debug
+    private int mXBoxes = 10; // State based debug
+    private int mYBoxes = 10; // State based debug
+
+    // All frame state belongs to the instance so several detectors can run
+    // side by side without sharing their previous frames.
+    private int mPreviousWidth;
+    private int mPreviousHeight;
+    // The previous and current frame are double buffered, after each
+    // comparison the States are swapped rather than re-created.
+    private State mPreviousState = null;
+    private State mCurrentState = null;
+    private Comparer mComparer = null;
+    private MotionMask mMask = null;
+    private StripeExecutor mExecutor = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getPrevious() {
+        return ((mPreviousState != null) ? mPreviousState.getMap().clone() : null);
+    }
+
+    protected boolean isDifferent(int[] first, int width, int height) {
+        if (first == null) throw new NullPointerException();
+
+        if (mPreviousState == null) return false;
+        if (first.length != mPreviousState.getMap().length) return true;
+        if (mPreviousWidth != width || mPreviousHeight != height) return true;
+
+        if (mCurrentState == null) {
+            mCurrentState = new State(first, width, height);
+        } else {
+            mCurrentState.set(first, width, height);
+        }
+        if (mComparer == null) {
+            mComparer = new Comparer(mXBoxes, mYBoxes, mLeniency, mDebugMode);
+            mComparer.setMask(mMask);
+            mComparer.setExecutor(mExecutor);
+        }
+
+        boolean different = mComparer.compare(mCurrentState, mPreviousState);
+        // String output = "isDifferent="+different;
+
+        // Swap the buffers, the current frame becomes the previous one.
+        State swap = mPreviousState;
+        mPreviousState = mCurrentState;
+        mCurrentState = swap;
+
+        return different;
+    }
+
+    /**
+     * Detect motion using aggregate luma values. {@inheritDoc}
+     */
+    @Override
+    public boolean detect(int[] luma, int width, int height) {
+        if (luma == null) throw new NullPointerException();
+
+        // Create the "mPreviousState" picture, the one that will be used to
+        // check the next frame against.
+        if (mPreviousState == null) {
+            mPreviousState = new State(luma, width, height);
+            mPreviousWidth = width;
+            mPreviousHeight = height;
+            // Log.i(TAG, "Creating background image");
+            return false;
+        }
+
+        // long bDetection = System.currentTimeMillis();
+        boolean motionDetected = isDifferent(luma, width, height);
+        // long aDetection = System.currentTimeMillis();
+        // Log.d(TAG, "Detection "+(aDetection-bDetection));
+
+        // A size change can not be compared, start again from this frame.
+        if (mPreviousWidth != width || mPreviousHeight != height) {
+            mPreviousState.set(luma, width, height);
+            mPreviousWidth = width;
+            mPreviousHeight = height;
+        }
+
+        return motionDetected;
+    }
+
+    public void setLeniency(int l) {
+        mLeniency = l;
+        if (mComparer != null) mComparer.setLeniency(l);
+    }
+
+    /**
+     * Set the number of boxes the image is divided into.
+     *
+     * @param xBoxes
+     *            Number of boxes across the image.
+     * @param yBoxes
+     *            Number of boxes down the image.
+     */
+    public void setGrid(int xBoxes, int yBoxes) {
+        if (xBoxes <= 0 || yBoxes <= 0) throw new IllegalArgumentException("Grid must have at least one box");
+        mXBoxes = xBoxes;
+        mYBoxes = yBoxes;
+        clear();
+    }
+
+    /**
+     * Set the region of interest mask.
+     *
+     * @param mask
+     *            MotionMask or NULL to compare every box.
+     */
+    public void setMask(MotionMask mask) {
+        mMask = mask;
+        if (mComparer != null) mComparer.setMask(mask);
+    }
+
+    /**
+     * Compare frames of {@link Comparer#STRIPE_MIN_PIXELS} or more in stripes on
+     * the given pool.
+     *
+     * @param executor
+     *            StripeExecutor or NULL to compare on the detector thread.
+     */
+    public void setExecutor(StripeExecutor executor) {
+        mExecutor = executor;
+        if (mComparer != null) mComparer.setExecutor(executor);
+    }
+
+    public void clear(){
+        mPreviousState = null;
+        mCurrentState = null;
+        mComparer = null;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Motion detection against a running background model instead of the
+ * previous frame. Every grid cell keeps an exponentially weighted mean and
+ * variance of its average luma, so slow lighting drift is absorbed into the
+ * background and sensor noise sets its own threshold. A cell is flagged when
+ * it moves more than k standard deviations away from its background, and
+ * motion is only reported when cells were flagged in K of the last N frames.
+ */
+public class BackgroundModelMotionDetection implements IMotionDetection {
+
+    private int mLeniency = 5; // Minimum difference of average luma per cell
+    private int mXBoxes = 10;
+    private int mYBoxes = 10;
+    private float mAlpha = 0.05f; // Background learning rate
+    private float mSigmas = 3f; // k, standard deviations before a cell is flagged
+    private int mFramesRequired = 2; // K
+    private int mFrameWindow = 3; // N
+
+    private final IntegralImage mIntegralImage = new IntegralImage();
+    private int[] mCells = null;
+    private float[] mMean = null;
+    private float[] mVariance = null;
+    private boolean[] mHistory = null;
+    private int mHistoryIndex;
+    private int mHistoryCount;
+    private int mFrames;
+    private int mWidth;
+    private int mHeight;
+    private MotionMask mMask = null;
+    private int[] mCellMask = null; // mask value per cell, null without a mask
+
+    /**
+     * Background average luma of each cell, row major.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getPrevious() {
+        if (mMean == null) return null;
+        int[] background = new int[mMean.length];
+        for (int i = 0; i < mMean.length; i++) {
+            background[i] = (int) mMean[i];
+        }
+        return background;
+    }
+
+    /**
+     * Detect motion against the background model. {@inheritDoc}
+     */
+    @Override
+    public boolean detect(int[] luma, int width, int height) {
+        if (luma == null) throw new NullPointerException();
+
+        int xBoxes = Math.min(mXBoxes, width);
+        int yBoxes = Math.min(mYBoxes, height);
+        int cells = xBoxes * yBoxes;
+
+        mIntegralImage.compute(luma, width, height);
+        if (mMean == null || mMean.length != cells || mWidth != width || mHeight != height) {
+            reset(cells, width, height);
+        }
+        if (mMask != null && mCellMask == null) {
+            mCellMask = new int[cells];
+            mMask.resolve(xBoxes, yBoxes, MotionMask.DEFAULT, mCellMask);
+        }
+        mIntegralImage.cellAverages(xBoxes, yBoxes, mCells);
+
+        if (mFrames == 0) {
+            float floor = mLeniency * mLeniency;
+            for (int i = 0; i < cells; i++) {
+                mMean[i] = mCells[i];
+                mVariance[i] = floor;
+            }
+            mFrames++;
+            return false;
+        }
+
+        boolean flagged = false;
+        float slowAlpha = mAlpha * 0.1f;
+        for (int i = 0; i < cells; i++) {
+            int leniency = mLeniency;
+            if (mCellMask != null) {
+                if (mCellMask[i] == MotionMask.EXCLUDED) continue;
+                if (mCellMask[i] != MotionMask.DEFAULT) leniency = mCellMask[i];
+            }
+            float diff = mCells[i] - mMean[i];
+            float absDiff = Math.abs(diff);
+            float threshold = mSigmas * (float) Math.sqrt(mVariance[i]);
+            boolean foreground = absDiff > leniency && absDiff > threshold;
+            if (foreground) flagged = true;
+
+            // Foreground cells are learnt slowly so an object that stops moving
+            // eventually becomes part of the background.
+            float alpha = foreground ? slowAlpha : mAlpha;
+            mMean[i] += alpha * diff;
+            mVariance[i] = (1 - alpha) * (mVariance[i] + alpha * diff * diff);
+        }
+
+        // Let the model settle for a full window before reporting anything
+        if (mFrames < mFrameWindow) {
+            mFrames++;
+            flagged = false;
+        }
+
+        return record(flagged);
+    }
+
+    private boolean record(boolean flagged) {
+        if (mHistory[mHistoryIndex]) mHistoryCount--;
+        mHistory[mHistoryIndex] = flagged;
+        if (flagged) mHistoryCount++;
+        mHistoryIndex = (mHistoryIndex + 1) % mHistory.length;
+        return mHistoryCount >= mFramesRequired;
+    }
+
+    private void reset(int cells, int width, int height) {
+        mCells = new int[cells];
+        mMean = new float[cells];
+        mVariance = new float[cells];
+        mHistory = new boolean[mFrameWindow];
+        mHistoryIndex = 0;
+        mHistoryCount = 0;
+        mFrames = 0;
+        mWidth = width;
+        mHeight = height;
+        mCellMask = null;
+    }
+
+    /**
+     * Minimum change of a cell average before it can be flagged, regardless
+     * of how quiet the cell has been.
+     */
+    public void setLeniency(int l) {
+        mLeniency = l;
+    }
+
+    /**
+     * Set the number of cells the image is divided into.
+     *
+     * @param xBoxes
+     *            Number of cells across the image.
+     * @param yBoxes
+     *            Number of cells down the image.
+     */
+    public void setGrid(int xBoxes, int yBoxes) {
+        if (xBoxes <= 0 || yBoxes <= 0) throw new IllegalArgumentException("Grid must have at least one cell");
+        mXBoxes = xBoxes;
+        mYBoxes = yBoxes;
+        clear();
+    }
+
+    /**
+     * @param alpha
+     *            Weight of each new frame in the background, between 0 and 1.
+     */
+    public void setLearningRate(float alpha) {
+        if (alpha <= 0 || alpha > 1) throw new IllegalArgumentException("Learning rate must be in (0, 1]");
+        mAlpha = alpha;
+    }
+
+    /**
+     * @param sigmas
+     *            Number of standard deviations a cell has to move from its
+     *            background before it is flagged.
+     */
+    public void setSigmas(float sigmas) {
+        mSigmas = sigmas;
+    }
+
+    /**
+     * Only report motion when cells were flagged in framesRequired of the
+     * last frameWindow frames.
+     */
+    public void setPersistence(int framesRequired, int frameWindow) {
+        if (framesRequired <= 0 || frameWindow < framesRequired) {
+            throw new IllegalArgumentException("Need 0 < framesRequired <= frameWindow");
+        }
+        mFramesRequired = framesRequired;
+        mFrameWindow = frameWindow;
+        clear();
+    }
+
+    /**
+     * Set the region of interest mask.
+     *
+     * @param mask
+     *            MotionMask or NULL to model every cell.
+     */
+    public void setMask(MotionMask mask) {
+        mMask = mask;
+        mCellMask = null;
+    }
+
+    public void clear() {
+        mMean = null;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Layout of a frame capture file, all values big endian:
+ *
+ * <pre>
+ * int    magic           'WPCF'
+ * int    version         1
+ * int    width
+ * int    height
+ * int    metadata length
+ * byte[] metadata        java.util.Properties, ISO 8859-1
+ * frames, each:
+ *   long   timestamp     milliseconds
+ *   int    length        width * height * 3 / 2
+ *   byte[] frame         NV21
+ * </pre>
+ *
+ * A capture cut short by the app being stopped simply ends after its last
+ * complete frame.
+ */
+public final class CaptureFormat {
+
+    public static final int MAGIC = 0x57504346;
+    public static final int VERSION = 1;
+
+    /** Size of the fixed part of the header, before the metadata. */
+    public static final int HEADER_SIZE = 5 * 4;
+    /** Size of the header in front of every frame. */
+    public static final int FRAME_HEADER_SIZE = 8 + 4;
+
+    public static final String KEY_DEVICE = "device";
+    public static final String KEY_ORIENTATION = "orientation";
+    public static final String KEY_FPS = "fps";
+    public static final String KEY_DETECTION = "detection";
+    public static final String KEY_LENIENCY = "leniency";
+    public static final String KEY_MIN_LUMA = "minLuma";
+    public static final String KEY_GRID = "grid";
+    public static final String KEY_DOWNSAMPLE = "downsample";
+    /** Motion mask as rows separated by ';' of zones separated by ',', see {@link #formatMask(MotionMask)}. */
+    public static final String KEY_MASK = "mask";
+
+    private CaptureFormat() {
+    }
+
+    /**
+     * Write a mask the way it is kept in the metadata, for example
+     * "-1,0;0,40" for a 2x2 mask.
+     */
+    public static String formatMask(MotionMask mask) {
+        StringBuilder out = new StringBuilder();
+        for (int[] row : mask.toRows()) {
+            if (out.length() > 0) out.append(';');
+            for (int x = 0; x < row.length; x++) {
+                if (x > 0) out.append(',');
+                out.append(row[x]);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Read a mask written by {@link #formatMask(MotionMask)}.
+     *
+     * @return MotionMask or NULL for an empty value.
+     * @throws IllegalArgumentException
+     *             if the value is not a valid mask.
+     */
+    public static MotionMask parseMask(String value) {
+        if (value == null || value.trim().isEmpty()) return null;
+        String[] rows = value.trim().split(";");
+        int[][] zones = new int[rows.length][];
+        for (int y = 0; y < rows.length; y++) {
+            String[] row = rows[y].split(",");
+            zones[y] = new int[row.length];
+            for (int x = 0; x < row.length; x++) {
+                try {
+                    zones[y][x] = Integer.parseInt(row[x].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid mask " + value);
+                }
+            }
+        }
+        return new MotionMask(zones);
+    }
+
+    /**
+     * Size of an NV21 frame.
+     *
+     * @return int representing the number of bytes of a width x height frame.
+     */
+    public static int frameSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+
+/**
+ * Reads a capture file, see {@link CaptureFormat}. The file is memory mapped
+ * and every frame is copied into one re-used buffer, so replaying a capture
+ * costs no more than a copy per frame.
+ */
+public class CaptureReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final Properties metadata = new Properties();
+    private final int firstFrame;
+    private final int frameCount;
+    private final byte[] frame;
+    private long timestamp;
+
+    public CaptureReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = this.file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Capture is too large to map: " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < CaptureFormat.HEADER_SIZE || buffer.getInt() != CaptureFormat.MAGIC) {
+                throw new IOException("Not a capture file: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != CaptureFormat.VERSION) throw new IOException("Unsupported capture version " + version);
+            width = buffer.getInt();
+            height = buffer.getInt();
+            int metadataLength = buffer.getInt();
+            if (width <= 0 || height <= 0 || metadataLength < 0 || metadataLength > buffer.remaining()) {
+                throw new IOException("Corrupt capture header: " + file);
+            }
+            byte[] properties = new byte[metadataLength];
+            buffer.get(properties);
+            metadata.load(new ByteArrayInputStream(properties));
+
+            firstFrame = buffer.position();
+            frameCount = countFrames();
+            frame = new byte[CaptureFormat.frameSize(width, height)];
+            rewind();
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    // Walks the frame headers, a truncated last frame is not counted
+    private int countFrames() throws IOException {
+        int count = 0;
+        int frameSize = CaptureFormat.frameSize(width, height);
+        while (buffer.remaining() >= CaptureFormat.FRAME_HEADER_SIZE) {
+            buffer.getLong();
+            int length = buffer.getInt();
+            if (length != frameSize) throw new IOException("Corrupt frame " + count + " of length " + length);
+            if (buffer.remaining() < length) break;
+            buffer.position(buffer.position() + length);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Move to the next frame.
+     *
+     * @return False at the end of the capture.
+     */
+    public boolean next() {
+        if (buffer.remaining() < CaptureFormat.FRAME_HEADER_SIZE + frame.length) return false;
+        timestamp = buffer.getLong();
+        buffer.getInt();
+        buffer.get(frame);
+        return true;
+    }
+
+    /**
+     * Go back to the first frame.
+     */
+    public void rewind() {
+        buffer.position(firstFrame);
+        timestamp = 0;
+    }
+
+    /**
+     * Get the current frame.
+     *
+     * @return NV21 bytes of the frame, valid until the next call to
+     *         {@link #next()}.
+     */
+    public byte[] getFrame() {
+        return frame;
+    }
+
+    /**
+     * Get the timestamp of the current frame.
+     *
+     * @return long representing the capture time in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public Properties getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
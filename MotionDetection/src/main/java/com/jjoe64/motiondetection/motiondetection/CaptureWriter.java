@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Writes NV21 frames to a capture file, see {@link CaptureFormat}.
+ */
+public class CaptureWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final int frameSize;
+    private final int maxFrames;
+    private int frames = 0;
+    private boolean closed = false;
+
+    /**
+     * @param file
+     *            Capture file, replaced if it exists.
+     * @param metadata
+     *            Properties stored in the header, may be NULL.
+     * @param maxFrames
+     *            Number of frames after which the capture closes itself.
+     */
+    public CaptureWriter(File file, int width, int height, Properties metadata, int maxFrames) throws IOException {
+        if (file == null) throw new NullPointerException();
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        if (maxFrames <= 0) throw new IllegalArgumentException("Capture needs at least one frame");
+
+        this.width = width;
+        this.height = height;
+        this.frameSize = CaptureFormat.frameSize(width, height);
+        this.maxFrames = maxFrames;
+
+        ByteArrayOutputStream properties = new ByteArrayOutputStream();
+        if (metadata != null) metadata.store(properties, null);
+
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(CaptureFormat.MAGIC);
+            out.writeInt(CaptureFormat.VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(properties.size());
+            properties.writeTo(out);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Append a frame, frames of another size are skipped.
+     *
+     * @param nv21
+     *            Frame, only the first width * height * 3 / 2 bytes are
+     *            written.
+     * @return True while the capture wants more frames.
+     */
+    public synchronized boolean write(byte[] nv21, int width, int height, long timestamp) throws IOException {
+        if (nv21 == null) throw new NullPointerException();
+        if (closed) return false;
+        if (width != this.width || height != this.height || nv21.length < frameSize) return true;
+
+        out.writeLong(timestamp);
+        out.writeInt(frameSize);
+        out.write(nv21, 0, frameSize);
+        frames++;
+        if (frames >= maxFrames) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized int getFrameCount() {
+        return frames;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        out.close();
+    }
+}
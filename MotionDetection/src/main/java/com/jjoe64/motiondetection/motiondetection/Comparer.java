@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+
+public class Comparer {
+
+    // Frames with fewer pixels than this are compared on the calling thread,
+    // below it the hand-off to the stripe pool costs more than it saves. The
+    // default 160x120 motion plane compares in tens of microseconds, about
+    // what waking the pool takes, so striping starts at 320x240.
+    public static final int STRIPE_MIN_PIXELS = 320 * 240;
+    // Opaque red as an ARGB int, the colour changed boxes are painted with.
+    private static final int PAINT_COLOR = 0xFFFF0000;
+
+    private State state1 = null;
+    private State state2 = null;
+    private int requestedXBoxes;
+    private int requestedYBoxes;
+    private int width = -1;
+    private int height = -1;
+    private int xBoxes;
+    private int yBoxes;
+    private int xPixelsPerBox;
+    private int yPixelsPerBox;
+    private int xLeftOver;
+    private int yLeftOver;
+    private int leniency;
+    private int debugMode; // 1: textual indication of change, 2: difference of
+                           // factors
+
+    private int[][] variance = null;
+    private boolean different = false;
+    private MotionMask mask = null;
+    private int[][] boxLeniency = null; // mask value per box, null without a mask
+    private StripeExecutor executor = null;
+    private Stripe[] stripes = null;
+    private int stripeMinPixels = STRIPE_MIN_PIXELS;
+
+    public Comparer(State s1, State s2, int xBoxes, int yBoxes, int leniency, int debug) {
+        this(xBoxes, yBoxes, leniency, debug);
+        compare(s1, s2);
+    }
+
+    /**
+     * Create a Comparer that can be re-used across frames with
+     * {@link #compare(State, State)}. The box layout and variance matrix are
+     * only rebuilt when the size of the compared States changes.
+     */
+    public Comparer(int xBoxes, int yBoxes, int leniency, int debug) {
+        this.requestedXBoxes = xBoxes;
+        this.requestedYBoxes = yBoxes;
+        this.leniency = leniency;
+        this.debugMode = debug;
+    }
+
+    /**
+     * Compare two States, re-using the box layout and variance matrix of the
+     * previous comparison when the image size has not changed.
+     *
+     * @param s1
+     *            State for image one.
+     * @param s2
+     *            State for image two.
+     * @return True is the two images are different.
+     * @throws NullPointerException
+     *             if s1 or s2 is NULL.
+     */
+    public boolean compare(State s1, State s2) {
+        if (s1 == null || s2 == null) throw new NullPointerException();
+
+        this.state1 = s1;
+        this.state2 = s2;
+        if (s1.getWidth() != width || s1.getHeight() != height) layout(s1.getWidth(), s1.getHeight());
+
+        this.different = isDifferent(this.state1, this.state2);
+        return this.different;
+    }
+
+    private void layout(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        this.xBoxes = requestedXBoxes;
+        if (this.xBoxes > width) this.xBoxes = width;
+
+        this.yBoxes = requestedYBoxes;
+        if (this.yBoxes > height) this.yBoxes = height;
+
+        // how many points per box
+        this.xPixelsPerBox = (int) (Math.floor(width / this.xBoxes));
+        if (xPixelsPerBox <= 0) xPixelsPerBox = 1;
+        this.yPixelsPerBox = (int) (Math.floor(height / this.yBoxes));
+        if (yPixelsPerBox <= 0) yPixelsPerBox = 1;
+
+        this.xLeftOver = width - (this.xBoxes * this.xPixelsPerBox);
+        if (xLeftOver > 0) this.xBoxes++;
+        yLeftOver = height - (this.yBoxes * this.yPixelsPerBox);
+        if (yLeftOver > 0) this.yBoxes++;
+
+        // Boxes
+        this.variance = new int[yBoxes][xBoxes];
+        resolveMask();
+    }
+
+    private void resolveMask() {
+        if (mask == null || variance == null) {
+            boxLeniency = null;
+            return;
+        }
+        boxLeniency = new int[yBoxes][xBoxes];
+        for (int y = 0; y < yBoxes; y++) {
+            for (int x = 0; x < xBoxes; x++) {
+                boxLeniency[y][x] = mask.leniencyAt(x, y, xBoxes, yBoxes, MotionMask.DEFAULT);
+            }
+        }
+    }
+
+    /**
+     * Set the region of interest mask. Boxes under excluded zones are never
+     * read, other zones may override the leniency.
+     *
+     * @param mask
+     *            MotionMask or NULL to compare every box.
+     */
+    public void setMask(MotionMask mask) {
+        this.mask = mask;
+        resolveMask();
+    }
+
+    /**
+     * Compare large frames in horizontal stripes on the given pool.
+     *
+     * @param executor
+     *            StripeExecutor or NULL to always compare on the calling
+     *            thread.
+     */
+    public void setExecutor(StripeExecutor executor) {
+        this.executor = executor;
+        this.stripes = null;
+    }
+
+    /**
+     * Set the smallest frame, in pixels, that is compared in stripes.
+     *
+     * @param pixels
+     *            int representing the pixel count, 0 to stripe every frame.
+     */
+    public void setStripeMinPixels(int pixels) {
+        this.stripeMinPixels = pixels;
+    }
+
+    private int leniencyAt(int x, int y) {
+        if (boxLeniency == null) return leniency;
+        int l = boxLeniency[y][x];
+        return l == MotionMask.DEFAULT ? leniency : l;
+    }
+
+    /**
+     * Compare two images and populate the variance variable
+     * 
+     * @param s1
+     *            State for image one.
+     * @param s2
+     *            State for image two.
+     * @return True is the two images are different.
+     * @throws NullPointerException
+     *             if s1 or s2 is NULL.
+     */
+    public boolean isDifferent(State s1, State s2) {
+        if (s1 == null || s2 == null) throw new NullPointerException();
+        if (s1.getWidth() != s2.getWidth() || s1.getHeight() != s2.getHeight()) return true;
+
+        if (executor != null && yBoxes > 1 && (width * height) >= stripeMinPixels) {
+            return isDifferentStriped();
+        }
+        return compareRows(state1.getMap(), state2.getMap(), 0, yBoxes);
+    }
+
+    /**
+     * Split the box rows into one stripe per core. Every stripe only writes its
+     * own rows of the variance matrix and the results are merged in stripe
+     * order, so the outcome is the same as a single threaded comparison.
+     */
+    private boolean isDifferentStriped() {
+        int count = Math.min(executor.getParallelism(), yBoxes);
+        if (stripes == null || stripes.length != count) {
+            stripes = new Stripe[count];
+            for (int i = 0; i < count; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+        int[] map1 = state1.getMap();
+        int[] map2 = state2.getMap();
+        for (int i = 0; i < count; i++) {
+            stripes[i].set(map1, map2, i * yBoxes / count, (i + 1) * yBoxes / count);
+        }
+
+        executor.invokeAll(stripes, count);
+
+        boolean different = false;
+        for (int i = 0; i < count; i++) {
+            different |= stripes[i].different;
+            stripes[i].set(null, null, 0, 0);
+        }
+        return different;
+    }
+
+    private boolean compareRows(int[] map1, int[] map2, int yStart, int yEnd) {
+        // set to a different by default, if a change is found then flag
+        // non-match
+        boolean different = false;
+        // loop through whole image and compare individual blocks of images
+        int b1 = 0;
+        int b2 = 0;
+        int diff = 0;
+        int l = 0;
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = 0; x < xBoxes; x++) {
+                l = leniencyAt(x, y);
+                if (l == MotionMask.EXCLUDED) {
+                    variance[y][x] = 0;
+                    continue;
+                }
+                b1 = aggregateMapArea(map1, x, y);
+                b2 = aggregateMapArea(map2, x, y);
+                diff = Math.abs(b1 - b2);
+                variance[y][x] = diff;
+                // the difference in a certain region has passed the threshold
+                // value
+                if (diff > l) different = true;
+            }
+        }
+        return different;
+    }
+
+    private class Stripe implements Runnable {
+
+        private int[] map1;
+        private int[] map2;
+        private int yStart;
+        private int yEnd;
+        private boolean different;
+
+        void set(int[] map1, int[] map2, int yStart, int yEnd) {
+            this.map1 = map1;
+            this.map2 = map2;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.different = false;
+        }
+
+        @Override
+        public void run() {
+            different = compareRows(map1, map2, yStart, yEnd);
+        }
+    }
+
+    private int aggregateMapArea(int[] map, int xBox, int yBox) {
+        if (map == null) throw new NullPointerException();
+
+        int yPix = yPixelsPerBox;
+        int xPix = xPixelsPerBox;
+        if (yBox == (yBoxes - 1) && yLeftOver > 0) yPix = yLeftOver;
+        if (xBox == (xBoxes - 1) && xLeftOver > 0) xPix = xLeftOver;
+
+        // Rows of the map are always width pixels apart, whether or not the
+        // boxes divide it evenly
+        int offset = (yBox * yPixelsPerBox * width) + (xBox * xPixelsPerBox);
+
+        int i = 0;
+        for (int y = 0, row = offset; y < yPix; y++, row += width) {
+            for (int x = 0; x < xPix; x++) {
+                i += map[row + x];
+            }
+        }
+
+        return (i / (xPix * yPix));
+    }
+
+    /**
+     * Given the int array of an image, paint the pixels that are different.
+     * 
+     * @param data
+     *            int array of an image.
+     * @throws NullPointerException
+     *             if data int array is NULL.
+     */
+    public void paintDifferences(int[] data) {
+        if (data == null) throw new NullPointerException();
+
+        for (int y = 0; y < yBoxes; y++) {
+            for (int x = 0; x < xBoxes; x++) {
+                int l = leniencyAt(x, y);
+                if (l != MotionMask.EXCLUDED && variance[y][x] > l) paint(data, x, y, PAINT_COLOR);
+            }
+        }
+    }
+
+    private void paint(int[] data, int xBox, int yBox, int color) {
+        if (data == null) throw new NullPointerException();
+
+        int yPix = yPixelsPerBox;
+        int xPix = xPixelsPerBox;
+        if (yBox == (yBoxes - 1) && yLeftOver > 0) yPix = yLeftOver;
+        if (xBox == (xBoxes - 1) && xLeftOver > 0) xPix = xLeftOver;
+
+        // Rows of the map are always width pixels apart, whether or not the
+        // boxes divide it evenly
+        int offset = (yBox * yPixelsPerBox * width) + (xBox * xPixelsPerBox);
+
+        for (int y = 0, row = offset; y < yPix; y++, row += width) {
+            for (int x = 0; x < xPix; x++) {
+                if (y == 0 || y == (yPix - 1) || x == 0 || x == (xPix - 1)) data[row + x] = color;
+            }
+        }
+    }
+
+    /**
+     * Number of X Boxes.
+     * 
+     * @return int representing the number of X boxes.
+     */
+    public int getCompareX() {
+        return xBoxes;
+    }
+
+    /**
+     * Number of Y Boxes.
+     * 
+     * @return int representing the number of Y boxes.
+     */
+    public int getCompareY() {
+        return yBoxes;
+    }
+
+    /**
+     * Set the leniency used by subsequent comparisons.
+     *
+     * @param leniency
+     *            int representing the leniency.
+     */
+    public void setLeniency(int leniency) {
+        this.leniency = leniency;
+    }
+
+    /**
+     * Leniency of the pixel comparison.
+     * 
+     * @return int representing the leniency.
+     */
+    public int getLeniency() {
+        return leniency;
+    }
+
+    /**
+     * Debug mode of the comparer.
+     * 
+     * @return int representing the debug mode.
+     */
+    public int getDebugMode() {
+        return debugMode;
+    }
+
+    /**
+     * Are the two States different.
+     * 
+     * @return True is the States are different.
+     */
+    public boolean isDifferent() {
+        return different;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        int diff = 0;
+        StringBuilder output = new StringBuilder();
+        for (int y = 0; y < yBoxes; y++) {
+            output.append('|');
+            for (int x = 0; x < xBoxes; x++) {
+                diff = variance[y][x];
+                if (debugMode == 1) output.append((leniencyAt(x, y) != MotionMask.EXCLUDED && diff > leniencyAt(x, y)) ? 'X' : ' ');
+                if (debugMode == 2) output.append(diff + ((x < (xBoxes - 1)) ? "," : ""));
+            }
+            output.append("|\n");
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Per-frame analysis shared by every consumer of a camera frame. The reduced
+ * Luma plane and its brightness statistics are computed at most once per
+ * frame, on first use, into buffers re-used from frame to frame.
+ */
+public class FrameAnalysis {
+
+    private final LumaPlane plane;
+
+    private long id = -1;
+    private byte[] nv21 = null;
+    private int width;
+    private int height;
+    private boolean planeReady;
+
+    /**
+     * @param factor
+     *            Downsample factor of the base Luma plane, one of 1, 2, 4 or 8.
+     * @param mode
+     *            {@link LumaPlane#MODE_STRIDE} or {@link LumaPlane#MODE_BOX}.
+     */
+    public FrameAnalysis(int factor, int mode) {
+        this.plane = new LumaPlane(factor, mode);
+    }
+
+    /**
+     * Point the analysis at a frame. Calling this again with the id of the
+     * current frame keeps everything already computed for it.
+     *
+     * @param id
+     *            Identifier of the frame, unique while frames are delivered.
+     * @param nv21
+     *            Byte array representing a YUV420SP image.
+     * @return True if this is a new frame.
+     * @throws NullPointerException
+     *             if nv21 byte array is NULL.
+     */
+    public synchronized boolean update(long id, byte[] nv21, int width, int height) {
+        if (nv21 == null) throw new NullPointerException();
+        if (id == this.id && nv21 == this.nv21 && width == this.width && height == this.height) return false;
+
+        this.id = id;
+        this.nv21 = nv21;
+        this.width = width;
+        this.height = height;
+        this.planeReady = false;
+        return true;
+    }
+
+    /**
+     * Get the reduced Luma plane of the current frame, its statistics come
+     * with it.
+     *
+     * @return LumaPlane valid until the next frame.
+     * @throws IllegalStateException
+     *             if no frame was supplied.
+     */
+    public synchronized LumaPlane getPlane() {
+        if (nv21 == null) throw new IllegalStateException("No frame supplied");
+        if (!planeReady) {
+            plane.sample(nv21, width, height);
+            planeReady = true;
+        }
+        return plane;
+    }
+
+    /**
+     * Mean Luma of the current frame.
+     *
+     * @return integer representing the mean Luma.
+     */
+    public synchronized int getMean() {
+        return getPlane().getMean();
+    }
+
+    /**
+     * Luma sum of the current frame at full resolution, the value the
+     * too dark threshold is tuned against.
+     *
+     * @return long representing the estimated Luma sum of the full frame.
+     */
+    public synchronized long getScaledSum() {
+        return getPlane().getScaledSum();
+    }
+
+    /**
+     * Is the current frame too dark to find anything in.
+     *
+     * @param minLuma
+     *            Minimum Luma sum of the full frame.
+     * @return True if the frame is darker than minLuma.
+     */
+    public synchronized boolean isTooDark(long minLuma) {
+        return getScaledSum() < minLuma;
+    }
+
+    public synchronized long getId() {
+        return id;
+    }
+
+    /**
+     * Reduce every frame to about the given width, whatever size it is.
+     *
+     * @see LumaPlane#setTargetWidth(int)
+     */
+    public synchronized void setTargetWidth(int targetWidth) {
+        plane.setTargetWidth(targetWidth);
+        planeReady = false;
+    }
+
+    public synchronized int getTargetWidth() {
+        return plane.getTargetWidth();
+    }
+
+    /**
+     * Downsample factor of the base Luma plane, picked from the last frame
+     * sampled when a target width is set.
+     */
+    public synchronized int getFactor() {
+        return plane.getFactor();
+    }
+
+    public int getMode() {
+        return plane.getMode();
+    }
+}
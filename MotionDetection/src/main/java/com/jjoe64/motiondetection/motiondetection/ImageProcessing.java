@@ -16,14 +16,6 @@
 
 package com.jjoe64.motiondetection.motiondetection;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
-import android.graphics.Matrix;
-
-import java.io.ByteArrayOutputStream;
-
-
 public abstract class ImageProcessing {
 
     public static final int A = 0;
@@ -35,8 +27,6 @@ public abstract class ImageProcessing {
     public static final int S = 1;
     public static final int L = 2;
 
-    static int[] hsl = null;
-
     private ImageProcessing() {
     }
 
@@ -119,20 +109,66 @@ public abstract class ImageProcessing {
      *             if yuv420sp byte array is NULL.
      */
     public static int[] decodeYUV420SPtoLuma(byte[] yuv420sp, int width, int height) {
+        return decodeYUV420SPtoLuma(yuv420sp, width, height, null);
+    }
+
+    /**
+     * Decode a YUV420SP image to Luma into a caller owned buffer.
+     * 
+     * @param yuv420sp
+     *            Byte array representing a YUV420SP image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @param luma
+     *            Buffer to decode into, a new one is allocated when it is
+     *            NULL or does not match the image size.
+     * @return Integer array representing the Luma image.
+     * @throws NullPointerException
+     *             if yuv420sp byte array is NULL.
+     */
+    public static int[] decodeYUV420SPtoLuma(byte[] yuv420sp, int width, int height, int[] luma) {
+        return decodeYUV420SPtoLuma(yuv420sp, width, height, 0, 0, width, height, luma);
+    }
+
+    /**
+     * Decode a region of a YUV420SP image to Luma into a caller owned buffer.
+     * The result is a (right - left) x (bottom - top) Luma image.
+     * 
+     * @param yuv420sp
+     *            Byte array representing a YUV420SP image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @param luma
+     *            Buffer to decode into, a new one is allocated when it is
+     *            NULL or does not match the region size.
+     * @return Integer array representing the Luma image of the region.
+     * @throws NullPointerException
+     *             if yuv420sp byte array is NULL.
+     * @throws IllegalArgumentException
+     *             if the region is empty or outside the image.
+     */
+    public static int[] decodeYUV420SPtoLuma(byte[] yuv420sp, int width, int height,
+                                             int left, int top, int right, int bottom, int[] luma) {
         if (yuv420sp == null) throw new NullPointerException();
+        if (left < 0 || top < 0 || right > width || bottom > height || left >= right || top >= bottom) {
+            throw new IllegalArgumentException("Region is outside of the image");
+        }
 
-        final int frameSize = width * height;
-        if(hsl == null)
-            hsl = new int[frameSize];
+        final int regionSize = (right - left) * (bottom - top);
+        if (luma == null || luma.length != regionSize) luma = new int[regionSize];
 
-        for (int j = 0, yp = 0; j < height; j++) {
-            for (int i = 0; i < width; i++, yp++) {
+        for (int j = top, xy = 0; j < bottom; j++) {
+            for (int i = left, yp = j * width + left; i < right; i++, yp++, xy++) {
                 int y = (0xff & (yuv420sp[yp])) - 16;
                 if (y < 0) y = 0;
-                hsl[yp] = y;
+                luma[xy] = y;
             }
         }
-        return hsl;
+        return luma;
     }
 
     /**
@@ -180,102 +216,4 @@ public abstract class ImageProcessing {
         }
         return rgb;
     }
-
-    /**
-     * Convert an RGB image into a Bitmap.
-     * 
-     * @param rgb
-     *            Integer array representing an RGB image.
-     * @param width
-     *            Width of the image.
-     * @param height
-     *            Height of the image.
-     * @return Bitmap of the RGB image.
-     * @throws NullPointerException
-     *             if RGB integer array is NULL.
-     */
-    public static Bitmap rgbToBitmap(int[] rgb, int width, int height) {
-        if (rgb == null) throw new NullPointerException();
-
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-        bitmap.setPixels(rgb, 0, width, 0, 0, width, height);
-        return bitmap;
-    }
-
-    /**
-     * Convert an Luma image into Greyscale.
-     * 
-     * @param lum
-     *            Integer array representing an Luma image.
-     * @param width
-     *            Width of the image.
-     * @param height
-     *            Height of the image.
-     * @return Bitmap of the Luma image.
-     * @throws NullPointerException
-     *             if RGB integer array is NULL.
-     */
-    public static Bitmap lumaToGreyscale(int[] lum, int width, int height) {
-        if (lum == null) throw new NullPointerException();
-
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-        for (int y = 0, xy = 0; y < bitmap.getHeight(); y++) {
-            for (int x = 0; x < bitmap.getWidth(); x++, xy++) {
-                int luma = lum[xy];
-                bitmap.setPixel(x, y, Color.argb(1, luma, luma, luma));
-            }
-        }
-        return bitmap;
-    }
-
-    /**
-     * Rotate the given Bitmap by the given degrees.
-     * 
-     * @param bmp
-     *            Bitmap to rotate.
-     * @param degrees
-     *            Degrees to rotate.
-     * @return Bitmap which was rotated.
-     */
-    public static Bitmap rotate(Bitmap bmp, int degrees) {
-        if (bmp == null) throw new NullPointerException();
-
-        // getting scales of the image
-        int width = bmp.getWidth();
-        int height = bmp.getHeight();
-
-        // Creating a Matrix and rotating it to 90 degrees
-        Matrix matrix = new Matrix();
-        matrix.postRotate(degrees);
-
-        // Getting the rotated Bitmap
-        Bitmap rotatedBmp = Bitmap.createBitmap(bmp, 0, 0, width, height, matrix, true);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        rotatedBmp.compress(Bitmap.CompressFormat.JPEG, 100, stream);
-        return rotatedBmp;
-    }
-
-    /**
-     * Rotate the given image in byte array format by the given degrees.
-     * 
-     * @param data
-     *            Bitmap to rotate in byte array form.
-     * @param degrees
-     *            Degrees to rotate.
-     * @return Byte array format of an image which was rotated.
-     */
-    public static byte[] rotate(byte[] data, int degrees) {
-        if (data == null) throw new NullPointerException();
-
-        // Convert the byte data into a Bitmap
-        Bitmap bmp = BitmapFactory.decodeByteArray(data, 0, data.length);
-
-        // Getting the rotated Bitmap
-        Bitmap rotatedBmp = rotate(bmp, degrees);
-
-        // Get the byte array from the Bitmap
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        rotatedBmp.compress(Bitmap.CompressFormat.JPEG, 100, stream);
-        return stream.toByteArray();
-    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Summed-area table of a luma image. Once built, the sum of any rectangle
+ * of the image is available in constant time, so per-cell averages no
+ * longer depend on the size of the cells.
+ */
+public class IntegralImage {
+
+    private int[] table = null;
+    private int width;
+    private int height;
+    private int stride;
+
+    /**
+     * Build the table for the given image, re-using the backing array when
+     * the resolution has not changed.
+     *
+     * @param data
+     *            integer array representing a luma image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @throws NullPointerException
+     *             if data integer array is NULL.
+     */
+    public void compute(int[] data, int width, int height) {
+        if (data == null) throw new NullPointerException();
+
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+
+        int size = stride * (height + 1);
+        if (table == null || table.length != size) table = new int[size];
+
+        // first row and column of the table stay zero
+        for (int y = 0, xy = 0; y < height; y++) {
+            int rowSum = 0;
+            int above = y * stride + 1;
+            int current = above + stride;
+            for (int x = 0; x < width; x++, xy++) {
+                rowSum += data[xy];
+                table[current + x] = table[above + x] + rowSum;
+            }
+        }
+    }
+
+    /**
+     * Sum of the rectangle [x0, x1) x [y0, y1).
+     *
+     * @return integer representing the sum of the luma values in the area.
+     */
+    public int sum(int x0, int y0, int x1, int y1) {
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+
+    /**
+     * Average luma of the rectangle [x0, x1) x [y0, y1).
+     *
+     * @return integer representing the average luma of the area.
+     */
+    public int average(int x0, int y0, int x1, int y1) {
+        int area = (x1 - x0) * (y1 - y0);
+        if (area <= 0) return 0;
+        return sum(x0, y0, x1, y1) / area;
+    }
+
+    /**
+     * Fill a row major array with the average luma of each cell of an evenly
+     * divided grid.
+     *
+     * @param xCells
+     *            Number of cells across the image.
+     * @param yCells
+     *            Number of cells down the image.
+     * @param out
+     *            Array of at least xCells * yCells elements.
+     */
+    public void cellAverages(int xCells, int yCells, int[] out) {
+        if (out == null) throw new NullPointerException();
+
+        for (int cy = 0, i = 0; cy < yCells; cy++) {
+            int y0 = cy * height / yCells;
+            int y1 = (cy + 1) * height / yCells;
+            for (int cx = 0; cx < xCells; cx++, i++) {
+                int x0 = cx * width / xCells;
+                int x1 = (cx + 1) * width / xCells;
+                out[i] = average(x0, y0, x1, y1);
+            }
+        }
+    }
+
+    /**
+     * Get the width of the image the table was built for.
+     *
+     * @return integer representing the width of the image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the image the table was built for.
+     *
+     * @return integer representing the height of the image.
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Grid based motion detection that builds one {@link IntegralImage} per frame
+ * and reads every cell average from it in constant time. Only the cell
+ * averages of the previous frame are kept, so the cost of a frame is one
+ * pass over the pixels regardless of the grid size.
+ */
+public class IntegralImageMotionDetection implements IMotionDetection {
+
+    private int mLeniency = 20; // Difference of average luma per cell
+    private int mXBoxes = 10;
+    private int mYBoxes = 10;
+
+    private final IntegralImage mIntegralImage = new IntegralImage();
+    private int[] mPrevious = null;
+    private int[] mCurrent = null;
+    private int mPreviousWidth;
+    private int mPreviousHeight;
+    private MotionMask mMask = null;
+    private int[] mCellMask = null; // mask value per cell, null without a mask
+
+    /**
+     * Average luma of each cell of the previous frame, row major.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getPrevious() {
+        return ((mPrevious != null) ? mPrevious.clone() : null);
+    }
+
+    /**
+     * Detect motion by comparing the cell averages of this frame with the
+     * previous one. {@inheritDoc}
+     */
+    @Override
+    public boolean detect(int[] luma, int width, int height) {
+        if (luma == null) throw new NullPointerException();
+
+        int xBoxes = Math.min(mXBoxes, width);
+        int yBoxes = Math.min(mYBoxes, height);
+        int cells = xBoxes * yBoxes;
+        if (mCurrent == null || mCurrent.length != cells) mCurrent = new int[cells];
+        if (mMask != null && (mCellMask == null || mCellMask.length != cells)) {
+            mCellMask = new int[cells];
+            mMask.resolve(xBoxes, yBoxes, MotionMask.DEFAULT, mCellMask);
+        }
+
+        mIntegralImage.compute(luma, width, height);
+        mIntegralImage.cellAverages(xBoxes, yBoxes, mCurrent);
+
+        boolean motionDetected = false;
+        if (mPrevious != null && mPrevious.length == cells
+                && mPreviousWidth == width && mPreviousHeight == height) {
+            for (int i = 0; i < cells; i++) {
+                int leniency = mLeniency;
+                if (mCellMask != null) {
+                    if (mCellMask[i] == MotionMask.EXCLUDED) continue;
+                    if (mCellMask[i] != MotionMask.DEFAULT) leniency = mCellMask[i];
+                }
+                if (Math.abs(mCurrent[i] - mPrevious[i]) > leniency) {
+                    motionDetected = true;
+                    break;
+                }
+            }
+        }
+
+        // Swap the cell buffers, the current frame becomes the previous one.
+        int[] swap = mPrevious;
+        mPrevious = mCurrent;
+        mCurrent = swap;
+        mPreviousWidth = width;
+        mPreviousHeight = height;
+
+        return motionDetected;
+    }
+
+    public void setLeniency(int l) {
+        mLeniency = l;
+    }
+
+    /**
+     * Set the number of cells the image is divided into.
+     *
+     * @param xBoxes
+     *            Number of cells across the image.
+     * @param yBoxes
+     *            Number of cells down the image.
+     */
+    public void setGrid(int xBoxes, int yBoxes) {
+        if (xBoxes <= 0 || yBoxes <= 0) throw new IllegalArgumentException("Grid must have at least one cell");
+        mXBoxes = xBoxes;
+        mYBoxes = yBoxes;
+        clear();
+    }
+
+    /**
+     * Set the region of interest mask.
+     *
+     * @param mask
+     *            MotionMask or NULL to compare every cell.
+     */
+    public void setMask(MotionMask mask) {
+        mMask = mask;
+        mCellMask = null;
+    }
+
+    public void clear() {
+        mPrevious = null;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.Arrays;
+
+/**
+ * Reduced resolution Luma plane read straight from the Y plane of a
+ * YUV420SP (NV21) buffer. The plane and its brightness statistics are
+ * produced in a single pass, and the output buffer is re-used until the
+ * plane size changes.
+ */
+public class LumaPlane {
+
+    /** Take one pixel out of every factor x factor block. */
+    public static final int MODE_STRIDE = 0;
+    /** Average every factor x factor block. */
+    public static final int MODE_BOX = 1;
+
+    private int factor;
+    private int shift;
+    private final int mode;
+    private int targetWidth = 0;
+
+    private int[] luma = null;
+    private int[] rowSums = null;
+    private int width;
+    private int height;
+    private long sum;
+    private int min;
+    private int max;
+
+    /**
+     * @param factor
+     *            Downsample factor, one of 1, 2, 4 or 8.
+     * @param mode
+     *            {@link #MODE_STRIDE} or {@link #MODE_BOX}.
+     */
+    public LumaPlane(int factor, int mode) {
+        if (factor != 1 && factor != 2 && factor != 4 && factor != 8) {
+            throw new IllegalArgumentException("Downsample factor must be 1, 2, 4 or 8");
+        }
+        if (mode != MODE_STRIDE && mode != MODE_BOX) throw new IllegalArgumentException("Unknown mode " + mode);
+        this.factor = factor;
+        this.shift = Integer.numberOfTrailingZeros(factor);
+        this.mode = mode;
+    }
+
+    /**
+     * The largest downsample factor, out of 1, 2, 4 and 8, that still leaves
+     * a plane at least the given width.
+     *
+     * @param frameWidth
+     *            Width of the frame, or region, being sampled.
+     * @param targetWidth
+     *            Narrowest plane wanted, more than 0.
+     */
+    public static int factorFor(int frameWidth, int targetWidth) {
+        int factor = 1;
+        while (factor < 8 && frameWidth / (factor * 2) >= targetWidth) {
+            factor *= 2;
+        }
+        return factor;
+    }
+
+    /**
+     * Pick the downsample factor from the width of each sampled frame, or
+     * region, instead of keeping the one given to the constructor. The plane
+     * then stays about the same width whatever size the frames turn out to
+     * be.
+     *
+     * @param targetWidth
+     *            Narrowest plane wanted, 0 to keep the current factor.
+     */
+    public void setTargetWidth(int targetWidth) {
+        this.targetWidth = Math.max(0, targetWidth);
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    /**
+     * Sample the whole Y plane of a YUV420SP image.
+     *
+     * @see #sample(byte[], int, int, int, int, int, int)
+     */
+    public int[] sample(byte[] yuv420sp, int width, int height) {
+        return sample(yuv420sp, width, height, 0, 0, width, height);
+    }
+
+    /**
+     * Sample a region of the Y plane of a YUV420SP image. Values are offset
+     * by 16 and clamped at 0, the same as
+     * {@link ImageProcessing#decodeYUV420SPtoLuma(byte[], int, int)}.
+     *
+     * @param yuv420sp
+     *            Byte array representing a YUV420SP image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @return Integer array representing the reduced Luma plane, valid until
+     *         the next call.
+     * @throws NullPointerException
+     *             if yuv420sp byte array is NULL.
+     * @throws IllegalArgumentException
+     *             if the region is empty or outside the image.
+     */
+    public int[] sample(byte[] yuv420sp, int width, int height, int left, int top, int right, int bottom) {
+        if (yuv420sp == null) throw new NullPointerException();
+        if (left < 0 || top < 0 || right > width || bottom > height || left >= right || top >= bottom) {
+            throw new IllegalArgumentException("Region is outside of the image");
+        }
+        if (targetWidth > 0) {
+            factor = factorFor(right - left, targetWidth);
+            shift = Integer.numberOfTrailingZeros(factor);
+        }
+
+        this.width = Math.max(1, (right - left) >> shift);
+        this.height = Math.max(1, (bottom - top) >> shift);
+        int size = this.width * this.height;
+        if (luma == null || luma.length != size) luma = new int[size];
+
+        sum = 0;
+        min = Integer.MAX_VALUE;
+        max = Integer.MIN_VALUE;
+
+        if (mode == MODE_BOX && factor > 1) {
+            sampleBox(yuv420sp, width, height, left, top);
+        } else {
+            sampleStride(yuv420sp, width, left, top);
+        }
+        return luma;
+    }
+
+    private void sampleStride(byte[] yuv420sp, int width, int left, int top) {
+        for (int j = 0, xy = 0; j < this.height; j++) {
+            int yp = (top + (j << shift)) * width + left;
+            for (int i = 0; i < this.width; i++, xy++, yp += factor) {
+                int y = (0xff & yuv420sp[yp]) - 16;
+                if (y < 0) y = 0;
+                luma[xy] = y;
+                accumulate(y);
+            }
+        }
+    }
+
+    private void sampleBox(byte[] yuv420sp, int width, int height, int left, int top) {
+        if (rowSums == null || rowSums.length != this.width) rowSums = new int[this.width];
+        int span = Math.min(this.width << shift, width - left);
+        // A block holds 2^blockShift pixels, its sum is divided down by that
+        int blockShift = shift << 1;
+
+        for (int j = 0, xy = 0; j < this.height; j++) {
+            Arrays.fill(rowSums, 0);
+            int rowStart = top + (j << shift);
+            int rowEnd = Math.min(rowStart + factor, height);
+            for (int row = rowStart; row < rowEnd; row++) {
+                int yp = row * width + left;
+                for (int i = 0; i < span; i++, yp++) {
+                    rowSums[i >> shift] += 0xff & yuv420sp[yp];
+                }
+            }
+            for (int i = 0; i < this.width; i++, xy++) {
+                int y = (rowSums[i] >> blockShift) - 16;
+                if (y < 0) y = 0;
+                luma[xy] = y;
+                accumulate(y);
+            }
+        }
+    }
+
+    private void accumulate(int y) {
+        sum += y;
+        if (y < min) min = y;
+        if (y > max) max = y;
+    }
+
+    /**
+     * Get the reduced Luma plane of the last sample.
+     *
+     * @return integer array of the Luma plane.
+     */
+    public int[] getLuma() {
+        return luma;
+    }
+
+    /**
+     * Get the width of the reduced plane.
+     *
+     * @return integer representing the width of the plane.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the reduced plane.
+     *
+     * @return integer representing the height of the plane.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sum of the sampled Luma values scaled back up to the full resolution,
+     * so it can be compared against thresholds tuned on full frames.
+     *
+     * @return long representing the estimated Luma sum of the full image.
+     */
+    public long getScaledSum() {
+        return sum << (shift << 1);
+    }
+
+    /**
+     * Mean Luma of the last sample.
+     *
+     * @return integer representing the mean Luma.
+     */
+    public int getMean() {
+        return (int) (sum / ((long) width * height));
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Names of the motion detection engines, as stored in the settings and in
+ * capture files, and a factory for them with their basic settings.
+ */
+public final class MotionEngines {
+
+    public static final String AGGREGATE_LUMA = "aggregate_luma";
+    public static final String INTEGRAL_IMAGE = "integral_image";
+    public static final String BACKGROUND_MODEL = "background_model";
+
+    private MotionEngines() {
+    }
+
+    /**
+     * Create one of the motion detection engines by name.
+     *
+     * @param mask
+     *            MotionMask or NULL to look at the whole frame.
+     * @throws IllegalArgumentException
+     *             if the engine is unknown.
+     */
+    public static IMotionDetection create(String engine, int grid, int leniency, MotionMask mask) {
+        switch (engine) {
+            case INTEGRAL_IMAGE: {
+                IntegralImageMotionDetection detection = new IntegralImageMotionDetection();
+                detection.setGrid(grid, grid);
+                detection.setLeniency(leniency);
+                detection.setMask(mask);
+                return detection;
+            }
+            case BACKGROUND_MODEL: {
+                BackgroundModelMotionDetection detection = new BackgroundModelMotionDetection();
+                detection.setGrid(grid, grid);
+                detection.setLeniency(leniency);
+                detection.setMask(mask);
+                return detection;
+            }
+            case AGGREGATE_LUMA: {
+                AggregateLumaMotionDetection detection = new AggregateLumaMotionDetection();
+                detection.setGrid(grid, grid);
+                detection.setLeniency(leniency);
+                detection.setMask(mask);
+                return detection;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+}
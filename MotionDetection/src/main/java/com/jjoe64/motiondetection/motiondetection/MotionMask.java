@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Region of interest mask laid over the frame as a grid of zones. Each zone
+ * is either excluded from motion detection, uses the detector leniency, or
+ * has a leniency of its own. The mask grid does not have to match the grid
+ * of the detector, zones are mapped onto boxes by position.
+ * <p>
+ * The mask applies to whole boxes only: a box takes the zone under its
+ * centre, an excluded box is never compared, and a box that straddles a zone
+ * edge is still averaged over all of its pixels.
+ */
+public class MotionMask {
+
+    /** Zone is ignored, boxes under it are never compared. */
+    public static final int EXCLUDED = -1;
+    /** Zone uses the leniency of the detector. */
+    public static final int DEFAULT = 0;
+
+    private final int xZones;
+    private final int yZones;
+    private final int[] zones;
+
+    /**
+     * @param rows
+     *            Zones row by row, each value is {@link #EXCLUDED},
+     *            {@link #DEFAULT} or a leniency for that zone. All rows must
+     *            have the same length.
+     */
+    public MotionMask(int[][] rows) {
+        if (rows == null) throw new NullPointerException();
+        if (rows.length == 0 || rows[0].length == 0) throw new IllegalArgumentException("Mask must have at least one zone");
+
+        this.yZones = rows.length;
+        this.xZones = rows[0].length;
+        this.zones = new int[xZones * yZones];
+        for (int y = 0; y < yZones; y++) {
+            if (rows[y].length != xZones) throw new IllegalArgumentException("Mask rows must all be the same length");
+            for (int x = 0; x < xZones; x++) {
+                int value = rows[y][x];
+                if (value < EXCLUDED) throw new IllegalArgumentException("Invalid mask value " + value);
+                zones[y * xZones + x] = value;
+            }
+        }
+    }
+
+    /**
+     * Leniency of the zone under the centre of box (xBox, yBox) of a detector
+     * grid.
+     *
+     * @return {@link #EXCLUDED} or the leniency that applies to the box.
+     */
+    public int leniencyAt(int xBox, int yBox, int xBoxes, int yBoxes, int defaultLeniency) {
+        int x = ((2 * xBox + 1) * xZones) / (2 * xBoxes);
+        int y = ((2 * yBox + 1) * yZones) / (2 * yBoxes);
+        int value = zones[y * xZones + x];
+        return value == DEFAULT ? defaultLeniency : value;
+    }
+
+    /**
+     * Fill a row major array with the leniency of every box of a detector
+     * grid, {@link #EXCLUDED} for boxes that should be skipped.
+     */
+    public void resolve(int xBoxes, int yBoxes, int defaultLeniency, int[] out) {
+        if (out == null) throw new NullPointerException();
+
+        for (int y = 0, i = 0; y < yBoxes; y++) {
+            for (int x = 0; x < xBoxes; x++, i++) {
+                out[i] = leniencyAt(x, y, xBoxes, yBoxes, defaultLeniency);
+            }
+        }
+    }
+
+    public int getXZones() {
+        return xZones;
+    }
+
+    public int getYZones() {
+        return yZones;
+    }
+
+    /**
+     * Get the zones of the mask.
+     *
+     * @return the zone values row by row.
+     */
+    public int[][] toRows() {
+        int[][] rows = new int[yZones][xZones];
+        for (int y = 0; y < yZones; y++) {
+            System.arraycopy(zones, y * xZones, rows[y], 0, xZones);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Command line tool that replays a capture file through a motion detection
+ * engine as fast as possible and reports what it detected and how long each
+ * frame took. Settings default to the ones stored in the capture, so a plain
+ * replay reproduces what the panel saw.
+ *
+ * <pre>
+ * MotionReplay [options] capture.wpc
+ *   --engine aggregate_luma|integral_image|background_model
+ *   --leniency n     --min-luma n     --grid n     --downsample 1|2|4|8
+ *   --mask rows      zones as in the capture metadata, e.g. "-1,0;0,40"
+ *   --repeat n       replay the capture n times
+ *   --verbose        print every frame
+ * </pre>
+ *
+ * Options may also be written as "--name=value".
+ */
+public class MotionReplay {
+
+    private String engine = MotionEngines.AGGREGATE_LUMA;
+    private int leniency = 20;
+    private int minLuma = 1000;
+    private int grid = 10;
+    private int downsample = 4;
+    private MotionMask mask = null;
+    private int repeat = 1;
+    private boolean verbose = false;
+    private File capture = null;
+    // Options given on the command line, these win over the capture metadata
+    private final Set<String> given = new HashSet<>();
+
+    public static void main(String[] args) {
+        MotionReplay replay;
+        try {
+            replay = parse(args);
+        } catch (IllegalArgumentException e) {
+            replay = null;
+        }
+        if (replay == null || replay.capture == null) {
+            System.err.println("Usage: MotionReplay [--engine name] [--leniency n] [--min-luma n] [--grid n]"
+                    + " [--downsample n] [--mask rows] [--repeat n] [--verbose] capture.wpc");
+            System.exit(2);
+        }
+
+        try (CaptureReader reader = new CaptureReader(replay.capture)) {
+            replay.defaults(reader.getMetadata());
+            replay.run(reader, System.out);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parse the command line, options are given as "--name value" or
+     * "--name=value".
+     *
+     * @throws IllegalArgumentException
+     *             if an option is unknown, lacks its value or the value is
+     *             not valid.
+     */
+    static MotionReplay parse(String[] args) {
+        MotionReplay replay = new MotionReplay();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                replay.capture = new File(arg);
+                continue;
+            }
+            String name = arg;
+            String value = null;
+            int equals = arg.indexOf('=');
+            if (equals >= 0) {
+                name = arg.substring(0, equals);
+                value = arg.substring(equals + 1);
+            }
+            if (name.equals("--verbose")) {
+                replay.verbose = true;
+                continue;
+            }
+            if (value == null) {
+                if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + name);
+                value = args[++i];
+            }
+            try {
+                switch (name) {
+                    case "--engine": replay.engine = value; break;
+                    case "--leniency": replay.leniency = Integer.parseInt(value); break;
+                    case "--min-luma": replay.minLuma = Integer.parseInt(value); break;
+                    case "--grid": replay.grid = Integer.parseInt(value); break;
+                    case "--downsample": replay.downsample = Integer.parseInt(value); break;
+                    case "--mask": replay.mask = CaptureFormat.parseMask(value); break;
+                    case "--repeat": replay.repeat = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+            }
+            replay.given.add(name);
+        }
+        return replay;
+    }
+
+    // Settings from the capture apply unless they were given on the command line
+    void defaults(Properties metadata) {
+        if (!given.contains("--engine")) engine = metadata.getProperty(CaptureFormat.KEY_DETECTION, engine);
+        if (!given.contains("--leniency")) leniency = intProperty(metadata, CaptureFormat.KEY_LENIENCY, leniency);
+        if (!given.contains("--min-luma")) minLuma = intProperty(metadata, CaptureFormat.KEY_MIN_LUMA, minLuma);
+        if (!given.contains("--grid")) grid = intProperty(metadata, CaptureFormat.KEY_GRID, grid);
+        if (!given.contains("--downsample")) downsample = intProperty(metadata, CaptureFormat.KEY_DOWNSAMPLE, downsample);
+        if (!given.contains("--mask")) mask = CaptureFormat.parseMask(metadata.getProperty(CaptureFormat.KEY_MASK));
+    }
+
+    String getEngine() {
+        return engine;
+    }
+
+    int getLeniency() {
+        return leniency;
+    }
+
+    int getMinLuma() {
+        return minLuma;
+    }
+
+    int getGrid() {
+        return grid;
+    }
+
+    int getDownsample() {
+        return downsample;
+    }
+
+    MotionMask getMask() {
+        return mask;
+    }
+
+    private static int intProperty(Properties metadata, String key, int fallback) {
+        String value = metadata.getProperty(key);
+        if (value == null) return fallback;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private void run(CaptureReader reader, PrintStream out) {
+        IMotionDetection detection = MotionEngines.create(engine, grid, leniency, mask);
+        LumaPlane plane = new LumaPlane(downsample, LumaPlane.MODE_STRIDE);
+        int width = reader.getWidth();
+        int height = reader.getHeight();
+        int frames = reader.getFrameCount() * repeat;
+        long[] timings = new long[frames];
+        int detections = 0;
+        int tooDark = 0;
+        long firstTimestamp = 0;
+        long lastTimestamp = 0;
+
+        out.printf(Locale.US, "%s: %d frames %dx%d, engine=%s leniency=%d minLuma=%d grid=%d downsample=%d mask=%s%n",
+                reader.getMetadata().getProperty(CaptureFormat.KEY_DEVICE, "capture"), reader.getFrameCount(),
+                width, height, engine, leniency, minLuma, grid, downsample,
+                mask != null ? CaptureFormat.formatMask(mask) : "none");
+
+        long start = System.nanoTime();
+        int frame = 0;
+        for (int pass = 0; pass < repeat; pass++) {
+            reader.rewind();
+            while (reader.next()) {
+                long begin = System.nanoTime();
+                int[] luma = plane.sample(reader.getFrame(), width, height);
+                boolean dark = plane.getScaledSum() < minLuma;
+                boolean motion = !dark && detection.detect(luma, plane.getWidth(), plane.getHeight());
+                timings[frame] = System.nanoTime() - begin;
+
+                if (pass == 0) {
+                    if (frame == 0) firstTimestamp = reader.getTimestamp();
+                    lastTimestamp = reader.getTimestamp();
+                    if (dark) tooDark++;
+                    if (motion) detections++;
+                    if (verbose) {
+                        out.printf(Locale.US, "%6d %14d %-10s %8.1f us%n", frame, reader.getTimestamp(),
+                                dark ? "too dark" : (motion ? "MOTION" : "-"), timings[frame] / 1000.0);
+                    }
+                }
+                frame++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (frame == 0) {
+            out.println("No frames");
+            return;
+        }
+        Arrays.sort(timings, 0, frame);
+        double seconds = (lastTimestamp - firstTimestamp) / 1000.0;
+        out.printf(Locale.US, "detections: %d, too dark: %d, captured over %.1f s%n", detections, tooDark, seconds);
+        out.printf(Locale.US, "per frame: min %.1f us, p50 %.1f us, p95 %.1f us, p99 %.1f us, max %.1f us%n",
+                timings[0] / 1000.0, percentile(timings, frame, 50), percentile(timings, frame, 95),
+                percentile(timings, frame, 99), timings[frame - 1] / 1000.0);
+        out.printf(Locale.US, "throughput: %.1f frames/s (%d frames in %.1f ms)%n",
+                frame * 1e9 / elapsed, frame, elapsed / 1e6);
+    }
+
+    private static double percentile(long[] sorted, int count, int percent) {
+        int index = Math.min(count - 1, (int) Math.ceil(count * percent / 100.0) - 1);
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+}
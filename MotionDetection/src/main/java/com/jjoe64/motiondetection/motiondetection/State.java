@@ -21,24 +21,33 @@ public class State {
     private int[] map = null;
     private int width;
     private int height;
-    @SuppressWarnings("FieldCanBeLocal")
-    private int average;
 
     public State(int[] data, int width, int height) {
+        set(data, width, height);
+    }
+
+    /**
+     * Replace the contents of this State with a new image, re-using the map
+     * when the image size has not changed. The image is copied rather than
+     * adopted because callers such as LumaPlane write every frame into the
+     * same array, and the previous frame has to outlive that.
+     *
+     * @param data
+     *            integer array representing an image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @throws NullPointerException
+     *             if data integer array is NULL.
+     */
+    public void set(int[] data, int width, int height) {
         if (data == null) throw new NullPointerException();
 
-        this.map = data.clone();
+        if (this.map == null || this.map.length != data.length) this.map = new int[data.length];
+        System.arraycopy(data, 0, this.map, 0, data.length);
         this.width = width;
         this.height = height;
-
-        // build map and stats
-        this.average = 0;
-        for (int y = 0, xy = 0; y < this.height; y++) {
-            for (int x = 0; x < this.width; x++, xy++) {
-                this.average += data[xy];
-            }
-        }
-        this.average = (this.average / (this.width * this.height));
     }
 
     /**
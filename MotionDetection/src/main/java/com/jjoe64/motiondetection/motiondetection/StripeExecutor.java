@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Small fixed pool that runs the horizontal stripes of a frame comparison
+ * in parallel. The calling thread always works on one of the stripes, so a
+ * pool of n threads keeps n + 1 cores busy.
+ *
+ * Every worker owns a slot the caller hands its stripe to and the caller
+ * parks until a counter of running stripes drops to zero, so a comparison
+ * allocates nothing once the pool is started.
+ */
+public class StripeExecutor {
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+    private static StripeExecutor sShared = null;
+
+    private final Worker[] mWorkers;
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final AtomicReference<RuntimeException> mFailure = new AtomicReference<>();
+    private volatile Thread mCaller = null;
+    private volatile boolean mShutdown = false;
+
+    /**
+     * Pool shared by all detectors, sized to the number of cores.
+     *
+     * @return StripeExecutor or NULL on a single core device.
+     */
+    public static synchronized StripeExecutor getShared() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (cores < 2) return null;
+        if (sShared == null) sShared = new StripeExecutor(cores - 1);
+        return sShared;
+    }
+
+    public StripeExecutor(int threads) {
+        if (threads <= 0) throw new IllegalArgumentException("Need at least one thread");
+        mWorkers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            mWorkers[i] = new Worker("MotionStripe-" + sThreadCount.incrementAndGet());
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Number of stripes that can run at the same time, including the one on
+     * the calling thread.
+     *
+     * @return int representing the parallelism of the pool.
+     */
+    public int getParallelism() {
+        return mWorkers.length + 1;
+    }
+
+    /**
+     * Run the first count tasks and wait for all of them to finish, even when
+     * one of them throws. The last task runs on the calling thread. Callers
+     * sharing the pool take turns. An interrupt does not cut the wait short,
+     * the stripes are still writing into the caller's arrays, it is kept for
+     * the caller to see afterwards.
+     *
+     * @throws IllegalArgumentException
+     *             if count is more than {@link #getParallelism()}.
+     * @throws RuntimeException
+     *             if a task failed.
+     */
+    public synchronized void invokeAll(Runnable[] tasks, int count) {
+        if (count <= 0) return;
+        if (count > mWorkers.length + 1) throw new IllegalArgumentException("More tasks than stripes: " + count);
+        if (mShutdown) throw new IllegalStateException("StripeExecutor is shut down");
+
+        mFailure.set(null);
+        mCaller = Thread.currentThread();
+        mPending.set(count - 1);
+        for (int i = 0; i < count - 1; i++) {
+            mWorkers[i].submit(tasks[i]);
+        }
+        boolean interrupted = false;
+        try {
+            tasks[count - 1].run();
+        } finally {
+            while (mPending.get() > 0) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) interrupted = true;
+            }
+            mCaller = null;
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        RuntimeException failure = mFailure.getAndSet(null);
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Stop the workers once they are idle. Waits for a running
+     * {@link #invokeAll(Runnable[], int)} to finish first.
+     */
+    public synchronized void shutdown() {
+        mShutdown = true;
+        for (Worker worker : mWorkers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private final class Worker extends Thread {
+
+        private volatile Runnable mTask = null;
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        void submit(Runnable task) {
+            mTask = task;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task = mTask;
+                if (task == null) {
+                    if (mShutdown) return;
+                    LockSupport.park(this);
+                    continue;
+                }
+                mTask = null;
+                Thread caller = mCaller;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    mFailure.compareAndSet(null, e);
+                } catch (Error e) {
+                    mFailure.compareAndSet(null, new RuntimeException("Stripe failed", e));
+                } finally {
+                    if (mPending.decrementAndGet() == 0) LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackgroundModelMotionDetectionTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 8;
+
+    @Test
+    public void backgroundFollowsSlowDrift() {
+        BackgroundModelMotionDetection detection = single();
+        detection.setLearningRate(0.5f);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(!detection.detect(frame(100), WIDTH, HEIGHT));
+        }
+        assertEquals(100, detection.getPrevious()[0]);
+
+        // One level a frame is never far enough from the background to flag
+        for (int value = 101; value <= 160; value++) {
+            assertTrue("at " + value, !detection.detect(frame(value), WIDTH, HEIGHT));
+        }
+        // The EWMA trails the drift by (1 - alpha) / alpha levels
+        assertEquals(159, detection.getPrevious()[0]);
+        for (int i = 0; i < 20; i++) {
+            detection.detect(frame(160), WIDTH, HEIGHT);
+        }
+        assertEquals(160, detection.getPrevious()[0]);
+    }
+
+    @Test
+    public void noiseSetsItsOwnThreshold() {
+        // Every fourth frame 10 levels up is noise for k = 3, motion for k = 1
+        assertTrue(!anyMotion(3f));
+        assertTrue(anyMotion(1f));
+
+        // A jump well beyond the noise still is
+        BackgroundModelMotionDetection detection = single();
+        detection.setPersistence(1, 1);
+        for (int i = 0; i < 100; i++) {
+            detection.detect(noise(i), WIDTH, HEIGHT);
+        }
+        assertTrue(detection.detect(frame(160), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void needsFlaggedFramesInWindow() {
+        BackgroundModelMotionDetection detection = settled(2, 3);
+        // A single spike is not enough for 2 of 3
+        assertTrue(!detection.detect(frame(200), WIDTH, HEIGHT));
+        assertTrue(!detection.detect(frame(100), WIDTH, HEIGHT));
+        assertTrue(!detection.detect(frame(100), WIDTH, HEIGHT));
+        assertTrue(!detection.detect(frame(100), WIDTH, HEIGHT));
+        // Two in a row are
+        assertTrue(!detection.detect(frame(200), WIDTH, HEIGHT));
+        assertTrue(detection.detect(frame(200), WIDTH, HEIGHT));
+        // And stay reported until the window no longer holds two
+        assertTrue(detection.detect(frame(100), WIDTH, HEIGHT));
+        assertTrue(!detection.detect(frame(100), WIDTH, HEIGHT));
+
+        BackgroundModelMotionDetection eager = settled(1, 1);
+        assertTrue(eager.detect(frame(200), WIDTH, HEIGHT));
+        assertTrue(!eager.detect(frame(100), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void learnsForegroundSlowly() {
+        BackgroundModelMotionDetection foreground = settled(1, 1);
+        BackgroundModelMotionDetection background = settled(1, 1);
+        background.setLeniency(200);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(foreground.detect(frame(200), WIDTH, HEIGHT));
+            assertTrue(!background.detect(frame(200), WIDTH, HEIGHT));
+        }
+        // A tenth of the 0.05 learning rate: 100 * (1 - 0.995^10) against 100 * (1 - 0.95^10)
+        assertEquals(104, foreground.getPrevious()[0]);
+        assertEquals(140, background.getPrevious()[0]);
+
+        // An object that stays is absorbed into the background eventually
+        int frames = 10;
+        while (foreground.detect(frame(200), WIDTH, HEIGHT)) {
+            frames++;
+            assertTrue("never absorbed", frames < 1000);
+        }
+    }
+
+    @Test
+    public void skipsExcludedCells() {
+        BackgroundModelMotionDetection detection = new BackgroundModelMotionDetection();
+        detection.setGrid(2, 1);
+        detection.setPersistence(1, 1);
+        detection.setMask(new MotionMask(new int[][] { { MotionMask.EXCLUDED, MotionMask.DEFAULT } }));
+        for (int i = 0; i < 10; i++) {
+            detection.detect(frame(100), WIDTH, HEIGHT);
+        }
+        int[] left = frame(100);
+        for (int y = 0; y < HEIGHT; y++) {
+            Arrays.fill(left, y * WIDTH, y * WIDTH + WIDTH / 2, 200);
+        }
+        assertTrue(!detection.detect(left, WIDTH, HEIGHT));
+        int[] right = frame(100);
+        for (int y = 0; y < HEIGHT; y++) {
+            Arrays.fill(right, y * WIDTH + WIDTH / 2, y * WIDTH + WIDTH, 200);
+        }
+        assertTrue(detection.detect(right, WIDTH, HEIGHT));
+    }
+
+    private static boolean anyMotion(float sigmas) {
+        BackgroundModelMotionDetection detection = single();
+        detection.setSigmas(sigmas);
+        detection.setPersistence(1, 1);
+        boolean motion = false;
+        // Past the first few frames, while the variance is learnt
+        for (int i = 0; i < 200; i++) {
+            boolean detected = detection.detect(noise(i), WIDTH, HEIGHT);
+            if (i >= 100) motion |= detected;
+        }
+        return motion;
+    }
+
+    private static BackgroundModelMotionDetection settled(int framesRequired, int frameWindow) {
+        BackgroundModelMotionDetection detection = single();
+        detection.setPersistence(framesRequired, frameWindow);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(!detection.detect(frame(100), WIDTH, HEIGHT));
+        }
+        return detection;
+    }
+
+    private static BackgroundModelMotionDetection single() {
+        BackgroundModelMotionDetection detection = new BackgroundModelMotionDetection();
+        detection.setGrid(1, 1);
+        return detection;
+    }
+
+    private static int[] noise(int frame) {
+        return frame((frame & 3) == 3 ? 110 : 100);
+    }
+
+    private static int[] frame(int value) {
+        int[] luma = new int[WIDTH * HEIGHT];
+        Arrays.fill(luma, value);
+        return luma;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CaptureTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+
+    private static byte[] frame(int seed) {
+        byte[] nv21 = new byte[CaptureFormat.frameSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < nv21.length; i++) {
+            nv21[i] = (byte) (seed * 31 + i);
+        }
+        return nv21;
+    }
+
+    private static Properties metadata() {
+        Properties metadata = new Properties();
+        metadata.setProperty(CaptureFormat.KEY_DETECTION, MotionEngines.BACKGROUND_MODEL);
+        metadata.setProperty(CaptureFormat.KEY_LENIENCY, "35");
+        metadata.setProperty(CaptureFormat.KEY_GRID, "6");
+        metadata.setProperty(CaptureFormat.KEY_DOWNSAMPLE, "2");
+        metadata.setProperty(CaptureFormat.KEY_MASK, CaptureFormat.formatMask(
+                new MotionMask(new int[][] { { -1, 0 }, { 0, 40 } })));
+        return metadata;
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        File file = File.createTempFile("capture", ".wpc");
+        try {
+            CaptureWriter writer = new CaptureWriter(file, WIDTH, HEIGHT, metadata(), 3);
+            assertTrue(writer.write(frame(0), WIDTH, HEIGHT, 1000));
+            // Frames of another size are skipped
+            assertTrue(writer.write(new byte[100], 10, 5, 1010));
+            assertTrue(writer.write(frame(1), WIDTH, HEIGHT, 1033));
+            assertFalse(writer.write(frame(2), WIDTH, HEIGHT, 1066));
+            assertTrue(writer.isClosed());
+
+            try (CaptureReader reader = new CaptureReader(file)) {
+                assertEquals(WIDTH, reader.getWidth());
+                assertEquals(HEIGHT, reader.getHeight());
+                assertEquals(3, reader.getFrameCount());
+                assertEquals(metadata(), reader.getMetadata());
+                long[] timestamps = new long[] { 1000, 1033, 1066 };
+                for (int pass = 0; pass < 2; pass++) {
+                    reader.rewind();
+                    for (int i = 0; i < timestamps.length; i++) {
+                        assertTrue(reader.next());
+                        assertEquals(timestamps[i], reader.getTimestamp());
+                        assertArrayEquals(frame(i), reader.getFrame());
+                    }
+                    assertFalse(reader.next());
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void stopsAtTruncatedFrame() throws IOException {
+        File file = File.createTempFile("capture", ".wpc");
+        try {
+            CaptureWriter writer = new CaptureWriter(file, WIDTH, HEIGHT, null, 10);
+            writer.write(frame(0), WIDTH, HEIGHT, 1);
+            writer.write(frame(1), WIDTH, HEIGHT, 2);
+            writer.close();
+            // As left behind by the app being killed half way through a frame
+            try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+                raw.setLength(raw.length() - 5);
+            }
+
+            try (CaptureReader reader = new CaptureReader(file)) {
+                assertEquals(1, reader.getFrameCount());
+                assertTrue(reader.next());
+                assertArrayEquals(frame(0), reader.getFrame());
+                assertFalse(reader.next());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void maskRoundTrip() {
+        int[][] rows = new int[][] { { -1, 0, 0 }, { 0, 20, -1 } };
+        String value = CaptureFormat.formatMask(new MotionMask(rows));
+        assertEquals("-1,0,0;0,20,-1", value);
+        int[][] parsed = CaptureFormat.parseMask(value).toRows();
+        assertEquals(2, parsed.length);
+        for (int y = 0; y < rows.length; y++) {
+            assertArrayEquals(rows[y], parsed[y]);
+        }
+        assertNull(CaptureFormat.parseMask(""));
+        assertNull(CaptureFormat.parseMask(null));
+    }
+
+    @Test
+    public void rejectsInvalidMask() {
+        try {
+            CaptureFormat.parseMask("-1,x;0,0");
+            fail("Accepted an invalid mask");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void optionsOverrideMetadata() {
+        MotionReplay replay = MotionReplay.parse(new String[] {
+                "--engine=integral_image", "--grid", "4", "--verbose", "capture.wpc" });
+        replay.defaults(metadata());
+        assertEquals(MotionEngines.INTEGRAL_IMAGE, replay.getEngine());
+        assertEquals(4, replay.getGrid());
+        // Not given, so taken from the capture
+        assertEquals(35, replay.getLeniency());
+        assertEquals(2, replay.getDownsample());
+        assertEquals(1000, replay.getMinLuma());
+        assertEquals("-1,0;0,40", CaptureFormat.formatMask(replay.getMask()));
+
+        replay = MotionReplay.parse(new String[] { "--mask=", "capture.wpc" });
+        replay.defaults(metadata());
+        assertNull(replay.getMask());
+    }
+
+    @Test
+    public void rejectsInvalidOptions() {
+        assertRejected("--speed", "2", "capture.wpc");
+        assertRejected("capture.wpc", "--grid");
+        assertRejected("--grid=many", "capture.wpc");
+    }
+
+    private static void assertRejected(String... args) {
+        try {
+            MotionReplay.parse(args);
+            fail("Accepted " + String.join(" ", args));
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ComparerTest {
+
+    @Test
+    public void stripedMatchesSequential() {
+        StripeExecutor executor = new StripeExecutor(3);
+        try {
+            Random random = new Random(1);
+            int[][] sizes = new int[][] { { 160, 120 }, { 163, 121 }, { 320, 240 } };
+            int[] grids = new int[] { 3, 10, 32 };
+            MotionMask mask = new MotionMask(new int[][] { { MotionMask.EXCLUDED, 5 }, { MotionMask.DEFAULT, 40 } });
+            for (int[] size : sizes) {
+                for (int grid : grids) {
+                    for (MotionMask m : new MotionMask[] { null, mask }) {
+                        int width = size[0];
+                        int height = size[1];
+                        Comparer sequential = new Comparer(grid, grid, 20, 2);
+                        sequential.setMask(m);
+                        Comparer striped = new Comparer(grid, grid, 20, 2);
+                        striped.setMask(m);
+                        striped.setExecutor(executor);
+                        striped.setStripeMinPixels(0);
+                        State previous = new State(frame(width, height, random, 0), width, height);
+                        for (int i = 0; i < 5; i++) {
+                            // From no change to every box changed
+                            State current = new State(frame(width, height, random, i * 10), width, height);
+                            String what = width + "x" + height + " grid " + grid + " frame " + i;
+                            assertEquals(what, sequential.compare(current, previous), striped.compare(current, previous));
+                            assertEquals(what, sequential.toString(), striped.toString());
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void stripesSameResultEveryTime() {
+        StripeExecutor executor = new StripeExecutor(3);
+        try {
+            Random random = new Random(2);
+            State first = new State(frame(320, 240, random, 0), 320, 240);
+            int[] changed = frame(320, 240, random, 0);
+            // One box in the last stripe changes, the merge must still see it
+            for (int y = 230; y < 240; y++) {
+                for (int x = 300; x < 320; x++) {
+                    changed[y * 320 + x] = 255;
+                }
+            }
+            State second = new State(changed, 320, 240);
+            Comparer comparer = new Comparer(16, 16, 20, 1);
+            comparer.setExecutor(executor);
+            String expected = null;
+            for (int i = 0; i < 50; i++) {
+                assertTrue(comparer.compare(second, first));
+                if (expected == null) expected = comparer.toString();
+                assertEquals(expected, comparer.toString());
+            }
+            assertTrue(expected.contains("X"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Random picture, shifted by noise levels so some boxes cross the leniency
+    private static int[] frame(int width, int height, Random random, int noise) {
+        Random base = new Random(width * 31 + height);
+        int[] luma = new int[width * height];
+        for (int i = 0; i < luma.length; i++) {
+            int value = base.nextInt(200);
+            luma[i] = noise == 0 ? value : value + random.nextInt(noise + 1) * ((i / width / 8) % 3);
+        }
+        return luma;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IntegralImageTest {
+
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    @Test
+    public void boxSumsMatchBruteForce() {
+        int[] luma = random(WIDTH, HEIGHT, 1);
+        IntegralImage image = new IntegralImage();
+        image.compute(luma, WIDTH, HEIGHT);
+
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            int x0 = random.nextInt(WIDTH + 1);
+            int x1 = x0 + random.nextInt(WIDTH + 1 - x0);
+            int y0 = random.nextInt(HEIGHT + 1);
+            int y1 = y0 + random.nextInt(HEIGHT + 1 - y0);
+            int expected = bruteForceSum(luma, x0, y0, x1, y1);
+            assertEquals(expected, image.sum(x0, y0, x1, y1));
+            int area = (x1 - x0) * (y1 - y0);
+            assertEquals(area == 0 ? 0 : expected / area, image.average(x0, y0, x1, y1));
+        }
+        assertEquals(bruteForceSum(luma, 0, 0, WIDTH, HEIGHT), image.sum(0, 0, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void cellAveragesCoverUnevenGrid() {
+        int[] luma = random(WIDTH, HEIGHT, 3);
+        IntegralImage image = new IntegralImage();
+        image.compute(luma, WIDTH, HEIGHT);
+        int[] cells = new int[5 * 4];
+        image.cellAverages(5, 4, cells);
+        for (int cy = 0, i = 0; cy < 4; cy++) {
+            for (int cx = 0; cx < 5; cx++, i++) {
+                int x0 = cx * WIDTH / 5;
+                int x1 = (cx + 1) * WIDTH / 5;
+                int y0 = cy * HEIGHT / 4;
+                int y1 = (cy + 1) * HEIGHT / 4;
+                assertEquals(bruteForceSum(luma, x0, y0, x1, y1) / ((x1 - x0) * (y1 - y0)), cells[i]);
+            }
+        }
+
+        // A new image of the same size re-uses the table
+        int[] flat = new int[WIDTH * HEIGHT];
+        Arrays.fill(flat, 9);
+        image.compute(flat, WIDTH, HEIGHT);
+        assertEquals(9 * WIDTH * HEIGHT, image.sum(0, 0, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void agreesWithAggregateLuma() {
+        // 40x30 splits evenly into the 10x10 grid both detectors default to
+        int width = 40;
+        int height = 30;
+        int[] background = random(width, height, 4);
+        int[] noise = background.clone();
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = Math.min(255, noise[i] + (i & 7));
+        }
+        int[] moved = background.clone();
+        for (int y = 9; y < 12; y++) {
+            for (int x = 20; x < 24; x++) {
+                moved[y * width + x] = 255;
+            }
+        }
+
+        AggregateLumaMotionDetection aggregate = new AggregateLumaMotionDetection();
+        IntegralImageMotionDetection integral = new IntegralImageMotionDetection();
+        int[][] frames = new int[][] { background, noise, background, moved, moved, background };
+        boolean[] expected = new boolean[] { false, false, false, true, false, true };
+        for (int i = 0; i < frames.length; i++) {
+            assertEquals("frame " + i, expected[i], aggregate.detect(frames[i], width, height));
+            assertEquals("frame " + i, expected[i], integral.detect(frames[i], width, height));
+        }
+        assertTrue(integral.getPrevious().length == 100);
+    }
+
+    private static int bruteForceSum(int[] luma, int x0, int y0, int x1, int y1) {
+        int sum = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                sum += luma[y * WIDTH + x];
+            }
+        }
+        return sum;
+    }
+
+    private static int[] random(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] luma = new int[width * height];
+        for (int i = 0; i < luma.length; i++) {
+            luma[i] = random.nextInt(256);
+        }
+        return luma;
+    }
+}
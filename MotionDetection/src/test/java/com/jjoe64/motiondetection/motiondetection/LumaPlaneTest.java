@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LumaPlaneTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void fullResolutionMatchesDecode() {
+        byte[] nv21 = random(WIDTH, HEIGHT, 1);
+        int[] expected = ImageProcessing.decodeYUV420SPtoLuma(nv21, WIDTH, HEIGHT);
+        for (int mode : new int[] { LumaPlane.MODE_STRIDE, LumaPlane.MODE_BOX }) {
+            LumaPlane plane = new LumaPlane(1, mode);
+            assertArrayEquals(expected, plane.sample(nv21, WIDTH, HEIGHT));
+            assertEquals(WIDTH, plane.getWidth());
+            assertEquals(HEIGHT, plane.getHeight());
+        }
+    }
+
+    @Test
+    public void strideTakesFirstPixelOfEachBlock() {
+        byte[] nv21 = random(WIDTH, HEIGHT, 2);
+        for (int factor : new int[] { 2, 4, 8 }) {
+            LumaPlane plane = new LumaPlane(factor, LumaPlane.MODE_STRIDE);
+            int[] luma = plane.sample(nv21, WIDTH, HEIGHT);
+            assertEquals(WIDTH / factor, plane.getWidth());
+            assertEquals(HEIGHT / factor, plane.getHeight());
+            for (int j = 0, xy = 0; j < plane.getHeight(); j++) {
+                for (int i = 0; i < plane.getWidth(); i++, xy++) {
+                    assertEquals(luma(nv21[j * factor * WIDTH + i * factor]), luma[xy]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boxAveragesEachBlock() {
+        byte[] nv21 = random(WIDTH, HEIGHT, 3);
+        for (int factor : new int[] { 2, 4, 8 }) {
+            LumaPlane plane = new LumaPlane(factor, LumaPlane.MODE_BOX);
+            int[] luma = plane.sample(nv21, WIDTH, HEIGHT);
+            for (int j = 0, xy = 0; j < plane.getHeight(); j++) {
+                for (int i = 0; i < plane.getWidth(); i++, xy++) {
+                    int sum = 0;
+                    for (int y = 0; y < factor; y++) {
+                        for (int x = 0; x < factor; x++) {
+                            sum += 0xff & nv21[(j * factor + y) * WIDTH + i * factor + x];
+                        }
+                    }
+                    assertEquals(Math.max(0, sum / (factor * factor) - 16), luma[xy]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void statisticsCoverSampledPlane() {
+        byte[] nv21 = random(WIDTH, HEIGHT, 4);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            nv21[i] = (byte) (20 + (0xff & nv21[i]) % 200);
+        }
+        // Below the offset of 16 clamps to 0
+        nv21[0] = 5;
+        nv21[8] = (byte) 250;
+        LumaPlane plane = new LumaPlane(8, LumaPlane.MODE_STRIDE);
+        int[] luma = plane.sample(nv21, WIDTH, HEIGHT);
+        long sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int y : luma) {
+            sum += y;
+            min = Math.min(min, y);
+            max = Math.max(max, y);
+        }
+        assertEquals(0, plane.getMin());
+        assertEquals(0, min);
+        assertEquals(234, plane.getMax());
+        assertEquals(max, plane.getMax());
+        assertEquals(sum / luma.length, plane.getMean());
+    }
+
+    @Test
+    public void scaledSumIsFullResolution() {
+        // Constant blocks so every factor sees the same picture
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21[y * WIDTH + x] = (byte) (16 + ((x >> 3) + (y >> 3)) * 10);
+            }
+        }
+        LumaPlane full = new LumaPlane(1, LumaPlane.MODE_STRIDE);
+        full.sample(nv21, WIDTH, HEIGHT);
+        long expected = full.getScaledSum();
+        assertEquals(sum(ImageProcessing.decodeYUV420SPtoLuma(nv21, WIDTH, HEIGHT)), expected);
+        for (int factor : new int[] { 2, 4, 8 }) {
+            for (int mode : new int[] { LumaPlane.MODE_STRIDE, LumaPlane.MODE_BOX }) {
+                LumaPlane plane = new LumaPlane(factor, mode);
+                plane.sample(nv21, WIDTH, HEIGHT);
+                assertEquals(expected, plane.getScaledSum());
+            }
+        }
+    }
+
+    @Test
+    public void targetWidthFollowsFrameSize() {
+        LumaPlane plane = new LumaPlane(1, LumaPlane.MODE_STRIDE);
+        plane.setTargetWidth(160);
+        // The same plane gets 640x480 and 1280x720 frames, both end up about 160 wide
+        plane.sample(new byte[640 * 480 * 3 / 2], 640, 480);
+        assertEquals(4, plane.getFactor());
+        assertEquals(160, plane.getWidth());
+        plane.sample(new byte[1280 * 720 * 3 / 2], 1280, 720);
+        assertEquals(8, plane.getFactor());
+        assertEquals(160, plane.getWidth());
+        assertEquals(90, plane.getHeight());
+        // Smaller than the target is used as it is
+        plane.sample(new byte[WIDTH * HEIGHT * 3 / 2], WIDTH, HEIGHT);
+        assertEquals(1, plane.getFactor());
+        assertEquals(WIDTH, plane.getWidth());
+
+        FrameAnalysis analysis = new FrameAnalysis(1, LumaPlane.MODE_STRIDE);
+        analysis.setTargetWidth(160);
+        analysis.update(1, new byte[1280 * 720 * 3 / 2], 1280, 720);
+        assertEquals(160, analysis.getPlane().getWidth());
+        assertEquals(8, analysis.getFactor());
+    }
+
+    private static long sum(int[] luma) {
+        long sum = 0;
+        for (int y : luma) {
+            sum += y;
+        }
+        return sum;
+    }
+
+    private static int luma(byte y) {
+        return Math.max(0, (0xff & y) - 16);
+    }
+
+    private static byte[] random(int width, int height, long seed) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+}
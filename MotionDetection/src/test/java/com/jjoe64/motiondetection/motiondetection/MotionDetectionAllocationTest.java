@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Steady state motion detection must not allocate per frame.
+ */
+public class MotionDetectionAllocationTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int WARMUP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 500;
+
+    @Test
+    public void aggregateLumaDetectionDoesNotAllocate() {
+        AggregateLumaMotionDetection detection = new AggregateLumaMotionDetection();
+        assertEquals(0, allocatedBytes(detection, new long[0]));
+    }
+
+    @Test
+    public void integralImageDetectionDoesNotAllocate() {
+        IntegralImageMotionDetection detection = new IntegralImageMotionDetection();
+        detection.setGrid(32, 32);
+        assertEquals(0, allocatedBytes(detection, new long[0]));
+    }
+
+    @Test
+    public void stripedDetectionDoesNotAllocate() {
+        // Workers of pools other tests shut down may still be exiting
+        Set<Thread> others = stripeThreads();
+        StripeExecutor executor = new StripeExecutor(3);
+        try {
+            Set<Thread> workers = stripeThreads();
+            workers.removeAll(others);
+            long[] ids = new long[workers.size()];
+            int i = 0;
+            for (Thread worker : workers) {
+                ids[i++] = worker.getId();
+            }
+            AggregateLumaMotionDetection detection = new AggregateLumaMotionDetection();
+            detection.setExecutor(executor);
+            assertEquals(0, allocatedBytes(detection, ids));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Bytes allocated while detecting, on the calling thread and on the given
+     * stripe workers.
+     */
+    private static long allocatedBytes(IMotionDetection detection, long[] workers) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        int[][] frames = new int[][] { frame(0), frame(40) };
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            detection.detect(frames[i & 1], WIDTH, HEIGHT);
+        }
+
+        long[] workersBefore = threadBean.getThreadAllocatedBytes(workers);
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            detection.detect(frames[i & 1], WIDTH, HEIGHT);
+        }
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+        long[] workersAfter = threadBean.getThreadAllocatedBytes(workers);
+
+        long allocated = after - before;
+        for (int i = 0; i < workers.length; i++) {
+            allocated += workersAfter[i] - workersBefore[i];
+        }
+        return allocated;
+    }
+
+    private static Set<Thread> stripeThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("MotionStripe-")) threads.add(thread);
+        }
+        return threads;
+    }
+
+    private static int[] frame(int offset) {
+        int[] luma = new int[WIDTH * HEIGHT];
+        for (int y = 0, xy = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++, xy++) {
+                luma[xy] = ((x + y + offset) & 0xff) % 220;
+            }
+        }
+        return luma;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MotionMaskTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    @Test
+    public void zonesAreFoundByBoxCentre() {
+        MotionMask mask = new MotionMask(new int[][] {
+                { MotionMask.EXCLUDED, MotionMask.DEFAULT, 50 },
+                { 10, MotionMask.DEFAULT, MotionMask.EXCLUDED } });
+
+        // Same grid as the mask
+        assertEquals(MotionMask.EXCLUDED, mask.leniencyAt(0, 0, 3, 2, 20));
+        assertEquals(20, mask.leniencyAt(1, 0, 3, 2, 20));
+        assertEquals(50, mask.leniencyAt(2, 0, 3, 2, 20));
+        assertEquals(10, mask.leniencyAt(0, 1, 3, 2, 20));
+
+        // A 4x4 grid: box 1 has its centre at 3/8 of the width, inside zone 1
+        // even though it starts in zone 0
+        int[] boxes = new int[16];
+        mask.resolve(4, 4, 20, boxes);
+        assertArrayEquals(new int[] {
+                -1, 20, 20, 50,
+                -1, 20, 20, 50,
+                10, 20, 20, -1,
+                10, 20, 20, -1 }, boxes);
+
+        // A grid coarser than the mask takes the zone under each centre
+        int[] single = new int[1];
+        mask.resolve(1, 1, 20, single);
+        assertEquals(20, single[0]);
+    }
+
+    @Test
+    public void boxesStraddlingZoneEdgesReadAllTheirPixels() {
+        // The middle zone is excluded but both boxes of a 2x1 grid have their
+        // centre in an included zone, so the change under the middle zone
+        // still counts across the whole of each box
+        MotionMask mask = new MotionMask(new int[][] {
+                { MotionMask.DEFAULT, MotionMask.EXCLUDED, MotionMask.DEFAULT } });
+        assertArrayEquals(new int[] { MotionMask.DEFAULT, MotionMask.EXCLUDED, MotionMask.DEFAULT },
+                mask.toRows()[0]);
+        for (IMotionDetection detection : masked(mask, 2, 1)) {
+            assertTrue(!detection.detect(frame(100, 100), WIDTH, HEIGHT));
+            assertTrue(name(detection), detection.detect(middle(100, 180), WIDTH, HEIGHT));
+        }
+    }
+
+    @Test
+    public void excludedCellsAreSkipped() {
+        // Left half excluded, a change there is never motion for any engine
+        MotionMask mask = new MotionMask(new int[][] { { MotionMask.EXCLUDED, MotionMask.DEFAULT } });
+        for (IMotionDetection detection : masked(mask)) {
+            assertTrue(!detection.detect(frame(100, 100), WIDTH, HEIGHT));
+            assertTrue(name(detection), !detection.detect(frame(200, 100), WIDTH, HEIGHT));
+            assertTrue(name(detection), detection.detect(frame(200, 200), WIDTH, HEIGHT));
+        }
+    }
+
+    @Test
+    public void zonesHaveTheirOwnLeniency() {
+        // Right half only reacts to changes over 60, left half uses the default of 20
+        MotionMask mask = new MotionMask(new int[][] { { MotionMask.DEFAULT, 60 } });
+        for (IMotionDetection detection : masked(mask)) {
+            assertTrue(!detection.detect(frame(100, 100), WIDTH, HEIGHT));
+            assertTrue(name(detection), !detection.detect(frame(100, 150), WIDTH, HEIGHT));
+            assertTrue(name(detection), detection.detect(frame(100, 220), WIDTH, HEIGHT));
+            assertTrue(name(detection), detection.detect(frame(130, 220), WIDTH, HEIGHT));
+        }
+    }
+
+    @Test
+    public void rejectsMalformedMasks() {
+        assertRejected(new int[0][]);
+        assertRejected(new int[][] { { 0, 0 }, { 0 } });
+        assertRejected(new int[][] { { -2 } });
+    }
+
+    private static void assertRejected(int[][] rows) {
+        try {
+            new MotionMask(rows);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError("Accepted " + Arrays.deepToString(rows));
+    }
+
+    private static IMotionDetection[] masked(MotionMask mask) {
+        AggregateLumaMotionDetection aggregate = new AggregateLumaMotionDetection();
+        aggregate.setMask(mask);
+        IntegralImageMotionDetection integral = new IntegralImageMotionDetection();
+        integral.setMask(mask);
+        return new IMotionDetection[] { aggregate, integral };
+    }
+
+    private static IMotionDetection[] masked(MotionMask mask, int xBoxes, int yBoxes) {
+        AggregateLumaMotionDetection aggregate = new AggregateLumaMotionDetection();
+        aggregate.setGrid(xBoxes, yBoxes);
+        aggregate.setMask(mask);
+        IntegralImageMotionDetection integral = new IntegralImageMotionDetection();
+        integral.setGrid(xBoxes, yBoxes);
+        integral.setMask(mask);
+        return new IMotionDetection[] { aggregate, integral };
+    }
+
+    private static String name(IMotionDetection detection) {
+        return detection.getClass().getSimpleName();
+    }
+
+    // Columns under the middle zone of three at their own luma
+    private static int[] middle(int outside, int inside) {
+        int[] luma = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            Arrays.fill(luma, y * WIDTH, (y + 1) * WIDTH, outside);
+            Arrays.fill(luma, y * WIDTH + 14, y * WIDTH + 26, inside);
+        }
+        return luma;
+    }
+
+    // Left and right halves at their own luma
+    private static int[] frame(int left, int right) {
+        int[] luma = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            Arrays.fill(luma, y * WIDTH, y * WIDTH + WIDTH / 2, left);
+            Arrays.fill(luma, y * WIDTH + WIDTH / 2, (y + 1) * WIDTH, right);
+        }
+        return luma;
+    }
+}
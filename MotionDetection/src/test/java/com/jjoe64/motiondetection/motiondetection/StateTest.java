@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StateTest {
+
+    @Test
+    public void keepsFrameWhenCallerReusesBuffer() {
+        int[] buffer = new int[] { 1, 2, 3, 4 };
+        State state = new State(buffer, 2, 2);
+        int[] map = state.getMap();
+        Arrays.fill(buffer, 200);
+        assertEquals(1, state.getMap()[0]);
+
+        state.set(buffer, 2, 2);
+        assertTrue(state.getMap() == map);
+        assertEquals(200, state.getMap()[3]);
+    }
+
+    @Test
+    public void detectsMotionWithReusedBuffer() {
+        // The way LumaPlane hands frames over, one array for every frame
+        int width = 40;
+        int height = 30;
+        int[] buffer = new int[width * height];
+        AggregateLumaMotionDetection detection = new AggregateLumaMotionDetection();
+        Arrays.fill(buffer, 50);
+        assertTrue(!detection.detect(buffer, width, height));
+        assertTrue(!detection.detect(buffer, width, height));
+        Arrays.fill(buffer, 150);
+        assertTrue(detection.detect(buffer, width, height));
+        assertTrue(!detection.detect(buffer, width, height));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class StripeExecutorTest {
+
+    @Test
+    public void runsEveryTask() {
+        StripeExecutor executor = new StripeExecutor(3);
+        try {
+            final AtomicInteger runs = new AtomicInteger();
+            Runnable[] tasks = new Runnable[4];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = new Runnable() {
+                    @Override
+                    public void run() {
+                        runs.incrementAndGet();
+                    }
+                };
+            }
+            for (int i = 0; i < 100; i++) {
+                executor.invokeAll(tasks, 4);
+                executor.invokeAll(tasks, 2);
+            }
+            assertEquals(600, runs.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void callerFailureWaitsForStripes() {
+        StripeExecutor executor = new StripeExecutor(2);
+        try {
+            final AtomicInteger finished = new AtomicInteger();
+            Runnable slow = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.incrementAndGet();
+                }
+            };
+            final IllegalStateException failure = new IllegalStateException("caller stripe");
+            Runnable failing = new Runnable() {
+                @Override
+                public void run() {
+                    throw failure;
+                }
+            };
+            try {
+                executor.invokeAll(new Runnable[] { slow, slow, failing }, 3);
+                fail("Caller stripe failure was swallowed");
+            } catch (IllegalStateException e) {
+                assertSame(failure, e);
+            }
+            // Both pool stripes were done before the failure reached us
+            assertEquals(2, finished.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void poolFailureIsRethrown() {
+        StripeExecutor executor = new StripeExecutor(2);
+        try {
+            final IllegalStateException failure = new IllegalStateException("pool stripe");
+            Runnable failing = new Runnable() {
+                @Override
+                public void run() {
+                    throw failure;
+                }
+            };
+            Runnable nothing = new Runnable() {
+                @Override
+                public void run() {
+                }
+            };
+            try {
+                executor.invokeAll(new Runnable[] { failing, nothing, nothing }, 3);
+                fail("Pool stripe failure was swallowed");
+            } catch (IllegalStateException e) {
+                assertSame(failure, e);
+            }
+            // The pool keeps working after a failure
+            executor.invokeAll(new Runnable[] { nothing, nothing, nothing }, 3);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
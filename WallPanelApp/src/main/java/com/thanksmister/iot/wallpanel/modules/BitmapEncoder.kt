@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.modules
+
+import android.graphics.Bitmap
+import com.thanksmister.iot.wallpanel.camera.FrameEncoder
+import java.io.ByteArrayOutputStream
+
+/**
+ * The original encoder, converts each frame to an ARGB_8888 [Bitmap] with RenderScript and
+ * compresses the bitmap. Kept for devices where [YuvImageEncoder] misbehaves. The conversion
+ * context is shared by every stream variant and owned by whoever created it, so releasing the
+ * encoder leaves it alone.
+ */
+class BitmapEncoder(private val conversionContext: YuvConversionContext) : FrameEncoder {
+
+    private val stream = ByteArrayOutputStream(64 * 1024)
+
+    override fun encode(nv21: ByteArray, width: Int, height: Int, quality: Int): ByteArray {
+        val bitmap = conversionContext.convert(nv21, width, height)
+        stream.reset()
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream)
+        return stream.toByteArray()
+    }
+
+    override fun release() {
+        stream.reset()
+    }
+}
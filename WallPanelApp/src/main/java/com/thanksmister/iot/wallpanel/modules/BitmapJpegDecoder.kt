@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.modules
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import com.thanksmister.iot.wallpanel.camera.JpegDecoder
+import java.io.IOException
+
+/**
+ * Decodes network camera frames with [BitmapFactory], decoding into the previous bitmap and
+ * pixel array while the frame size stays the same. Used from the frame source thread only.
+ */
+class BitmapJpegDecoder : JpegDecoder {
+
+    private val options = BitmapFactory.Options()
+    private var pixels = IntArray(0)
+
+    init {
+        options.inMutable = true
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888
+    }
+
+    @Throws(IOException::class)
+    override fun decode(jpeg: ByteArray, length: Int, size: IntArray): IntArray {
+        val bitmap = try {
+            BitmapFactory.decodeByteArray(jpeg, 0, length, options)
+        } catch (e: IllegalArgumentException) {
+            // The frame changed size and cannot go into the old bitmap
+            options.inBitmap = null
+            BitmapFactory.decodeByteArray(jpeg, 0, length, options)
+        } ?: throw IOException("Could not decode MJPEG frame")
+        options.inBitmap = bitmap
+        val width = bitmap.width
+        val height = bitmap.height
+        if (pixels.size != width * height) {
+            pixels = IntArray(width * height)
+        }
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height)
+        size[0] = width
+        size[1] = height
+        return pixels
+    }
+}
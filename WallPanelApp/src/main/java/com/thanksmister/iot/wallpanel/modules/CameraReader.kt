@@ -18,16 +18,13 @@ package com.thanksmister.iot.wallpanel.modules
 
 import android.annotation.SuppressLint
 import android.content.Context
-import android.graphics.Bitmap
-import android.graphics.Matrix
+import android.graphics.ImageFormat
 import android.hardware.Camera
-import android.os.AsyncTask
-import android.os.Handler
-import android.renderscript.*
+import android.hardware.display.DisplayManager
+import android.os.Build
+import android.view.Display
 import android.view.Surface
 import android.view.WindowManager
-import androidx.lifecycle.LiveData
-import androidx.lifecycle.MutableLiveData
 import com.google.android.gms.vision.*
 import com.google.android.gms.vision.CameraSource.CAMERA_FACING_BACK
 import com.google.android.gms.vision.CameraSource.CAMERA_FACING_FRONT
@@ -36,12 +33,34 @@ import com.google.android.gms.vision.barcode.BarcodeDetector
 import com.google.android.gms.vision.face.Face
 import com.google.android.gms.vision.face.FaceDetector
 import com.google.android.gms.vision.face.LargestFaceFocusingProcessor
+import com.jjoe64.motiondetection.motiondetection.CaptureFormat
+import com.jjoe64.motiondetection.motiondetection.CaptureWriter
+import com.jjoe64.motiondetection.motiondetection.FrameAnalysis
+import com.jjoe64.motiondetection.motiondetection.LumaPlane
+import com.thanksmister.iot.wallpanel.camera.CaptureFrameSource
+import com.thanksmister.iot.wallpanel.camera.CaptureSizes
+import com.thanksmister.iot.wallpanel.camera.FrameReducer
+import com.thanksmister.iot.wallpanel.camera.FrameSource
+import com.thanksmister.iot.wallpanel.camera.FrameTracer
+import com.thanksmister.iot.wallpanel.camera.JpegEncoder
+import com.thanksmister.iot.wallpanel.camera.MjpegFrameSource
+import com.thanksmister.iot.wallpanel.camera.Nv21Transform
+import com.thanksmister.iot.wallpanel.camera.SnapshotCache
+import com.thanksmister.iot.wallpanel.camera.StreamEncoder
+import com.thanksmister.iot.wallpanel.camera.StreamFanout
+import com.thanksmister.iot.wallpanel.camera.StreamVariant
+import com.thanksmister.iot.wallpanel.camera.SyntheticFrameSource
 import com.thanksmister.iot.wallpanel.persistence.Configuration
 import com.thanksmister.iot.wallpanel.ui.views.CameraSourcePreview
+import org.json.JSONException
 import timber.log.Timber
-import java.io.ByteArrayOutputStream
+import java.io.File
 import java.io.IOException
-import java.lang.ref.WeakReference
+import java.net.URL
+import java.nio.ByteBuffer
+import java.util.HashSet
+import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 
 
@@ -55,24 +74,155 @@ constructor(private val context: Context) {
     private var multiDetector: MultiDetector? = null
     private var streamDetector: StreamingDetector? = null
     private var cameraSource: CameraSource? = null
+    // Set instead of cameraSource when frames come from somewhere other than the device camera
+    private var frameSource: FrameSource? = null
+    private var externalFrames = false
+    @Volatile private var frameWidth: Int = 0
+    @Volatile private var frameHeight: Int = 0
     private var faceDetectorProcessor: LargestFaceFocusingProcessor? = null
     private var barCodeDetectorProcessor: MultiProcessor<Barcode>? = null
     private var motionDetectorProcessor: MultiProcessor<Motion>? = null
     private var streamDetectorProcessor: MultiProcessor<Stream>? = null
-    private val byteArray = MutableLiveData<ByteArray>()
-    private var bitmapComplete = true;
-    private var byteArrayCreateTask: ByteArrayTask? = null
+    private var frameAnalysis: FrameAnalysis? = null
+    private var streamEncoder: StreamEncoder? = null
     private var cameraOrientation: Int = 0
+    // Preview size asked of the camera, streamed as it is while the detectors get it reduced
+    private var previewSize = intArrayOf(CaptureSizes.FALLBACK_WIDTH, CaptureSizes.FALLBACK_HEIGHT)
+    private val supportedSizes = HashMap<Int, Array<IntArray>>()
+    private var cameraRotate: Int = 0
+    @Volatile private var streamRotation: Int = 0
+    private var displayListener: DisplayManager.DisplayListener? = null
     private var cameraPreview: CameraSourcePreview? = null
-    private val bitmapCompleteHandler = Handler()
-    private val bitcoinCompleteRunnable = Runnable { bitmapComplete = true }
+    private val streamConsumers = ConcurrentHashMap<Any, StreamVariant>()
+    // Frames go to stream clients straight from the encoder thread, never through the main thread
+    private val streamFanout = StreamFanout(STREAM_QUEUE_FRAMES, STREAM_MAX_BACKLOG, StreamFanout.Listener {
+        removeStreamConsumer(it)
+    })
+    @Volatile private var frameRequested = false
+    private val snapshots = SnapshotCache(System.currentTimeMillis())
+    private val tracer = FrameTracer.getShared()
+
+    // Called from the encoder thread
+    private fun setJpeg(value: ByteArray, frameId: Long, variant: StreamVariant) {
+        tracer.mark(FrameTracer.STAGE_ENCODE, frameId)
+        streamFanout.publish(variant, value)
+        if (variant == DEFAULT_VARIANT) {
+            snapshots.update(value, System.currentTimeMillis())
+            if (frameRequested) {
+                frameRequested = false
+                updateStreamVariants()
+            }
+        }
+    }
+
+    /**
+     * The latest frame of the default variant, for still snapshots.
+     */
+    fun getSnapshots(): SnapshotCache {
+        return snapshots
+    }
+
+    /**
+     * The stream variant closest to a requested width, 0 for full size, given the current preview
+     * size and rotation. Before the first frame the size asked of the camera stands in for it, so
+     * a client connecting at startup is not stuck on full size.
+     */
+    fun streamVariant(width: Int, quality: Int): StreamVariant {
+        val size = frameSize() ?: previewSize
+        val rotatedWidth = if (streamRotation == 90 || streamRotation == 270) size[1] else size[0]
+        return StreamVariant.forWidth(rotatedWidth, width, quality)
+    }
 
-    fun getJpeg(): LiveData<ByteArray> {
-        return byteArray
+    /**
+     * The encoder thread for streamed frames, for its frame counters, or null when not streaming.
+     */
+    fun getStreamEncoder(): StreamEncoder? {
+        return streamEncoder
     }
 
-    private fun setJpeg(value: ByteArray) {
-        this.byteArray.value = value
+    /**
+     * Add a streaming client for [variant]. Frames are handed to its connection as they are encoded
+     * until it is removed from the fanout, by closing or by falling too far behind.
+     */
+    fun addStreamClient(connection: StreamFanout.Connection, variant: StreamVariant): StreamFanout.Client {
+        val client = streamFanout.add(connection, variant)
+        addStreamConsumer(client, variant)
+        return client
+    }
+
+    /**
+     * The streaming clients and their counters.
+     */
+    fun getStreamFanout(): StreamFanout {
+        return streamFanout
+    }
+
+    /**
+     * Register something that reads encoded frames for [variant], such as a stream client. A variant is
+     * only encoded while at least one consumer is registered for it, or for the default variant
+     * when a single frame was asked for with [requestFrame].
+     */
+    fun addStreamConsumer(consumer: Any, variant: StreamVariant = DEFAULT_VARIANT) {
+        if (streamConsumers.put(consumer, variant) != variant) {
+            Timber.d("Stream consumers: ${streamConsumers.size}")
+            updateStreamVariants()
+        }
+    }
+
+    fun removeStreamConsumer(consumer: Any) {
+        if (streamConsumers.remove(consumer) != null) {
+            Timber.d("Stream consumers: ${streamConsumers.size}")
+            updateStreamVariants()
+        }
+    }
+
+    /**
+     * Encode the next frame even if no consumer is registered, for one-off snapshots.
+     */
+    fun requestFrame() {
+        frameRequested = true
+        updateStreamVariants()
+    }
+
+    private fun updateStreamVariants() {
+        val variants = HashSet<StreamVariant>(streamConsumers.values)
+        if (frameRequested) {
+            variants.add(DEFAULT_VARIANT)
+        }
+        streamEncoder?.setVariants(variants)
+    }
+
+    /**
+     * Record the next [frames] preview frames to [file], together with the current motion settings,
+     * so they can be replayed off the device with the MotionReplay tool. Frames are taken from the
+     * motion detector, so this returns false unless motion detection is running.
+     */
+    @Throws(IOException::class)
+    fun startCapture(file: File, frames: Int, configuration: Configuration): Boolean {
+        val detector = motionDetector ?: return false
+        val size = frameSize() ?: return false
+        val metadata = Properties()
+        metadata.setProperty(CaptureFormat.KEY_DEVICE, Build.MODEL)
+        metadata.setProperty(CaptureFormat.KEY_ORIENTATION, cameraOrientation.toString())
+        metadata.setProperty(CaptureFormat.KEY_FPS, configuration.cameraFPS.toString())
+        metadata.setProperty(CaptureFormat.KEY_DETECTION, configuration.cameraMotionDetection)
+        metadata.setProperty(CaptureFormat.KEY_LENIENCY, configuration.cameraMotionLeniency.toString())
+        metadata.setProperty(CaptureFormat.KEY_MIN_LUMA, configuration.cameraMotionMinLuma.toString())
+        metadata.setProperty(CaptureFormat.KEY_GRID, configuration.cameraMotionGridSize.toString())
+        metadata.setProperty(CaptureFormat.KEY_DOWNSAMPLE, detector.downsample.toString())
+        try {
+            MotionDetector.parseMask(configuration.cameraMotionMask)?.let {
+                metadata.setProperty(CaptureFormat.KEY_MASK, CaptureFormat.formatMask(it))
+            }
+        } catch (e: JSONException) {
+            // the detector runs without a mask as well, see buildDetectors
+        }
+        file.parentFile?.mkdirs()
+        val previous = detector.capture
+        detector.capture = CaptureWriter(file, size[0], size[1], metadata, frames)
+        previous?.close()
+        Timber.d("Capturing $frames frames to ${file.absolutePath}")
+        return true
     }
 
     fun stopCamera() {
@@ -81,10 +231,17 @@ constructor(private val context: Context) {
         cameraPreview?.stop()
         cameraPreview = null
         
-        bitmapCompleteHandler.removeCallbacks(bitcoinCompleteRunnable)
+        displayListener?.let {
+            (context.getSystemService(Context.DISPLAY_SERVICE) as DisplayManager).unregisterDisplayListener(it)
+        }
+        displayListener = null
 
-        byteArrayCreateTask?.cancel(true)
-        byteArrayCreateTask = null
+        // The encoder thread finishes any frame it is on before releasing the encoder
+        streamEncoder?.stop()
+        streamEncoder = null
+
+        frameSource?.stop()
+        frameSource = null
 
         cameraSource?.release()
         cameraSource = null
@@ -115,6 +272,8 @@ constructor(private val context: Context) {
 
         streamDetectorProcessor?.release()
         streamDetectorProcessor = null
+
+        frameAnalysis = null
     }
 
     @SuppressLint("MissingPermission")
@@ -123,6 +282,10 @@ constructor(private val context: Context) {
         this.cameraCallback = callback
         if (configuration.cameraEnabled) {
             buildDetectors(configuration)
+            if (configuration.cameraFrameSource != FRAME_SOURCE_CAMERA) {
+                startFrameSource(configuration)
+                return
+            }
             multiDetector?.let {
                 try {
                     cameraSource = initCamera(configuration.cameraId, configuration.cameraFPS)
@@ -255,53 +418,90 @@ constructor(private val context: Context) {
     }
 
     private fun buildDetectors(configuration: Configuration) {
-        val info = Camera.CameraInfo()
-        try {
-            Camera.getCameraInfo(configuration.cameraId, info)
-        } catch (e: RuntimeException) {
-            Timber.e(e.message)
-            cameraCallback?.onCameraError()
-            return
+        externalFrames = configuration.cameraFrameSource != FRAME_SOURCE_CAMERA
+        previewSize = if (externalFrames) {
+            intArrayOf(CaptureSizes.FALLBACK_WIDTH, CaptureSizes.FALLBACK_HEIGHT)
+        } else {
+            CaptureSizes.choosePreview(supportedPreviewSizes(configuration.cameraId),
+                    configuration.cameraPreviewWidth, configuration.cameraPreviewHeight)
         }
-        cameraOrientation = info.orientation
+        if (!externalFrames) {
+            val info = Camera.CameraInfo()
+            try {
+                Camera.getCameraInfo(configuration.cameraId, info)
+            } catch (e: RuntimeException) {
+                Timber.e(e.message)
+                cameraCallback?.onCameraError()
+                return
+            }
+            cameraOrientation = info.orientation
+        } else {
+            // Other sources deliver their frames upright
+            cameraOrientation = 0
+        }
+        // Every detector reads the frame through one analysis, so the luma plane and brightness
+        // are worked out once per frame however many detectors are running.
+        // Motion works at the same width whatever the preview size, face and QR detection get at
+        // most what they had before the preview size could be raised, reduced once per frame.
+        // The reduction is picked from the frames as they arrive, the camera may not give the size
+        // asked for and other sources send whatever size they have.
+        val detectorWidth = configuration.cameraDetectorWidth
+        val analysis = FrameAnalysis(1, LumaPlane.MODE_STRIDE)
+        analysis.setTargetWidth(detectorWidth)
+        val reducer = FrameReducer(CaptureSizes.FALLBACK_WIDTH)
+        frameAnalysis = analysis
         val multiDetectorBuilder = MultiDetector.Builder()
         var detectorAdded = false
         if (configuration.cameraEnabled && configuration.httpMJPEGEnabled) {
-            val renderScript = RenderScript.create(this.context)
-            streamDetector = StreamingDetector.Builder().build()
+            streamEncoder?.stop()
+            val encoderName = configuration.cameraStreamEncoder
+            // Created and released on the encoder thread, shared by the encoders of every variant
+            var conversionContext: YuvConversionContext? = null
+            val factory = StreamEncoder.Factory {
+                when (encoderName) {
+                    ENCODER_JAVA -> JpegEncoder()
+                    ENCODER_BITMAP -> {
+                        val shared = conversionContext ?: YuvConversionContext(context)
+                        conversionContext = shared
+                        BitmapEncoder(shared)
+                    }
+                    else -> YuvImageEncoder()
+                }
+            }
+            val encoder = StreamEncoder(factory, object : StreamEncoder.Listener {
+                override fun onFrame(jpeg: ByteArray, frameId: Long, variant: StreamVariant) {
+                    setJpeg(jpeg, frameId, variant)
+                }
+                override fun onError(e: Exception, variant: StreamVariant, failures: Int) {
+                    Timber.w(e, "Could not encode $variant, $failures frames in a row skipped")
+                }
+                override fun onStopped() {
+                    conversionContext?.release()
+                    conversionContext = null
+                }
+            })
+            streamEncoder = encoder
+            updateStreamVariants()
+            encoder.start()
+            cameraRotate = configuration.cameraRotate.toInt()
+            updateStreamRotation()
+            watchDisplayRotation()
+            streamDetector = StreamingDetector.Builder()
+                    .setAnalysis(analysis)
+                    .build()
             streamDetectorProcessor = MultiProcessor.Builder<Stream> {
                 object : Tracker<Stream>() {
                     override fun onUpdate(p0: Detector.Detections<Stream>, stream: Stream) {
                         super.onUpdate(p0, stream)
-                        if (stream.byteArray != null && bitmapComplete) {
-                            byteArrayCreateTask = ByteArrayTask(context, renderScript, object : OnCompleteListener {
-                                override fun onComplete(byteArray: ByteArray?) {
-                                    byteArray?.let {
-                                        setJpeg(it)
-                                    }
-                                    // For slower FPS settings we lower the rate at which we generate the bitmap to save CPU power by only
-                                    // setting the bitmapComplete flag on a delay based on the current FPS settings
-                                    when {
-                                        configuration.cameraFPS <= 5 -> {
-                                            bitmapCompleteHandler.postDelayed(bitcoinCompleteRunnable, DELAY_5_FPS)
-                                        }
-                                        configuration.cameraFPS <= 10 -> {
-                                            bitmapCompleteHandler.postDelayed(bitcoinCompleteRunnable, DELAY_10_FPS)
-                                        }
-                                        configuration.cameraFPS <= 15 -> {
-                                            bitmapCompleteHandler.postDelayed(bitcoinCompleteRunnable, DELAY_15_FPS)
-                                        }
-                                        configuration.cameraFPS <= 20 -> {
-                                            bitmapCompleteHandler.postDelayed(bitcoinCompleteRunnable, DELAY_20_FPS)
-                                        }
-                                        else -> {
-                                            bitmapComplete = true
-                                        }
-                                    }
-                                }
-                            })
-                            byteArrayCreateTask?.execute(stream.byteArray, stream.width, stream.height, cameraOrientation, configuration.cameraRotate)
-                            bitmapComplete = false
+                        // The encoder turns frames away while no variant is wanted, the next frame
+                        // after a consumer registers is encoded straight away. A frame offered while
+                        // the encoder is busy replaces the one waiting, so the stream runs as fast as
+                        // frames can actually be encoded.
+                        val bytes = stream.byteArray
+                        if (bytes != null) {
+                            if (encoder.offer(bytes, stream.width!!, stream.height!!, streamRotation, stream.frameId.toLong())) {
+                                tracer.mark(FrameTracer.STAGE_STREAM, stream.frameId.toLong())
+                            }
                         }
                     }
                 }
@@ -312,15 +512,33 @@ constructor(private val context: Context) {
         }
 
         if (configuration.cameraEnabled && configuration.cameraMotionEnabled) {
-            motionDetector = MotionDetector.Builder(configuration.cameraMotionMinLuma, configuration.cameraMotionLeniency).build()
+            val motionMask = try {
+                MotionDetector.parseMask(configuration.cameraMotionMask)
+            } catch (e: JSONException) {
+                Timber.e("Invalid motion mask: " + e.message)
+                null
+            }
+            motionDetector = MotionDetector.Builder(configuration.cameraMotionMinLuma, configuration.cameraMotionLeniency)
+                    .setDetection(configuration.cameraMotionDetection)
+                    .setGridSize(configuration.cameraMotionGridSize, configuration.cameraMotionGridSize)
+                    .setBackgroundModel(configuration.cameraMotionSigmas, configuration.cameraMotionFramesRequired,
+                            configuration.cameraMotionFrameWindow)
+                    .setDetectorWidth(detectorWidth, LumaPlane.MODE_STRIDE)
+                    .setMask(motionMask)
+                    .setParallel(true)
+                    .setAnalysis(analysis)
+                    .build()
             motionDetectorProcessor = MultiProcessor.Builder<Motion> {
                 object : Tracker<Motion>() {
                     override fun onUpdate(p0: Detector.Detections<Motion>, motion: Motion) {
                         super.onUpdate(p0, motion)
+                        val frameId = p0.frameMetadata.id.toLong()
+                        tracer.mark(FrameTracer.STAGE_MOTION, frameId)
                         if (cameraCallback != null && configuration.cameraMotionEnabled) {
                             if (Motion.MOTION_TOO_DARK == motion.type) {
                                  cameraCallback?.onTooDark()
                             } else if (Motion.MOTION_DETECTED == motion.type) {
+                                tracer.raise(FrameTracer.EVENT_MOTION, frameId)
                                 cameraCallback?.onMotionDetected()
                             }
                         }
@@ -342,21 +560,24 @@ constructor(private val context: Context) {
                         .setLandmarkType(FaceDetector.ALL_LANDMARKS)
                         .build()
 
-                faceDetectorProcessor = LargestFaceFocusingProcessor(faceDetector!!, object : Tracker<Face>() {
+                val gatedFaceDetector = GatedDetector(faceDetector!!, analysis, configuration.cameraDetectionMinLuma, reducer)
+                faceDetectorProcessor = LargestFaceFocusingProcessor(gatedFaceDetector, object : Tracker<Face>() {
                     override fun onUpdate(detections: Detector.Detections<Face>, face: Face) {
                         super.onUpdate(detections, face)
-                        val faceSize = face.width / detections.frameMetadata.width * 100 > configuration.cameraFaceSize;
+                        tracer.mark(FrameTracer.STAGE_FACE, detections.frameMetadata.id.toLong())
+                        val faceSize = face.width / gatedFaceDetector.detectedWidth * 100 > configuration.cameraFaceSize;
                         val faceRotation = if (configuration.cameraFaceRotation) face.eulerY > -12 && face.eulerY < 12 else true;
                         if (detections.detectedItems.size() > 0 && faceSize && faceRotation) {
                             if (cameraCallback != null && configuration.cameraFaceEnabled) {
                                 Timber.d("faceDetected")
+                                tracer.raise(FrameTracer.EVENT_FACE, detections.frameMetadata.id.toLong())
                                 cameraCallback?.onFaceDetected()
                             }
                         }
                     }
                 })
-                faceDetector?.setProcessor(faceDetectorProcessor!!)
-                multiDetectorBuilder.add(faceDetector!!)
+                gatedFaceDetector.setProcessor(faceDetectorProcessor!!)
+                multiDetectorBuilder.add(gatedFaceDetector)
                 detectorAdded = true
             } catch (e: Exception) {
                 Timber.e(e)
@@ -367,19 +588,23 @@ constructor(private val context: Context) {
             barcodeDetector = BarcodeDetector.Builder(context)
                     .setBarcodeFormats(Barcode.QR_CODE)
                     .build()
+            val gatedBarcodeDetector = GatedDetector(barcodeDetector!!, analysis, configuration.cameraDetectionMinLuma, reducer)
             barCodeDetectorProcessor = MultiProcessor.Builder<Barcode>(MultiProcessor.Factory<Barcode> {
                 object : Tracker<Barcode>() {
                     override fun onUpdate(p0: Detector.Detections<Barcode>, p1: Barcode) {
                         super.onUpdate(p0, p1)
+                        val frameId = p0.frameMetadata.id.toLong()
+                        tracer.mark(FrameTracer.STAGE_QR, frameId)
                         if (cameraCallback != null && configuration.cameraQRCodeEnabled) {
                             Timber.d("Barcode: " + p1.displayValue)
+                            tracer.raise(FrameTracer.EVENT_QR, frameId)
                             cameraCallback?.onQRCode(p1.displayValue)
                         }
                     }
                 }
             }).build()
-            barcodeDetector?.setProcessor(barCodeDetectorProcessor!!)
-            multiDetectorBuilder.add(barcodeDetector!!)
+            gatedBarcodeDetector.setProcessor(barCodeDetectorProcessor!!)
+            multiDetectorBuilder.add(gatedBarcodeDetector)
             detectorAdded = true
         }
 
@@ -393,103 +618,150 @@ constructor(private val context: Context) {
         }
     }
 
-    @SuppressLint("MissingPermission")
-    private fun initCamera(camerId: Int, fsp: Float): CameraSource {
-        return CameraSource.Builder(context, multiDetector!!)
-                .setRequestedFps(fsp)
-                .setAutoFocusEnabled(true)
-                .setRequestedPreviewSize(640, 480)
-                .setFacing(camerId)
-                .build()
+    /**
+     * Feeds the detectors from a frame source on its own thread, the same way the camera source
+     * does, so motion, faces, QR codes and the stream all work as they would with the camera.
+     */
+    private fun startFrameSource(configuration: Configuration) {
+        val detector = multiDetector ?: return
+        val name = configuration.cameraFrameSource
+        val source = try {
+            when {
+                name == FRAME_SOURCE_SYNTHETIC -> SyntheticFrameSource(640, 480, configuration.cameraFPS, 0)
+                name.startsWith("http://") || name.startsWith("https://") -> MjpegFrameSource(URL(name), BitmapJpegDecoder())
+                else -> CaptureFrameSource(File(name), configuration.cameraFPS, true)
+            }
+        } catch (e: IOException) {
+            Timber.e(e, "Could not open frame source $name")
+            cameraCallback?.onCameraError()
+            return
+        }
+        FrameTracing.cameraStarted()
+        frameSource = source
+        source.start(object : FrameSource.Listener {
+            override fun onFrame(nv21: ByteArray, width: Int, height: Int, frameId: Long, timestampMillis: Long) {
+                frameWidth = width
+                frameHeight = height
+                val frame = Frame.Builder()
+                        .setImageData(ByteBuffer.wrap(nv21), width, height, ImageFormat.NV21)
+                        .setId(frameId.toInt())
+                        .setTimestampMillis(timestampMillis)
+                        .build()
+                detector.receiveFrame(frame)
+            }
+            override fun onError(e: Exception) {
+                Timber.e(e, "Frame source $name failed")
+                cameraCallback?.onCameraError()
+            }
+            override fun onRetry(e: Exception, failures: Int) {
+                Timber.w(e, "Frame source $name failed $failures times in a row, retrying")
+            }
+        })
+        Timber.d("Frames from $name")
     }
 
-    interface OnCompleteListener {
-        fun onComplete(byteArray: ByteArray?)
+    // Width and height of the frames the detectors are getting, null before the first one
+    private fun frameSize(): IntArray? {
+        val size = cameraSource?.previewSize
+        if (size != null) {
+            return intArrayOf(size.width, size.height)
+        }
+        if (frameSource != null && frameWidth > 0) {
+            return intArrayOf(frameWidth, frameHeight)
+        }
+        return null
     }
 
-    class ByteArrayTask(context: Context, private val renderScript: RenderScript?, private val onCompleteListener: OnCompleteListener) : AsyncTask<Any, Void, ByteArray>() {
-
-        private val contextRef: WeakReference<Context> = WeakReference(context)
+    /**
+     * Work out how far streamed frames have to be turned for the camera, the display and the
+     * user's rotate setting. Only done when the camera starts or the display turns, not per frame.
+     */
+    private fun updateStreamRotation() {
+        if (externalFrames) {
+            // Only the device camera turns with the display
+            streamRotation = Nv21Transform.rotationFor(cameraOrientation, 0, cameraRotate)
+            return
+        }
+        val windowService = context.getSystemService(Context.WINDOW_SERVICE) as WindowManager
+        val displayRotation = when (windowService.defaultDisplay.rotation) {
+            Surface.ROTATION_90 -> 90
+            Surface.ROTATION_180 -> 180
+            Surface.ROTATION_270 -> 270
+            else -> 0
+        }
+        streamRotation = Nv21Transform.rotationFor(cameraOrientation, displayRotation, cameraRotate)
+    }
 
-        override fun doInBackground(vararg params: Any): ByteArray? {
-            if (isCancelled) {
-                return null
-            }
-            val byteArray = params[0] as ByteArray
-            val width = params[1] as Int
-            val height = params[2] as Int
-            val orientation = params[3] as Int
-            val rotation = params[4] as Float
-
-            val windowService = contextRef.get()!!.getSystemService(Context.WINDOW_SERVICE) as WindowManager
-            val currentRotation = windowService.defaultDisplay.rotation
-            val nv21Bitmap = nv21ToBitmap(renderScript, byteArray, width, height)
-            var rotate = orientation
-
-            when (currentRotation) {
-                Surface.ROTATION_90 -> {
-                    rotate -= 90
-                }
-                Surface.ROTATION_180 -> {
-                    rotate -= 180
-                }
-                Surface.ROTATION_270 -> {
-                    rotate -= 270
-                }
-                Surface.ROTATION_0 -> {
-                    // na-da
+    private fun watchDisplayRotation() {
+        if (displayListener != null) {
+            return
+        }
+        val listener = object : DisplayManager.DisplayListener {
+            override fun onDisplayChanged(displayId: Int) {
+                if (displayId == Display.DEFAULT_DISPLAY) {
+                    updateStreamRotation()
                 }
             }
-
-            rotate %= 360
-            rotate += rotation.toInt()
-
-            val matrix = Matrix()
-            matrix.postRotate(rotate.toFloat())
-            val bitmap = Bitmap.createBitmap(nv21Bitmap, 0, 0, width, height, matrix, true)
-            val stream = ByteArrayOutputStream()
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 80, stream)
-            val byteArrayOut = stream.toByteArray()
-            bitmap.recycle()
-
-            return byteArrayOut
-        }
-
-        override fun onPostExecute(result: ByteArray?) {
-            super.onPostExecute(result)
-            if (isCancelled) {
-                return
+            override fun onDisplayAdded(displayId: Int) {
+                // na-da
+            }
+            override fun onDisplayRemoved(displayId: Int) {
+                // na-da
             }
-            onCompleteListener.onComplete(result)
         }
+        (context.getSystemService(Context.DISPLAY_SERVICE) as DisplayManager).registerDisplayListener(listener, null)
+        displayListener = listener
+    }
 
-        private fun nv21ToBitmap(rs: RenderScript?, yuvByteArray: ByteArray, width: Int, height: Int): Bitmap {
-
-            val yuvToRgbIntrinsic = ScriptIntrinsicYuvToRGB.create(rs, Element.U8_4(rs))
+    @SuppressLint("MissingPermission")
+    // Opening the camera to ask is slow, so it is only done once for each camera
+    private fun supportedPreviewSizes(cameraId: Int): Array<IntArray> {
+        supportedSizes[cameraId]?.let { return it }
+        var camera: Camera? = null
+        val sizes = try {
+            camera = Camera.open(cameraId)
+            camera.parameters.supportedPreviewSizes.map { intArrayOf(it.width, it.height) }.toTypedArray()
+        } catch (e: RuntimeException) {
+            Timber.e(e.message)
+            return emptyArray()
+        } finally {
+            camera?.release()
+        }
+        supportedSizes[cameraId] = sizes
+        return sizes
+    }
 
-            val yuvType = Type.Builder(rs, Element.U8(rs)).setX(yuvByteArray.size)
-            val allocationIn = Allocation.createTyped(rs, yuvType.create(), Allocation.USAGE_SCRIPT)
+    private fun initCamera(camerId: Int, fsp: Float): CameraSource {
+        val source = CameraSource.Builder(context, multiDetector!!)
+                .setRequestedFps(fsp)
+                .setAutoFocusEnabled(true)
+                .setRequestedPreviewSize(previewSize[0], previewSize[1])
+                .setFacing(camerId)
+                .build()
+        FrameTracing.cameraStarted()
+        return source
+    }
 
-            val rgbaType = Type.Builder(rs, Element.RGBA_8888(rs)).setX(width).setY(height)
-            val allocationOut = Allocation.createTyped(rs, rgbaType.create(), Allocation.USAGE_SCRIPT)
+    companion object {
+        const val JPEG_QUALITY = 80
 
-            allocationIn.copyFrom(yuvByteArray)
+        // Frames a stream client may have waiting, and how many may arrive while it is stuck on one
+        // frame before it is disconnected
+        const val STREAM_QUEUE_FRAMES = 2
+        const val STREAM_MAX_BACKLOG = 30
 
-            yuvToRgbIntrinsic.setInput(allocationIn)
-            yuvToRgbIntrinsic.forEach(allocationOut)
+        // Full size at the default quality, what /camera/stream serves without parameters
+        val DEFAULT_VARIANT = StreamVariant(1, JPEG_QUALITY)
 
-            val bmpout = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-            allocationOut.copyTo(bmpout)
+        const val ENCODER_YUV_IMAGE = "yuv_image"
+        const val ENCODER_JAVA = "java"
+        const val ENCODER_BITMAP = "bitmap"
 
-            return bmpout
-        }
-    }
+        const val FRAME_SOURCE_CAMERA = "camera"
+        const val FRAME_SOURCE_SYNTHETIC = "synthetic"
 
-    companion object {
-        const val DELAY_20_FPS = (100 * 2).toLong() // 200 milliseconds
-        const val DELAY_15_FPS = (100 * 3).toLong() // 300 milliseconds
-        const val DELAY_10_FPS = (100 * 4).toLong() // 400 milliseconds
-        const val DELAY_5_FPS = (100 * 5).toLong() // 500 milliseconds
+        // Frame width motion detection runs at unless set otherwise, a 640x480 preview reduced by 4
+        const val DETECTOR_WIDTH = 160
 
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.modules
+
+import android.os.SystemClock
+import com.google.android.gms.vision.Frame
+import com.thanksmister.iot.wallpanel.camera.FrameTracer
+
+/**
+ * Stamps camera frames for the shared [FrameTracer]. The camera source times its frames from
+ * when it was built, so [cameraStarted] has to be called right after building one for the age
+ * of a frame to come out right.
+ */
+object FrameTracing {
+
+    @Volatile private var cameraStartMillis = 0L
+
+    fun cameraStarted() {
+        cameraStartMillis = SystemClock.elapsedRealtime()
+    }
+
+    /**
+     * Called by every detector, only the first one to see a frame stamps it.
+     */
+    fun begin(metadata: Frame.Metadata) {
+        val start = cameraStartMillis
+        val age = if (start == 0L) 0L else SystemClock.elapsedRealtime() - start - metadata.timestampMillis
+        FrameTracer.getShared().begin(metadata.id.toLong(), age * 1000000L)
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.modules
+
+import android.util.SparseArray
+import com.google.android.gms.vision.Detector
+import com.google.android.gms.vision.Frame
+import com.jjoe64.motiondetection.motiondetection.FrameAnalysis
+import com.thanksmister.iot.wallpanel.camera.FrameReducer
+import java.nio.ByteBuffer
+
+/**
+ * Runs the wrapped face or QR code detector only on frames that are bright enough to find anything
+ * in, using the brightness of the shared [FrameAnalysis] instead of another pass over the pixels.
+ * A [minLuma] of 0 runs it on every frame without looking at the brightness. The processor has to
+ * be set on this detector rather than on the wrapped one.
+ *
+ * With a [FrameReducer] the wrapped detector gets the reduced frame instead, shared with every
+ * other detector using the same reducer, so a large preview for streaming does not make face and
+ * QR code detection any slower. Positions in the detections are then relative to [detectedWidth].
+ */
+class GatedDetector<T>(private val delegate: Detector<T>, private val analysis: FrameAnalysis,
+                       private val minLuma: Int, private val reducer: FrameReducer? = null) : Detector<T>() {
+
+    private val empty = SparseArray<T>(0)
+
+    /**
+     * Width of the frame the wrapped detector last ran on.
+     */
+    @Volatile
+    var detectedWidth = 0
+        private set
+
+    override fun detect(frame: Frame?): SparseArray<T> {
+        if (frame == null) {
+            throw IllegalArgumentException("No frame supplied.")
+        }
+        FrameTracing.begin(frame.metadata)
+        val bytes = frame.grayscaleImageData.array()
+        if (minLuma > 0) {
+            analysis.update(frame.metadata.id.toLong(), bytes, frame.metadata.width, frame.metadata.height)
+            if (analysis.isTooDark(minLuma.toLong())) {
+                return empty
+            }
+        }
+        if (reducer != null) {
+            val reduced = reducer.reduce(frame.metadata.id.toLong(), bytes, frame.metadata.width, frame.metadata.height)
+            if (reduced !== bytes) {
+                detectedWidth = reducer.width
+                return delegate.detect(Frame.Builder()
+                        .setImageData(ByteBuffer.wrap(reduced), reducer.width, reducer.height, frame.metadata.format)
+                        .setId(frame.metadata.id)
+                        .setTimestampMillis(frame.metadata.timestampMillis)
+                        .setRotation(frame.metadata.rotation)
+                        .build())
+            }
+        }
+        detectedWidth = frame.metadata.width
+        return delegate.detect(frame)
+    }
+
+    override fun isOperational(): Boolean {
+        return delegate.isOperational
+    }
+
+    override fun setFocus(id: Int): Boolean {
+        return delegate.setFocus(id)
+    }
+
+    override fun release() {
+        delegate.release()
+        super.release()
+    }
+}
@@ -23,8 +23,8 @@ class Motion {
 
     var type = MOTION_NOT_DETECTED
     var byteArray: ByteArray? = null
-    var width: Int? = null
-    var height: Int? = null
+    var width: Int = 0
+    var height: Int = 0
 
     companion object {
         val MOTION_TOO_DARK = "motion_too_dark"
@@ -16,57 +16,88 @@
 
 package com.thanksmister.iot.wallpanel.modules
 
+import android.graphics.Rect
 import android.util.SparseArray
 
 import com.google.android.gms.vision.Detector
 import com.google.android.gms.vision.Frame
 import com.jjoe64.motiondetection.motiondetection.AggregateLumaMotionDetection
-import com.jjoe64.motiondetection.motiondetection.ImageProcessing
+import com.jjoe64.motiondetection.motiondetection.BackgroundModelMotionDetection
+import com.jjoe64.motiondetection.motiondetection.CaptureWriter
+import com.jjoe64.motiondetection.motiondetection.FrameAnalysis
+import com.jjoe64.motiondetection.motiondetection.IMotionDetection
+import com.jjoe64.motiondetection.motiondetection.IntegralImageMotionDetection
+import com.jjoe64.motiondetection.motiondetection.LumaPlane
+import com.jjoe64.motiondetection.motiondetection.MotionEngines
+import com.jjoe64.motiondetection.motiondetection.MotionMask
+import com.jjoe64.motiondetection.motiondetection.StripeExecutor
 import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_DETECTED
 import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_NOT_DETECTED
 import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_TOO_DARK
-
+import org.json.JSONArray
+import org.json.JSONException
 import timber.log.Timber
+import java.io.IOException
 
 /**
  * Created by Michael Ritchie on 7/6/18.
  */
-class MotionDetector private constructor(private val minLuma: Int, private val motionLeniency: Int) : Detector<Motion>() {
+class MotionDetector private constructor(private val minLuma: Int, private val motionDetection: IMotionDetection,
+                                         private val region: Rect?, private val lumaPlane: LumaPlane,
+                                         private val analysis: FrameAnalysis?) : Detector<Motion>() {
 
-    private var aggregateLumaMotionDetection: AggregateLumaMotionDetection? = null
+    // Detections are handed to the processor synchronously on the detector thread,
+    // so a single result is recycled for every frame instead of allocating one each time.
+    private val sparseArray = SparseArray<Motion>(1)
+    private val motion = Motion()
 
-    init {
-        aggregateLumaMotionDetection = AggregateLumaMotionDetection()
-        aggregateLumaMotionDetection!!.setLeniency(motionLeniency)
-    }
+    /**
+     * Downsample factor frames are reduced by before detection, the one picked for the last frame
+     * when a detector width is set.
+     */
+    val downsample: Int
+        get() = analysis?.factor ?: lumaPlane.factor
+
+    // Set while frames are being recorded for offline replay, cleared once the capture is complete.
+    @Volatile
+    var capture: CaptureWriter? = null
 
     override fun detect(frame: Frame?): SparseArray<Motion> {
         if (frame == null) {
             throw IllegalArgumentException("No frame supplied.")
         } else {
+            FrameTracing.begin(frame.metadata)
             val byteBuffer = frame.grayscaleImageData
             val bytes = byteBuffer.array()
             val w = frame.metadata.width
             val h = frame.metadata.height
-            val sparseArray = SparseArray<Motion>()
-            val motion = Motion()
             motion.byteArray = bytes
             motion.width = w
             motion.height = h
+            capture?.let { writeCapture(it, bytes, w, h, frame.metadata.timestampMillis) }
 
-            val img = ImageProcessing.decodeYUV420SPtoLuma(bytes, w, h)
-            var lumaSum = 0
-            for (i in img) {
-                lumaSum += i
+            // Without a region the plane is the one shared with the other detectors, so it is
+            // only sampled once per frame. Otherwise luma is read straight from the NV21 bytes at the
+            // reduced resolution into a plane this detector owns, re-allocated only when the size changes.
+            val plane = if (analysis != null) {
+                analysis.update(frame.metadata.id.toLong(), bytes, w, h)
+                analysis.plane
+            } else {
+                val left = if (region != null) region.left.coerceIn(0, w - 1) else 0
+                val top = if (region != null) region.top.coerceIn(0, h - 1) else 0
+                val right = if (region != null) region.right.coerceIn(left + 1, w) else w
+                val bottom = if (region != null) region.bottom.coerceIn(top + 1, h) else h
+                lumaPlane.sample(bytes, w, h, left, top, right, bottom)
+                lumaPlane
             }
-            if (lumaSum < minLuma) {
+            if (plane.scaledSum < minLuma) {
                 motion.type = MOTION_TOO_DARK
                 sparseArray.put(0, motion)
                 return sparseArray
             }
 
             try {
-                val motionDetected = aggregateLumaMotionDetection!!.detect(img, w, h)
+                val motionDetected = motionDetection.detect(plane.luma, plane.width, plane.height)
                 if (motionDetected) {
                     motion.type = MOTION_DETECTED
                     //Timber.d("MOTION_DETECTED")
@@ -83,9 +114,205 @@ class MotionDetector private constructor(private val minLuma: Int, private val m
         }
     }
 
+    private fun writeCapture(writer: CaptureWriter, bytes: ByteArray, w: Int, h: Int, timestamp: Long) {
+        try {
+            if (!writer.write(bytes, w, h, timestamp)) {
+                capture = null
+                Timber.i("Motion capture complete, ${writer.frameCount} frames")
+            }
+        } catch (e: IOException) {
+            Timber.e("Motion capture failed: " + e.message)
+            capture = null
+            closeCapture(writer)
+        }
+    }
+
+    private fun closeCapture(writer: CaptureWriter) {
+        try {
+            writer.close()
+        } catch (e: IOException) {
+            Timber.e(e.message)
+        }
+    }
+
+    override fun release() {
+        capture?.let { closeCapture(it) }
+        capture = null
+        super.release()
+    }
+
     class Builder(private val minLuma: Int, private val motionLeniency: Int) {
+
+        private var detection = DETECTION_AGGREGATE_LUMA
+        private var xBoxes = DEFAULT_GRID_SIZE
+        private var yBoxes = DEFAULT_GRID_SIZE
+        private var region: Rect? = null
+        private var mask: MotionMask? = null
+        private var downsample = 1
+        private var downsampleMode = LumaPlane.MODE_STRIDE
+        private var detectorWidth = 0
+        private var parallel = false
+        private var analysis: FrameAnalysis? = null
+
+        private var sigmas = DEFAULT_SIGMAS
+        private var framesRequired = DEFAULT_FRAMES_REQUIRED
+        private var frameWindow = DEFAULT_FRAME_WINDOW
+
+        /**
+         * Select the motion detection engine, one of [DETECTION_AGGREGATE_LUMA], [DETECTION_INTEGRAL_IMAGE]
+         * or [DETECTION_BACKGROUND_MODEL].
+         */
+        fun setDetection(detection: String): Builder {
+            this.detection = detection
+            return this
+        }
+
+        /**
+         * Number of boxes across and down the frame (or region) that are compared between frames.
+         */
+        fun setGridSize(xBoxes: Int, yBoxes: Int): Builder {
+            this.xBoxes = xBoxes
+            this.yBoxes = yBoxes
+            return this
+        }
+
+        /**
+         * Only look for motion inside this part of the frame, in preview pixels.
+         */
+        fun setRegion(region: Rect?): Builder {
+            this.region = region
+            return this
+        }
+
+        /**
+         * Region of interest mask, laid over the frame (or region). Boxes under excluded zones are
+         * never compared and zones can override the leniency.
+         */
+        fun setMask(mask: MotionMask?): Builder {
+            this.mask = mask
+            return this
+        }
+
+        /**
+         * Reduce the frame by 1, 2, 4 or 8 before detection, either by taking every nth pixel
+         * ([LumaPlane.MODE_STRIDE]) or by averaging each block ([LumaPlane.MODE_BOX]).
+         */
+        fun setDownsample(factor: Int, mode: Int): Builder {
+            this.downsample = factor
+            this.downsampleMode = mode
+            this.detectorWidth = 0
+            return this
+        }
+
+        /**
+         * Reduce every frame to about [width] before detection, the factor of 1, 2, 4 or 8 is picked
+         * from the size the frames actually arrive at. 0 detects on full frames.
+         */
+        fun setDetectorWidth(width: Int, mode: Int): Builder {
+            this.downsample = 1
+            this.downsampleMode = mode
+            this.detectorWidth = width
+            return this
+        }
+
+        /**
+         * Per-frame analysis shared with the other detectors of the camera. It is only used when its
+         * plane matches the downsampling of this detector and there is no region, otherwise the
+         * detector samples the frame itself.
+         */
+        fun setAnalysis(analysis: FrameAnalysis?): Builder {
+            this.analysis = analysis
+            return this
+        }
+
+        /**
+         * Split the comparison of large frames into stripes on a pool sized to the device cores.
+         * Only used by [DETECTION_AGGREGATE_LUMA], frames below 320x240 stay on the detector thread.
+         */
+        fun setParallel(parallel: Boolean): Builder {
+            this.parallel = parallel
+            return this
+        }
+
+        /**
+         * Tuning for the [DETECTION_BACKGROUND_MODEL] engine, a cell is flagged when it moves more than
+         * [sigmas] standard deviations from its background and motion is reported when cells were
+         * flagged in [framesRequired] of the last [frameWindow] frames.
+         */
+        fun setBackgroundModel(sigmas: Float, framesRequired: Int, frameWindow: Int): Builder {
+            this.sigmas = sigmas
+            this.framesRequired = framesRequired
+            this.frameWindow = frameWindow
+            return this
+        }
+
         fun build(): MotionDetector {
-            return MotionDetector(minLuma, motionLeniency)
+            val motionDetection = when (detection) {
+                DETECTION_INTEGRAL_IMAGE -> {
+                    val integralImageMotionDetection = IntegralImageMotionDetection()
+                    integralImageMotionDetection.setLeniency(motionLeniency)
+                    integralImageMotionDetection.setGrid(xBoxes, yBoxes)
+                    integralImageMotionDetection.setMask(mask)
+                    integralImageMotionDetection
+                }
+                DETECTION_BACKGROUND_MODEL -> {
+                    val backgroundModelMotionDetection = BackgroundModelMotionDetection()
+                    backgroundModelMotionDetection.setLeniency(motionLeniency)
+                    backgroundModelMotionDetection.setGrid(xBoxes, yBoxes)
+                    backgroundModelMotionDetection.setSigmas(sigmas)
+                    backgroundModelMotionDetection.setPersistence(framesRequired, frameWindow)
+                    backgroundModelMotionDetection.setMask(mask)
+                    backgroundModelMotionDetection
+                }
+                else -> {
+                    val aggregateLumaMotionDetection = AggregateLumaMotionDetection()
+                    aggregateLumaMotionDetection.setLeniency(motionLeniency)
+                    aggregateLumaMotionDetection.setGrid(xBoxes, yBoxes)
+                    aggregateLumaMotionDetection.setMask(mask)
+                    if (parallel) {
+                        aggregateLumaMotionDetection.setExecutor(StripeExecutor.getShared())
+                    }
+                    aggregateLumaMotionDetection
+                }
+            }
+            val lumaPlane = LumaPlane(downsample, downsampleMode)
+            lumaPlane.setTargetWidth(detectorWidth)
+            val shared = analysis?.takeIf {
+                region == null && it.mode == downsampleMode && it.targetWidth == detectorWidth &&
+                        (detectorWidth > 0 || it.factor == downsample)
+            }
+            return MotionDetector(minLuma, motionDetection, region, lumaPlane, shared)
+        }
+    }
+
+    companion object {
+        const val DETECTION_AGGREGATE_LUMA = MotionEngines.AGGREGATE_LUMA
+        const val DETECTION_INTEGRAL_IMAGE = MotionEngines.INTEGRAL_IMAGE
+        const val DETECTION_BACKGROUND_MODEL = MotionEngines.BACKGROUND_MODEL
+        const val DEFAULT_GRID_SIZE = 10
+        const val DEFAULT_SIGMAS = 3f
+        const val DEFAULT_FRAMES_REQUIRED = 2
+        const val DEFAULT_FRAME_WINDOW = 3
+
+        /**
+         * Parse a mask stored as a JSON array of rows, each zone being -1 (excluded), 0 (detector
+         * leniency) or a leniency for that zone. An empty string means no mask.
+         */
+        @Throws(JSONException::class)
+        fun parseMask(json: String): MotionMask? {
+            if (json.isBlank()) {
+                return null
+            }
+            val rows = JSONArray(json)
+            val zones = Array(rows.length()) { y ->
+                val row = rows.getJSONArray(y)
+                IntArray(row.length()) { x -> row.getInt(x) }
+            }
+            try {
+                return MotionMask(zones)
+            } catch (e: IllegalArgumentException) {
+                throw JSONException(e.message)
+            }
         }
     }
 }
\ No newline at end of file
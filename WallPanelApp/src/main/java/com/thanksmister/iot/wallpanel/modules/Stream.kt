@@ -16,6 +16,8 @@
 
 package com.thanksmister.iot.wallpanel.modules
 
+import com.jjoe64.motiondetection.motiondetection.FrameAnalysis
+
 /**
  * Created by Michael Ritchie on 7/6/18.
  */
@@ -23,6 +25,8 @@ class Stream {
     var byteArray: ByteArray? = null
     var width: Int? = null
     var height: Int? = null
+    var frameId: Int = 0
+    var analysis: FrameAnalysis? = null
     companion object {
     }
 }
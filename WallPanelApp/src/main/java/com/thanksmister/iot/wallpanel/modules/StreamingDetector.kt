@@ -20,40 +20,51 @@ import android.util.SparseArray
 
 import com.google.android.gms.vision.Detector
 import com.google.android.gms.vision.Frame
-import com.jjoe64.motiondetection.motiondetection.AggregateLumaMotionDetection
-import com.jjoe64.motiondetection.motiondetection.ImageProcessing
-import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_DETECTED
-import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_NOT_DETECTED
-import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_TOO_DARK
-
-import timber.log.Timber
+import com.jjoe64.motiondetection.motiondetection.FrameAnalysis
 
 /**
  * Created by Michael Ritchie on 7/6/18.
  */
-class StreamingDetector private constructor() : Detector<Stream>() {
-    init {
-    }
+class StreamingDetector private constructor(private val analysis: FrameAnalysis?) : Detector<Stream>() {
+
+    // Like the motion detector, one result is recycled for every frame.
+    private val sparseArray = SparseArray<Stream>(1)
+    private val stream = Stream()
+
     override fun detect(frame: Frame?): SparseArray<Stream> {
         if (frame == null) {
             throw IllegalArgumentException("No frame supplied.")
         } else {
-            val sparseArray = SparseArray<Stream>()
+            FrameTracing.begin(frame.metadata)
             val byteBuffer = frame.grayscaleImageData
             val bytes = byteBuffer.array()
             val w = frame.metadata.width
             val h = frame.metadata.height
-            val stream = Stream()
+            analysis?.update(frame.metadata.id.toLong(), bytes, w, h)
             stream.byteArray = bytes
             stream.width = w
             stream.height = h
+            stream.frameId = frame.metadata.id
+            stream.analysis = analysis
             sparseArray.put(0, stream)
             return sparseArray
         }
     }
+
     class Builder() {
+
+        private var analysis: FrameAnalysis? = null
+
+        /**
+         * Per-frame analysis shared with the other detectors, handed on with every [Stream].
+         */
+        fun setAnalysis(analysis: FrameAnalysis?): Builder {
+            this.analysis = analysis
+            return this
+        }
+
         fun build(): StreamingDetector {
-            return StreamingDetector()
+            return StreamingDetector(analysis)
         }
     }
-}
\ No newline at end of file
+}
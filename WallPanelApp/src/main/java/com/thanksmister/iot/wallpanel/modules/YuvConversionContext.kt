@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.modules
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.renderscript.Allocation
+import android.renderscript.Element
+import android.renderscript.RenderScript
+import android.renderscript.ScriptIntrinsicYuvToRGB
+import android.renderscript.Type
+
+/**
+ * Long lived RenderScript state for converting NV21 frames to bitmaps. The intrinsic is created once,
+ * the allocations and output bitmap once per frame size, so streaming does not allocate native memory
+ * per frame. One context is shared by the encoders of every stream variant, which all run on the
+ * encoder thread, so it keeps the buffers of a few sizes at once. Used from one thread at a time.
+ */
+class YuvConversionContext(context: Context) {
+
+    private val renderScript = RenderScript.create(context)
+    private val yuvToRgbIntrinsic = ScriptIntrinsicYuvToRGB.create(renderScript, Element.U8_4(renderScript))
+    private val buffers = HashMap<Long, Buffers>()
+
+    private class Buffers(val inputSize: Int, val allocationIn: Allocation, val allocationOut: Allocation,
+                          val bitmap: Bitmap) {
+        fun release() {
+            allocationIn.destroy()
+            allocationOut.destroy()
+            bitmap.recycle()
+        }
+    }
+
+    /**
+     * Convert a frame, the returned bitmap is re-used by the next call for the same size.
+     */
+    fun convert(nv21: ByteArray, width: Int, height: Int): Bitmap {
+        val key = (width.toLong() shl 32) or height.toLong()
+        var sized = buffers[key]
+        if (sized == null || sized.inputSize != nv21.size) {
+            sized?.release()
+            if (sized == null && buffers.size >= MAX_SIZES) {
+                releaseBuffers()
+            }
+            sized = createBuffers(nv21.size, width, height)
+            buffers[key] = sized
+        }
+        sized.allocationIn.copyFrom(nv21)
+        yuvToRgbIntrinsic.setInput(sized.allocationIn)
+        yuvToRgbIntrinsic.forEach(sized.allocationOut)
+        sized.allocationOut.copyTo(sized.bitmap)
+        return sized.bitmap
+    }
+
+    private fun createBuffers(size: Int, width: Int, height: Int): Buffers {
+        val yuvType = Type.Builder(renderScript, Element.U8(renderScript)).setX(size)
+        val allocationIn = Allocation.createTyped(renderScript, yuvType.create(), Allocation.USAGE_SCRIPT)
+        val rgbaType = Type.Builder(renderScript, Element.RGBA_8888(renderScript)).setX(width).setY(height)
+        val allocationOut = Allocation.createTyped(renderScript, rgbaType.create(), Allocation.USAGE_SCRIPT)
+        return Buffers(size, allocationIn, allocationOut, Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888))
+    }
+
+    private fun releaseBuffers() {
+        for (sized in buffers.values) {
+            sized.release()
+        }
+        buffers.clear()
+    }
+
+    fun release() {
+        releaseBuffers()
+        yuvToRgbIntrinsic.destroy()
+        renderScript.destroy()
+    }
+
+    companion object {
+        // One per stream scale, both ways round for a display turning while streaming
+        private const val MAX_SIZES = 6
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.modules
+
+import android.graphics.ImageFormat
+import android.graphics.Rect
+import android.graphics.YuvImage
+import com.thanksmister.iot.wallpanel.camera.FrameEncoder
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+/**
+ * Encodes NV21 frames with the platform [YuvImage], which compresses the YUV planes natively without
+ * going through a bitmap.
+ */
+class YuvImageEncoder : FrameEncoder {
+
+    private val stream = ByteArrayOutputStream(64 * 1024)
+    private val rect = Rect()
+
+    @Throws(IOException::class)
+    override fun encode(nv21: ByteArray, width: Int, height: Int, quality: Int): ByteArray {
+        stream.reset()
+        rect.set(0, 0, width, height)
+        val image = YuvImage(nv21, ImageFormat.NV21, width, height, null)
+        if (!image.compressToJpeg(rect, quality, stream)) {
+            throw IOException("Unable to compress ${width}x$height frame")
+        }
+        return stream.toByteArray()
+    }
+
+    override fun release() {
+        stream.reset()
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.network
+
+import com.thanksmister.iot.wallpanel.http.EventStream
+import com.thanksmister.iot.wallpanel.http.HttpResponse
+import java.nio.ByteBuffer
+
+/**
+ * Writes server-sent events to a subscriber of /api/events. Events are framed once in the shared
+ * ring and arrive here as views, however many came in while the previous write was going out are
+ * written together in one go.
+ */
+class EventConnection(private val response: HttpResponse) : EventStream.Connection {
+
+    override fun send(subscriber: EventStream.Subscriber, events: Array<ByteBuffer>) {
+        if (!response.isOpen) {
+            subscriber.remove()
+            return
+        }
+        response.write(events) { e ->
+            if (e != null) {
+                subscriber.remove()
+            } else {
+                subscriber.onSent()
+            }
+        }
+    }
+
+    override fun close() {
+        response.end()
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.network
+
+import com.thanksmister.iot.wallpanel.camera.MultipartFrame
+import com.thanksmister.iot.wallpanel.camera.StreamFanout
+import com.thanksmister.iot.wallpanel.http.HttpResponse
+
+/**
+ * Writes stream frames to an MJPEG client. The server writes a frame as far as the socket takes it
+ * and the rest as the socket drains, only then is the client told it can have the next frame, so
+ * nothing more than the frame being written is ever buffered for it. Frames come already framed
+ * and shared with the other clients, only a view of one is made here.
+ */
+class MjpegConnection(private val response: HttpResponse) : StreamFanout.Connection {
+
+    override fun send(client: StreamFanout.Client, frame: MultipartFrame) {
+        if (!response.isOpen) {
+            client.remove()
+            return
+        }
+        response.write(arrayOf(frame.buffer())) { e ->
+            if (e != null) {
+                client.remove()
+            } else {
+                client.onSent()
+            }
+        }
+    }
+
+    override fun close() {
+        response.end()
+    }
+}
@@ -23,21 +23,25 @@ import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
 import android.content.pm.PackageManager
+import android.database.ContentObserver
 import android.media.MediaPlayer
 import android.net.wifi.WifiManager
 import android.os.*
+import android.provider.Settings
 import androidx.core.content.ContextCompat
 import androidx.lifecycle.LifecycleService
 import androidx.lifecycle.Observer
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
-import com.koushikdutta.async.AsyncServer
-import com.koushikdutta.async.ByteBufferList
-import com.koushikdutta.async.http.body.JSONObjectBody
-import com.koushikdutta.async.http.body.StringBody
-import com.koushikdutta.async.http.server.AsyncHttpServer
-import com.koushikdutta.async.http.server.AsyncHttpServerResponse
-import com.koushikdutta.async.util.Charsets
 import com.thanksmister.iot.wallpanel.R
+import com.thanksmister.iot.wallpanel.camera.FrameTracer
+import com.thanksmister.iot.wallpanel.camera.MultipartFrame
+import com.thanksmister.iot.wallpanel.camera.SnapshotCache
+import com.thanksmister.iot.wallpanel.camera.StreamVariant
+import com.thanksmister.iot.wallpanel.http.EventStream
+import com.thanksmister.iot.wallpanel.http.HttpRequest
+import com.thanksmister.iot.wallpanel.http.HttpResponse
+import com.thanksmister.iot.wallpanel.http.HttpServer
+import com.thanksmister.iot.wallpanel.http.VersionedState
 import com.thanksmister.iot.wallpanel.modules.*
 import com.thanksmister.iot.wallpanel.persistence.Configuration
 import com.thanksmister.iot.wallpanel.ui.activities.BaseBrowserActivity.Companion.BROADCAST_ACTION_CLEAR_BROWSER_CACHE
@@ -49,8 +53,11 @@ import com.thanksmister.iot.wallpanel.utils.MqttUtils
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_AUDIO
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_BRIGHTNESS
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_CAMERA
+import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_CAPTURE
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_CLEAR_CACHE
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_EVAL
+import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_LATENCY
+import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_MOTION_MASK
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_RELAUNCH
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_RELOAD
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_SENSOR
@@ -68,14 +75,15 @@ import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.VALUE
 import com.thanksmister.iot.wallpanel.utils.NotificationUtils
 import com.thanksmister.iot.wallpanel.utils.ScreenUtils
 import dagger.android.AndroidInjection
+import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
 import timber.log.Timber
+import java.io.File
 import java.io.IOException
 import java.net.URLDecoder
 import java.net.URLEncoder
 import java.net.URLEncoder.encode
-import java.nio.ByteBuffer
 import java.util.*
 import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
@@ -97,19 +105,24 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
     @Inject
     lateinit var screenUtils: ScreenUtils
 
-    private val mJpegSockets = ArrayList<AsyncHttpServerResponse>()
     private var partialWakeLock: PowerManager.WakeLock? = null
     private var wifiLock: WifiManager.WifiLock? = null
     private var keyguardLock: KeyguardManager.KeyguardLock? = null
     private var audioPlayer: MediaPlayer? = null
     private var audioPlayerBusy: Boolean = false
-    private var httpServer: AsyncHttpServer? = null
+    private var httpServer: HttpServer? = null
     private val mBinder = WallPanelServiceBinder()
     private val motionClearHandler = Handler()
     private val appStateClearHandler = Handler()
     private val qrCodeClearHandler = Handler()
     private val faceClearHandler = Handler()
     private val wakeScreenHandler = Handler()
+    private val snapshotTimeoutHandler = Handler()
+    private val stateTimeoutHandler = Handler()
+    private val appState = VersionedState(System.currentTimeMillis())
+    private val eventPingHandler = Handler()
+    // Ids start from the time so they keep growing across restarts for clients resuming with Last-Event-ID
+    private val events = EventStream(EVENTS_CAPACITY, System.currentTimeMillis())
     private var textToSpeechModule: TextToSpeechModule? = null
     private var mqttModule: MQTTModule? = null
     private var connectionLiveData: ConnectionLiveData? = null
@@ -119,6 +132,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
     private var qrCodeRead: Boolean = false
     private var faceDetected: Boolean = false
     private val reconnectHandler = Handler()
+    private val cameraRestartHandler = Handler()
     private var appLaunchUrl: String? = null
     private var localBroadCastManager: LocalBroadcastManager? = null
     private var mqttAlertMessageShown = false
@@ -136,6 +150,14 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         }
     }
 
+    // The camera is only ever opened and closed on the main thread, commands arrive on the HTTP and MQTT threads
+    private val restartCameraRunnable = Runnable {
+        if (configuration.cameraEnabled && configuration.cameraMotionEnabled) {
+            cameraReader?.stopCamera()
+            configureCamera()
+        }
+    }
+
     inner class WallPanelServiceBinder : Binder() {
         val service: WallPanelService
             get() = this@WallPanelService
@@ -174,6 +196,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         }
 
         this.appLaunchUrl = configuration.appLaunchUrl
+        refreshState()
 
         configureMqtt()
         configurePowerOptions()
@@ -191,6 +214,12 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         filter.addAction(Intent.ACTION_USER_PRESENT)
         localBroadCastManager = LocalBroadcastManager.getInstance(this)
         localBroadCastManager?.registerReceiver(mBroadcastReceiver, filter)
+
+        val screenFilter = IntentFilter()
+        screenFilter.addAction(Intent.ACTION_SCREEN_ON)
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF)
+        registerReceiver(screenStateReceiver, screenFilter)
+        contentResolver.registerContentObserver(Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS), false, brightnessObserver)
     }
 
     override fun onDestroy() {
@@ -202,6 +231,10 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         if (localBroadCastManager != null) {
             localBroadCastManager?.unregisterReceiver(mBroadcastReceiver)
         }
+        unregisterReceiver(screenStateReceiver)
+        contentResolver.unregisterContentObserver(brightnessObserver)
+        stateTimeoutHandler.removeCallbacksAndMessages(null)
+        cameraRestartHandler.removeCallbacks(restartCameraRunnable)
         cameraReader?.stopCamera()
         sensorReader.stopReadings()
         stopHttp()
@@ -220,20 +253,76 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
             return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH && powerManager.isInteractive || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT_WATCH && powerManager.isScreenOn
         }
 
-    private val state: JSONObject
+    // Milliseconds from capture to each stage of the camera pipeline, plus the stream encoder counters
+    private val latency: JSONObject
         get() {
-            val state = JSONObject()
+            val latency = JSONObject()
             try {
-                state.put(MqttUtils.STATE_CURRENT_URL, appLaunchUrl)
-                state.put(MqttUtils.STATE_SCREEN_ON, isScreenOn)
-                state.put(MqttUtils.STATE_CAMERA, configuration.cameraEnabled)
-                state.put(MqttUtils.STATE_BRIGHTNESS, screenUtils.getCurrentScreenBrightness())
+                for ((stage, histogram) in FrameTracer.getShared().histograms) {
+                    val stats = JSONObject()
+                    stats.put("count", histogram.count)
+                    stats.put("mean", histogram.meanMicros / 1000.0)
+                    stats.put("p50", histogram.getPercentileMicros(50.0) / 1000.0)
+                    stats.put("p90", histogram.getPercentileMicros(90.0) / 1000.0)
+                    stats.put("p99", histogram.getPercentileMicros(99.0) / 1000.0)
+                    stats.put("max", histogram.maxMicros / 1000.0)
+                    latency.put(stage, stats)
+                }
+                cameraReader?.getStreamEncoder()?.let {
+                    val encoder = JSONObject()
+                    encoder.put("offered", it.offered)
+                    encoder.put("encoded", it.encoded)
+                    encoder.put("dropped", it.dropped)
+                    encoder.put("failed", it.failed)
+                    encoder.put("average", it.averageEncodeNanos / 1000000.0)
+                    latency.put("encoder", encoder)
+                }
+                cameraReader?.getStreamFanout()?.let {
+                    val stream = JSONObject()
+                    stream.put("published", it.published)
+                    stream.put("evicted", it.evicted)
+                    val clients = JSONArray()
+                    for (client in it.clients) {
+                        val stats = JSONObject()
+                        stats.put("variant", client.variant.toString())
+                        stats.put("sent", client.sent)
+                        stats.put("dropped", client.dropped)
+                        stats.put("queued", client.queued)
+                        clients.put(stats)
+                    }
+                    stream.put("clients", clients)
+                    latency.put("stream", stream)
+                }
+            } catch (e: JSONException) {
+                Timber.e(e.message)
+            }
+            return latency
+        }
+
+    private val state: JSONObject
+        get() {
+            return try {
+                JSONObject(appState.snapshot.json)
             } catch (e: JSONException) {
                 e.printStackTrace()
+                JSONObject()
             }
-            return state
         }
 
+    // Re-reads the application state when something may have changed it, the version only
+    // moves if a value actually did
+    private fun refreshState() {
+        val version = appState.version
+        appState.set(MqttUtils.STATE_CURRENT_URL, appLaunchUrl)
+        appState.set(MqttUtils.STATE_SCREEN_ON, isScreenOn)
+        appState.set(MqttUtils.STATE_CAMERA, configuration.cameraEnabled)
+        appState.set(MqttUtils.STATE_BRIGHTNESS, screenUtils.getCurrentScreenBrightness())
+        val snapshot = appState.snapshot
+        if (snapshot.version != version) {
+            events.publish(COMMAND_STATE, snapshot.json)
+        }
+    }
+
     private fun startForeground() {
         // make a continuously running notification
         val notificationUtils = NotificationUtils(applicationContext, application.resources)
@@ -370,7 +459,20 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
     }
 
     private fun publishCommand(command: String, data: JSONObject) {
-        publishMessage("${configuration.mqttBaseTopic}${command}", data.toString(), false)
+        val message = data.toString()
+        publishMessage("${configuration.mqttBaseTopic}${command}", message, false)
+        // State events are sent from refreshState() on every change rather than throttled like MQTT
+        if (command != COMMAND_STATE) {
+            events.publish(command, message)
+        }
+    }
+
+    // Records when a camera event reached the publish call and when the MQTT client had the message
+    private fun publishTraced(event: String, command: String, data: JSONObject) {
+        val tracer = FrameTracer.getShared()
+        tracer.markEvent(event, FrameTracer.EVENT_PUBLISH)
+        publishCommand(command, data)
+        tracer.markEvent(event, FrameTracer.EVENT_MQTT)
     }
 
     private fun publishMessage(topic: String, message: String, retain: Boolean) {
@@ -423,54 +525,65 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         if (httpServer == null && configuration.httpEnabled) {
             Timber.d("startHttp")
 
-            // TODO this is a hack to get utf-8 working, we need to switch http server libraries
-            val charsetsClass = Charsets::class.java
-            val us_ascii = charsetsClass.getDeclaredField("US_ASCII")
-            us_ascii.isAccessible = true
-            us_ascii.set(Charsets::class.java, Charsets.UTF_8)
-            httpServer = AsyncHttpServer()
-
-            httpServer?.addAction("*", "*") { request, response ->
+            val server = HttpServer()
+            server.setErrorListener { message, e -> Timber.e(e, message) }
+            server.addAction(HttpServer.ANY, HttpServer.ANY) { request, response ->
                 Timber.i("Unhandled Request Arrived")
                 response.code(404)
                 response.send("")
             }
-            httpServer?.listen(AsyncServer.getDefault(), configuration.httpPort)
-            Timber.i("Started HTTP server on " + configuration.httpPort)
+            try {
+                server.listen(configuration.httpPort)
+                httpServer = server
+                Timber.i("Started HTTP server on " + configuration.httpPort)
+            } catch (e: IOException) {
+                Timber.e(e, "Could not start HTTP server on " + configuration.httpPort)
+            }
         }
 
         if (httpServer != null && configuration.httpRestEnabled) {
             httpServer?.addAction("POST", "/api/command") { request, response ->
-                var result = false
-                if (request.body is JSONObjectBody) {
-                    Timber.i("POST Json Arrived (command)")
-                    val body = (request.body as JSONObjectBody).get()
-                    result = processCommand(body)
-                } else if (request.body is StringBody) {
-                    Timber.i("POST String Arrived (command)")
-                    result = processCommand((request.body as StringBody).get())
-                }
+                Timber.i("POST Arrived (command)")
+                val result = processCommand(request.bodyString)
                 val j = JSONObject()
                 try {
                     j.put("result", result)
                 } catch (e: JSONException) {
                     e.printStackTrace()
                 }
-                response.send(j)
+                response.send(CONTENT_TYPE_JSON, j.toString())
             }
 
             httpServer?.addAction("GET", "/api/state") { request, response ->
                 Timber.i("GET Arrived (/api/state)")
-                response.send(state)
+                pollState(request, response)
+            }
+
+            httpServer?.addAction("GET", "/api/events") { request, response ->
+                Timber.i("GET Arrived (/api/events)")
+                startEvents(request, response)
+            }
+            eventPingHandler.removeCallbacks(eventPingRunnable)
+            eventPingHandler.postDelayed(eventPingRunnable, EVENTS_PING_INTERVAL)
+
+            httpServer?.addAction("GET", "/api/latency") { request, response ->
+                Timber.i("GET Arrived (/api/latency)")
+                response.send(CONTENT_TYPE_JSON, latency.toString())
             }
             Timber.i("Enabled REST Endpoints")
         }
 
         if (httpServer != null && configuration.httpMJPEGEnabled) {
-            startMJPEG()
-            httpServer?.addAction("GET", "/camera/stream") { _, response ->
+            httpServer?.addAction("GET", "/camera/stream") { request, response ->
                 Timber.i("GET Arrived (/camera/stream)")
-                startMJPEG(response)
+                val width = request.getQuery("width")?.toIntOrNull() ?: 0
+                val quality = request.getQuery("quality")?.toIntOrNull() ?: CameraReader.JPEG_QUALITY
+                val variant = cameraReader?.streamVariant(width, quality) ?: CameraReader.DEFAULT_VARIANT
+                startMJPEG(response, variant)
+            }
+            httpServer?.addAction("GET", "/camera/snapshot.jpg") { request, response ->
+                Timber.i("GET Arrived (/camera/snapshot.jpg)")
+                snapshot(request, response)
             }
             Timber.i("Enabled MJPEG Endpoint")
         }
@@ -480,36 +593,103 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         Timber.d("stopHttp")
         httpServer?.let {
             stopMJPEG()
+            eventPingHandler.removeCallbacks(eventPingRunnable)
+            events.removeAll()
             it.stop()
             httpServer = null
         }
     }
 
-    private fun startMJPEG() {
-        Timber.d("startMJPEG")
-        cameraReader?.let {
-            it.getJpeg().observe(this, Observer { jpeg ->
-                if (mJpegSockets.size > 0 && jpeg != null) {
-                    var i = 0
-                    while (i < mJpegSockets.size) {
-                        val s = mJpegSockets[i]
-                        val bb = ByteBufferList()
-                        if (s.isOpen) {
-                            bb.recycle()
-                            bb.add(ByteBuffer.wrap("--jpgboundary\r\nContent-Type: image/jpeg\r\n".toByteArray()))
-                            bb.add(ByteBuffer.wrap(("Content-Length: " + jpeg.size + "\r\n\r\n").toByteArray()))
-                            bb.add(ByteBuffer.wrap(jpeg))
-                            bb.add(ByteBuffer.wrap("\r\n".toByteArray()))
-                            s.write(bb)
-                        } else {
-                            mJpegSockets.removeAt(i)
-                            i--
-                            Timber.i("MJPEG Session Count is " + mJpegSockets.size)
-                        }
-                        i++
+    // Polls are answered from the cached frame while it is fresh, only a stale cache asks the
+    // camera to encode a frame, and every request waiting meanwhile gets that same frame.
+    private fun snapshot(request: HttpRequest, response: HttpResponse) {
+        val reader = cameraReader
+        if (reader == null) {
+            sendSnapshot(request, response, null)
+            return
+        }
+        val snapshots = reader.getSnapshots()
+        val fresh = snapshots.getFresh(SNAPSHOT_MAX_AGE, System.currentTimeMillis())
+        if (fresh != null) {
+            sendSnapshot(request, response, fresh)
+            return
+        }
+        val callback = SnapshotCache.Callback { sendSnapshot(request, response, it) }
+        if (snapshots.await(callback)) {
+            reader.requestFrame()
+        }
+        snapshotTimeoutHandler.postDelayed({
+            if (snapshots.cancel(callback)) {
+                sendSnapshot(request, response, snapshots.latest)
+            }
+        }, SNAPSHOT_TIMEOUT)
+    }
+
+    private fun sendSnapshot(request: HttpRequest, response: HttpResponse, snapshot: SnapshotCache.Snapshot?) {
+        if (snapshot == null) {
+            response.code(503)
+            response.send("No camera frame available")
+            return
+        }
+        response.setHeader("Cache-Control", "no-cache")
+        response.setHeader("ETag", snapshot.eTag)
+        if (snapshot.matches(request.getHeader("If-None-Match"))) {
+            response.code(304)
+            response.end()
+        } else {
+            response.send("image/jpeg", snapshot.jpeg)
+        }
+    }
+
+    // Streams every event published to MQTT as server-sent events, starting from the one after
+    // Last-Event-ID when a client reconnects and it is still in the ring
+    private fun startEvents(request: HttpRequest, response: HttpResponse) {
+        response.setHeader("Cache-Control", "no-cache")
+        response.setContentType(EventStream.CONTENT_TYPE)
+        response.code(200)
+        response.writeHead()
+        val subscriber = events.subscribe(EventConnection(response), request.getHeader("Last-Event-ID"))
+        response.setClosedCallback {
+            subscriber.remove()
+        }
+        Timber.i("Event subscriber count is " + events.subscribers.size)
+    }
+
+    private val eventPingRunnable = object : Runnable {
+        override fun run() {
+            events.ping()
+            eventPingHandler.postDelayed(this, EVENTS_PING_INTERVAL)
+        }
+    }
+
+    // State is served from the cached serialization. With ?since=<version>&wait=<ms> the request is
+    // held until the version moves past since, or answered with the unchanged state once wait runs out.
+    private fun pollState(request: HttpRequest, response: HttpResponse) {
+        val since = request.getQuery("since")?.toLongOrNull()
+        val wait = Math.min(request.getQuery("wait")?.toLongOrNull() ?: 0L, STATE_MAX_WAIT)
+        if (since != null && wait > 0) {
+            val callback = VersionedState.Callback { sendState(request, response, it) }
+            if (appState.await(since, callback)) {
+                stateTimeoutHandler.postDelayed({
+                    if (appState.cancel(callback)) {
+                        sendState(request, response, appState.snapshot)
                     }
-                }
-            })
+                }, wait)
+                return
+            }
+        }
+        sendState(request, response, appState.snapshot)
+    }
+
+    private fun sendState(request: HttpRequest, response: HttpResponse, snapshot: VersionedState.Snapshot) {
+        response.setHeader("Cache-Control", "no-cache")
+        response.setHeader("ETag", snapshot.eTag)
+        response.setHeader(HEADER_STATE_VERSION, snapshot.version.toString())
+        if (snapshot.matches(request.getHeader("If-None-Match"))) {
+            response.code(304)
+            response.end()
+        } else {
+            response.send("$CONTENT_TYPE_JSON; charset=utf-8", snapshot.bytes)
         }
     }
 
@@ -544,28 +724,39 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
     // TODO we stop entire camera not just streaming
     private fun stopMJPEG() {
         Timber.d("stopMJPEG Called")
-        mJpegSockets.clear()
-        //cameraReader?.getJpeg()?.removeObservers(this)
+        cameraReader?.getStreamFanout()?.removeAll()
         httpServer?.removeAction("GET", "/camera/stream")
+        httpServer?.removeAction("GET", "/camera/snapshot.jpg")
     }
 
-    private fun startMJPEG(response: AsyncHttpServerResponse) {
+    // Frames are written by the fanout as they are encoded, a client that stops reading only ever
+    // misses frames and is dropped once it falls too far behind
+    private fun startMJPEG(response: HttpResponse, variant: StreamVariant) {
         Timber.d("startmJpeg Called")
-        if (mJpegSockets.size < configuration.httpMJPEGMaxStreams) {
+        val reader = cameraReader
+        if (reader == null) {
+            response.code(503)
+            response.send("Camera not available")
+            return
+        }
+        val fanout = reader.getStreamFanout()
+        if (fanout.clients.size < configuration.httpMJPEGMaxStreams) {
             Timber.i("Starting new MJPEG stream")
-            response.headers.add("Cache-Control", "no-cache")
-            response.headers.add("Connection", "close")
-            response.headers.add("Pragma", "no-cache")
-            response.setContentType("multipart/x-mixed-replace; boundary=--jpgboundary")
+            response.setHeader("Cache-Control", "no-cache")
+            response.setHeader("Pragma", "no-cache")
+            response.setContentType(MultipartFrame.CONTENT_TYPE)
             response.code(200)
             response.writeHead()
-            mJpegSockets.add(response)
+            val client = reader.addStreamClient(MjpegConnection(response), variant)
+            response.setClosedCallback {
+                client.remove()
+                Timber.i("MJPEG Session Count is " + fanout.clients.size)
+            }
         } else {
             Timber.i("MJPEG stream limit was reached, not starting")
             response.send("Max streams exceeded")
-            response.end()
         }
-        Timber.i("MJPEG Session Count is " + mJpegSockets.size)
+        Timber.i("MJPEG Session Count is " + fanout.clients.size)
     }
 
     private fun processCommand(commandJson: JSONObject): Boolean {
@@ -630,6 +821,23 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
             if (commandJson.has(COMMAND_VOLUME)) {
                 setVolume((commandJson.getInt(COMMAND_VOLUME).toFloat() / 100))
             }
+            if (commandJson.has(COMMAND_MOTION_MASK)) {
+                // An array of rows sets the mask and null clears it, anything else is a malformed command
+                val mask = commandJson.get(COMMAND_MOTION_MASK)
+                when (mask) {
+                    is JSONArray -> updateMotionMask(mask.toString())
+                    JSONObject.NULL -> updateMotionMask("")
+                    else -> throw JSONException("$COMMAND_MOTION_MASK must be an array of rows or null")
+                }
+            }
+            if (commandJson.has(COMMAND_CAPTURE)) {
+                startCapture(commandJson.getInt(COMMAND_CAPTURE))
+            }
+            if (commandJson.has(COMMAND_LATENCY)) {
+                if (commandJson.getBoolean(COMMAND_LATENCY)) {
+                    publishCommand(COMMAND_LATENCY, latency)
+                }
+            }
         } catch (ex: JSONException) {
             Timber.e("Invalid JSON passed as a command: " + commandJson.toString())
             return false
@@ -648,6 +856,31 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         }
     }
 
+    // An empty mask clears it, the motion detector is rebuilt so the new mask applies to the next frame
+    @Throws(JSONException::class)
+    private fun updateMotionMask(mask: String) {
+        MotionDetector.parseMask(mask) // validate before it is stored
+        configuration.cameraMotionMask = mask
+        cameraRestartHandler.removeCallbacks(restartCameraRunnable)
+        cameraRestartHandler.post(restartCameraRunnable)
+    }
+
+    // Records raw preview frames for tuning motion detection off the device, see MotionReplay
+    private fun startCapture(frames: Int) {
+        if (frames <= 0) {
+            return
+        }
+        val directory = File(applicationContext.getExternalFilesDir(null) ?: applicationContext.filesDir, "captures")
+        val file = File(directory, "motion-${System.currentTimeMillis()}.wpc")
+        try {
+            if (cameraReader?.startCapture(file, frames, configuration) != true) {
+                Timber.w("Motion capture needs the camera and motion detection enabled")
+            }
+        } catch (e: IOException) {
+            Timber.e("Unable to start motion capture: " + e.message)
+        }
+    }
+
     private fun browseUrl(url: String) {
         Timber.d("browseUrl")
         val intent = Intent(BROADCAST_ACTION_LOAD_URL)
@@ -760,12 +993,13 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
                 ex.printStackTrace()
             }
             motionDetected = true
-            publishCommand(COMMAND_SENSOR_MOTION, data)
+            publishTraced(FrameTracer.EVENT_MOTION, COMMAND_SENSOR_MOTION, data)
             motionClearHandler.postDelayed({ clearMotionDetected() }, delay)
         }
     }
 
     private fun publishApplicationState() {
+        refreshState()
         if (!appStatePublished) {
             val delay = (3000).toLong()
             appStatePublished = true
@@ -787,7 +1021,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
                 ex.printStackTrace()
             }
             faceDetected = true
-            publishCommand(COMMAND_SENSOR_FACE, data)
+            publishTraced(FrameTracer.EVENT_FACE, COMMAND_SENSOR_FACE, data)
 
         }
         faceClearHandler.removeCallbacksAndMessages(null)
@@ -931,7 +1165,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
             }
             qrCodeRead = true
             sendToastMessage(getString(R.string.toast_qr_code_read))
-            publishCommand(COMMAND_SENSOR_QR_CODE, jdata)
+            publishTraced(FrameTracer.EVENT_QR, COMMAND_SENSOR_QR_CODE, jdata)
             qrCodeClearHandler.postDelayed({ clearQrCodeRead() }, 5000)
         }
     }
@@ -998,6 +1232,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         override fun onReceive(context: Context, intent: Intent) {
             if (BROADCAST_EVENT_URL_CHANGE == intent.action) {
                 appLaunchUrl = intent.getStringExtra(BROADCAST_EVENT_URL_CHANGE)
+                refreshState()
                 if (appLaunchUrl != configuration.appLaunchUrl) {
                     Timber.i("Url changed to $appLaunchUrl")
                     publishApplicationState()
@@ -1014,6 +1249,19 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         }
     }
 
+    // Screen on and off are only sent to receivers registered with the system
+    private val screenStateReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            refreshState()
+        }
+    }
+
+    private val brightnessObserver = object : ContentObserver(Handler()) {
+        override fun onChange(selfChange: Boolean) {
+            refreshState()
+        }
+    }
+
     private val sensorCallback = object : SensorCallback {
         override fun publishSensorData(sensorName: String, sensorData: JSONObject) {
             publishApplicationState()
@@ -1034,6 +1282,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
 
         override fun onMotionDetected() {
             Timber.i("Motion detected")
+            FrameTracer.getShared().markEvent(FrameTracer.EVENT_MOTION, FrameTracer.EVENT_CALLBACK)
             if (configuration.cameraMotionWake) {
                 configurePowerOptions()
                 wakeScreen()
@@ -1047,6 +1296,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
 
         override fun onFaceDetected() {
             Timber.i("Face detected")
+            FrameTracer.getShared().markEvent(FrameTracer.EVENT_FACE, FrameTracer.EVENT_CALLBACK)
             Timber.d("configuration.cameraMotionBright ${configuration.cameraMotionBright}")
             if (configuration.cameraFaceWake) {
                 configurePowerOptions()
@@ -1057,6 +1307,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
 
         override fun onQRCode(data: String) {
             Timber.i("QR Code Received: $data")
+            FrameTracer.getShared().markEvent(FrameTracer.EVENT_QR, FrameTracer.EVENT_CALLBACK)
             publishQrCode(data)
         }
     }
@@ -1066,6 +1317,13 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         const val BROADCAST_EVENT_URL_CHANGE = "BROADCAST_EVENT_URL_CHANGE"
         const val BROADCAST_EVENT_SCREEN_TOUCH = "BROADCAST_EVENT_SCREEN_TOUCH"
         const val SCREEN_WAKE_TIME = 30000L
+        const val SNAPSHOT_MAX_AGE = 1000L // serve cached snapshots up to a second old
+        const val SNAPSHOT_TIMEOUT = 3000L
+        const val CONTENT_TYPE_JSON = "application/json"
+        const val HEADER_STATE_VERSION = "X-State-Version"
+        const val STATE_MAX_WAIT = 30000L // below the server idle timeout
+        const val EVENTS_CAPACITY = 256
+        const val EVENTS_PING_INTERVAL = 15000L
         const val BROADCAST_ALERT_MESSAGE = "BROADCAST_ALERT_MESSAGE"
         const val BROADCAST_CLEAR_ALERT_MESSAGE = "BROADCAST_CLEAR_ALERT_MESSAGE"
         const val BROADCAST_TOAST_MESSAGE = "BROADCAST_TOAST_MESSAGE"
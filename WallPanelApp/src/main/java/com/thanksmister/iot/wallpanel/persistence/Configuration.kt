@@ -19,6 +19,8 @@ package com.thanksmister.iot.wallpanel.persistence
 import android.content.Context
 import android.content.SharedPreferences
 import com.thanksmister.iot.wallpanel.R
+import com.thanksmister.iot.wallpanel.modules.CameraReader
+import com.thanksmister.iot.wallpanel.modules.MotionDetector
 import javax.inject.Inject
 
 class Configuration @Inject
@@ -120,6 +122,106 @@ constructor(private val context: Context, private val sharedPreferences: SharedP
     val cameraMotionMinLuma: Int
         get() = Integer.valueOf(getStringPref(R.string.key_setting_camera_motionminluma, R.string.default_setting_camera_motionminluma).trim().toInt())
 
+    /**
+     * Minimum Luma sum a frame needs before face and QR code detection look at it, 0 runs them on
+     * every frame. Kept apart from [cameraMotionMinLuma] so tuning motion detection for a dark room
+     * does not switch them off.
+     */
+    var cameraDetectionMinLuma: Int
+        get() = getIntPref(R.string.key_setting_camera_detection_minluma, 0)
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_detection_minluma), value.toString()).apply()
+        }
+
+    var cameraMotionDetection: String
+        get() = sharedPreferences.getString(context.getString(R.string.key_setting_camera_motion_detection),
+                MotionDetector.DETECTION_AGGREGATE_LUMA).orEmpty()
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_motion_detection), value).apply()
+        }
+
+    var cameraStreamEncoder: String
+        get() = sharedPreferences.getString(context.getString(R.string.key_setting_camera_stream_encoder),
+                CameraReader.ENCODER_YUV_IMAGE).orEmpty()
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_stream_encoder), value).apply()
+        }
+
+    /**
+     * Where frames come from: [CameraReader.FRAME_SOURCE_CAMERA] for the device camera,
+     * [CameraReader.FRAME_SOURCE_SYNTHETIC] for a test pattern, an http(s) URL of an MJPEG camera,
+     * or the path of a capture file to play back in a loop. Left empty it is the device camera.
+     */
+    var cameraFrameSource: String
+        get() = sharedPreferences.getString(context.getString(R.string.key_setting_camera_frame_source), null)
+                .orEmpty().trim().ifEmpty { CameraReader.FRAME_SOURCE_CAMERA }
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_frame_source), value).apply()
+        }
+
+    /**
+     * Camera preview size, which is what gets streamed. A width of 0 picks the largest size the
+     * camera supports up to 720p, otherwise the supported size closest to the one set is used.
+     */
+    var cameraPreviewWidth: Int
+        get() = getIntPref(R.string.key_setting_camera_preview_width, 0)
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_preview_width), value.toString()).apply()
+        }
+
+    var cameraPreviewHeight: Int
+        get() = getIntPref(R.string.key_setting_camera_preview_height, 0)
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_preview_height), value.toString()).apply()
+        }
+
+    /**
+     * Width motion detection works at whatever the preview size, the downsample factor of 1, 2, 4
+     * or 8 is picked to match. 0 runs motion detection on full frames.
+     */
+    var cameraDetectorWidth: Int
+        get() = getIntPref(R.string.key_setting_camera_detector_width, CameraReader.DETECTOR_WIDTH)
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_detector_width), value.toString()).apply()
+        }
+
+    /**
+     * Motion region of interest mask as a JSON array of rows, empty when the whole frame is used.
+     */
+    var cameraMotionMask: String
+        get() = sharedPreferences.getString(PREF_CAMERA_MOTION_MASK, "").orEmpty()
+        set(value) {
+            sharedPreferences.edit().putString(PREF_CAMERA_MOTION_MASK, value).apply()
+        }
+
+    var cameraMotionGridSize: Int
+        get() = getIntPref(R.string.key_setting_camera_motion_grid, MotionDetector.DEFAULT_GRID_SIZE)
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_motion_grid), value.toString()).apply()
+        }
+
+    /**
+     * Background model tuning, see [MotionDetector.Builder.setBackgroundModel].
+     */
+    var cameraMotionSigmas: Float
+        get() = sharedPreferences.getString(context.getString(R.string.key_setting_camera_motion_sigmas), null)
+                ?.trim()?.toFloatOrNull() ?: MotionDetector.DEFAULT_SIGMAS
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_motion_sigmas), value.toString()).apply()
+        }
+
+    var cameraMotionFramesRequired: Int
+        get() = getIntPref(R.string.key_setting_camera_motion_frames, MotionDetector.DEFAULT_FRAMES_REQUIRED)
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_motion_frames), value.toString()).apply()
+        }
+
+    var cameraMotionFrameWindow: Int
+        get() = getIntPref(R.string.key_setting_camera_motion_window, MotionDetector.DEFAULT_FRAME_WINDOW)
+        set(value) {
+            sharedPreferences.edit().putString(context.getString(R.string.key_setting_camera_motion_window), value.toString()).apply()
+        }
+
 
     val cameraMotionWake: Boolean
         get() = getBoolPref(R.string.key_setting_camera_motionwake,
@@ -357,6 +459,14 @@ constructor(private val context: Context, private val sharedPreferences: SharedP
         return if (pref!!.isEmpty()) def else pref
     }
 
+    /**
+     * Reads a number kept as text, the way EditTextPreference stores it, falling back to [def]
+     * when it is not set or does not parse.
+     */
+    private fun getIntPref(resId: Int, def: Int): Int {
+        return sharedPreferences.getString(context.getString(resId), null)?.trim()?.toIntOrNull() ?: def
+    }
+
     private fun getBoolPref(resId: Int, defId: Int): Boolean {
         return sharedPreferences.getBoolean(
                 context.getString(resId),
@@ -394,6 +504,7 @@ constructor(private val context: Context, private val sharedPreferences: SharedP
         const val PREF_IMAGE_ROTATION = "pref_image_rotation"
         private val PREF_CAMERA_FACE_SIZE = "pref_camera_face_size"
         private val PREF_CAMERA_MOTION_LATENCY = "pref_camera_motion_latency"
+        private val PREF_CAMERA_MOTION_MASK = "pref_camera_motion_mask"
         private val PREF_WEB_SCREENSAVER_URL = "pref_web_screensaver_url"
         private val PREF_WEB_SCREENSAVER = "pref_web_screensaver"
         const val WEB_SCREEN_SAVER = "https://thanksmister.com/mqtt_alarm_panel/gif_background.html"
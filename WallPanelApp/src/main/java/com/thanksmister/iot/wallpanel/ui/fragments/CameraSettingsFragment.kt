@@ -37,6 +37,7 @@ import androidx.appcompat.app.AppCompatDelegate
 import androidx.core.content.ContextCompat
 import androidx.navigation.Navigation
 import com.thanksmister.iot.wallpanel.R
+import com.thanksmister.iot.wallpanel.modules.CameraReader
 import com.thanksmister.iot.wallpanel.persistence.Configuration
 import com.thanksmister.iot.wallpanel.ui.activities.LiveCameraActivity
 import com.thanksmister.iot.wallpanel.ui.activities.SettingsActivity
@@ -56,6 +57,12 @@ class CameraSettingsFragment : BaseSettingsFragment() {
     private var fpsPreference: EditTextPreference? = null
     private var cameraStreaming: Preference? = null
     private var rotatePreference: ListPreference? = null
+    private var frameSourcePreference: EditTextPreference? = null
+    private var streamEncoderPreference: ListPreference? = null
+    private var previewWidthPreference: EditTextPreference? = null
+    private var previewHeightPreference: EditTextPreference? = null
+    private var detectorWidthPreference: EditTextPreference? = null
+    private var detectionLumaPreference: EditTextPreference? = null
 
     var cameraList = ArrayList<CameraUtils.Companion.CameraList>()
 
@@ -156,6 +163,54 @@ class CameraSettingsFragment : BaseSettingsFragment() {
         cameraPreference?.isChecked = configuration.cameraEnabled
         bindPreferenceSummaryToValue(fpsPreference!!)
 
+        frameSourcePreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_frame_source)) as EditTextPreference
+        frameSourcePreference?.text = configuration.cameraFrameSource
+        frameSourcePreference?.summary = configuration.cameraFrameSource
+        frameSourcePreference?.setOnPreferenceChangeListener { preference, newValue ->
+            preference.summary = newValue.toString().trim().ifEmpty { CameraReader.FRAME_SOURCE_CAMERA }
+            true
+        }
+
+        streamEncoderPreference = findPreference<ListPreference>(getString(R.string.key_setting_camera_stream_encoder)) as ListPreference
+        streamEncoderPreference?.value = configuration.cameraStreamEncoder
+        streamEncoderPreference?.summary = streamEncoderPreference?.entry
+        streamEncoderPreference?.setOnPreferenceChangeListener { preference, newValue ->
+            if (preference is ListPreference) {
+                val index = preference.findIndexOfValue(newValue.toString())
+                preference.summary = if (index >= 0) preference.entries[index] else ""
+            }
+            true
+        }
+
+        previewWidthPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_preview_width)) as EditTextPreference
+        previewWidthPreference?.text = configuration.cameraPreviewWidth.toString()
+        previewWidthPreference?.summary = configuration.cameraPreviewWidth.toString()
+        previewWidthPreference?.onPreferenceChangeListener = sizeChangeListener
+
+        previewHeightPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_preview_height)) as EditTextPreference
+        previewHeightPreference?.text = configuration.cameraPreviewHeight.toString()
+        previewHeightPreference?.summary = configuration.cameraPreviewHeight.toString()
+        previewHeightPreference?.onPreferenceChangeListener = sizeChangeListener
+
+        detectorWidthPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_detector_width)) as EditTextPreference
+        detectorWidthPreference?.text = configuration.cameraDetectorWidth.toString()
+        detectorWidthPreference?.summary = configuration.cameraDetectorWidth.toString()
+        detectorWidthPreference?.onPreferenceChangeListener = sizeChangeListener
+
+        detectionLumaPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_detection_minluma)) as EditTextPreference
+        detectionLumaPreference?.text = configuration.cameraDetectionMinLuma.toString()
+        detectionLumaPreference?.summary = configuration.cameraDetectionMinLuma.toString()
+        detectionLumaPreference?.setOnPreferenceChangeListener { preference, newValue ->
+            val luma = newValue.toString().trim().toIntOrNull()
+            if (luma != null && luma in 0..MAX_DETECTION_MIN_LUMA) {
+                preference.summary = luma.toString()
+                true
+            } else {
+                Toast.makeText(requireContext(), getString(R.string.toast_error_detection_minluma), Toast.LENGTH_SHORT).show()
+                false
+            }
+        }
+
         motionDetectionPreference = findPreference("button_key_motion_detection")
         faceDetectionPreference = findPreference("button_key_face_detection")
         qrCodePreference = findPreference("button_key_qr_code")
@@ -196,6 +251,20 @@ class CameraSettingsFragment : BaseSettingsFragment() {
         }
     }
 
+    /**
+     * Accepts a size in pixels of 0 or more, where 0 leaves the choice to the camera reader.
+     */
+    private val sizeChangeListener = Preference.OnPreferenceChangeListener { preference, newValue ->
+        val size = newValue.toString().trim().toIntOrNull()
+        if (size != null && size >= 0) {
+            preference.summary = size.toString()
+            true
+        } else {
+            Toast.makeText(requireContext(), getString(R.string.toast_error_number, "0"), Toast.LENGTH_SHORT).show()
+            false
+        }
+    }
+
     private fun requestCameraPermissions() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !configuration.cameraPermissionsShown) {
             if (PackageManager.PERMISSION_DENIED == ContextCompat.checkSelfPermission(requireActivity(), Manifest.permission.CAMERA)
@@ -276,5 +345,6 @@ class CameraSettingsFragment : BaseSettingsFragment() {
         const val PERMISSIONS_REQUEST_CAMERA = 201
         const val PREF_CAMERA_ROTATE = "pref_setting_camera_rotate"
         const val PREF_CAMERA_ENABLED = "pref_setting_camera_enabled"
+        const val MAX_DETECTION_MIN_LUMA = 1000
     }
 }
\ No newline at end of file
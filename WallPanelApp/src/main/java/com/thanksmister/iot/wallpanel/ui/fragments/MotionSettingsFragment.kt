@@ -21,6 +21,7 @@ import android.content.SharedPreferences
 import android.os.Bundle
 import androidx.preference.SwitchPreference
 import androidx.preference.EditTextPreference
+import androidx.preference.ListPreference
 import android.view.Menu
 import android.view.MenuInflater
 import android.view.MenuItem
@@ -38,6 +39,11 @@ class MotionSettingsFragment : BaseSettingsFragment() {
     private var motionClearPreference: EditTextPreference? = null
     private var motionLeniencyPreference: EditTextPreference? = null
     private var motionLumaPreference: EditTextPreference? = null
+    private var motionEnginePreference: ListPreference? = null
+    private var motionGridPreference: EditTextPreference? = null
+    private var motionSigmasPreference: EditTextPreference? = null
+    private var motionFramesPreference: EditTextPreference? = null
+    private var motionWindowPreference: EditTextPreference? = null
 
     override fun onAttach(context: Context) {
         AndroidSupportInjection.inject(this)
@@ -91,6 +97,73 @@ class MotionSettingsFragment : BaseSettingsFragment() {
             motionLeniencyPreference?.summary = it.toString()
         }
 
+        motionEnginePreference = findPreference<ListPreference>(getString(R.string.key_setting_camera_motion_detection)) as ListPreference
+        motionEnginePreference?.value = configuration.cameraMotionDetection
+        motionEnginePreference?.summary = motionEnginePreference?.entry
+        motionEnginePreference?.setOnPreferenceChangeListener { preference, newValue ->
+            if (preference is ListPreference) {
+                val index = preference.findIndexOfValue(newValue.toString())
+                preference.summary = if (index >= 0) preference.entries[index] else ""
+            }
+            true
+        }
+
+        motionGridPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motion_grid)) as EditTextPreference
+        motionGridPreference?.text = configuration.cameraMotionGridSize.toString()
+        motionGridPreference?.summary = configuration.cameraMotionGridSize.toString()
+        motionGridPreference?.setOnPreferenceChangeListener { preference, newValue ->
+            val grid = newValue.toString().trim().toIntOrNull()
+            if (grid != null && grid >= 1) {
+                preference.summary = grid.toString()
+                true
+            } else {
+                Toast.makeText(requireContext(), getString(R.string.toast_error_number, "1"), Toast.LENGTH_SHORT).show()
+                false
+            }
+        }
+
+        motionSigmasPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motion_sigmas)) as EditTextPreference
+        motionSigmasPreference?.text = configuration.cameraMotionSigmas.toString()
+        motionSigmasPreference?.summary = configuration.cameraMotionSigmas.toString()
+        motionSigmasPreference?.setOnPreferenceChangeListener { preference, newValue ->
+            val sigmas = newValue.toString().trim().toFloatOrNull()
+            if (sigmas != null && sigmas > 0) {
+                preference.summary = sigmas.toString()
+                true
+            } else {
+                Toast.makeText(requireContext(), getString(R.string.toast_error_bad_decimal), Toast.LENGTH_SHORT).show()
+                false
+            }
+        }
+
+        motionFramesPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motion_frames)) as EditTextPreference
+        motionFramesPreference?.text = configuration.cameraMotionFramesRequired.toString()
+        motionFramesPreference?.summary = configuration.cameraMotionFramesRequired.toString()
+        motionFramesPreference?.setOnPreferenceChangeListener { preference, newValue ->
+            val frames = newValue.toString().trim().toIntOrNull()
+            if (frames != null && frames >= 1 && frames <= configuration.cameraMotionFrameWindow) {
+                preference.summary = frames.toString()
+                true
+            } else {
+                Toast.makeText(requireContext(), getString(R.string.toast_error_motion_frames), Toast.LENGTH_SHORT).show()
+                false
+            }
+        }
+
+        motionWindowPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motion_window)) as EditTextPreference
+        motionWindowPreference?.text = configuration.cameraMotionFrameWindow.toString()
+        motionWindowPreference?.summary = configuration.cameraMotionFrameWindow.toString()
+        motionWindowPreference?.setOnPreferenceChangeListener { preference, newValue ->
+            val window = newValue.toString().trim().toIntOrNull()
+            if (window != null && window >= 1 && window >= configuration.cameraMotionFramesRequired) {
+                preference.summary = window.toString()
+                true
+            } else {
+                Toast.makeText(requireContext(), getString(R.string.toast_error_motion_frames), Toast.LENGTH_SHORT).show()
+                false
+            }
+        }
+
         // TODO deprecate this hot mess
         bindPreferenceSummaryToValue(motionDetectionPreference!!)
         bindPreferenceSummaryToValue(motionWakePreference!!)
@@ -60,6 +60,9 @@ class MqttUtils {
         const val COMMAND_AUDIO = "audio"
         const val COMMAND_SPEAK = "speak"
         const val COMMAND_VOLUME = "volume"
+        const val COMMAND_MOTION_MASK = "motionMask"
+        const val COMMAND_CAPTURE = "capture"
+        const val COMMAND_LATENCY = "latency"
 
         private val topicsList = ArrayList<String>()
 